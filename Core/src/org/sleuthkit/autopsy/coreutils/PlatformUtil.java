@@ -524,6 +524,31 @@ public class PlatformUtil {
         return virtMem;
     }
 
+    /**
+     * Query and return the total physical memory of the machine
+     *
+     * @return total physical memory in bytes or -1 if couldn't be queried
+     */
+    public static synchronized long getTotalPhysicalMemory() {
+        long totalMem = -1;
+
+        try {
+            if (sigar == null) {
+                sigar = org.sleuthkit.autopsy.corelibs.SigarLoader.getSigar();
+            }
+
+            if (sigar == null) {
+                System.out.println("Can't get total physical memory, sigar not initialized. ");
+                return -1;
+            }
+            totalMem = sigar.getMem().getTotal();
+        } catch (Exception e) {
+            System.out.println("Can't get total physical memory, " + e.toString());
+        }
+
+        return totalMem;
+    }
+
     /**
      * Return formatted string with Jvm heap and non-heap memory usage
      *
@@ -20,9 +20,13 @@ package org.sleuthkit.autopsy.coreutils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.logging.Level;
@@ -69,6 +73,23 @@ public class StringExtract {
             SCRIPT.GEORGIAN, SCRIPT.HEBREW, SCRIPT.LAO, SCRIPT.MONGOLIAN, SCRIPT.THAI, SCRIPT.TIBETAN);
     //current total string buffer, reuse for performance
     private final StringBuilder curString = new StringBuilder();
+    //initial size of the reused char buffers of the results, grown as needed
+    private static final int INITIAL_RESULT_CHARS = 256;
+    /**
+     * char classes in the char class tables
+     */
+    private static final byte CHAR_CLASS_NONE = 0;
+    private static final byte CHAR_CLASS_GENERIC = 1;
+    private static final byte CHAR_CLASS_SCRIPT_BASE = 2;
+    /**
+     * char class tables built so far, by enabled scripts, shared by the
+     * instances since one is created for every file
+     */
+    private static final Map<EnumSet<SCRIPT>, byte[]> charClassTables = new HashMap<EnumSet<SCRIPT>, byte[]>();
+    //char class of every char of the unicode table, for the enabled scripts
+    private byte[] charClasses;
+    //bytes that can start a UTF-8 string of the enabled scripts
+    private final boolean[] utf8Starts = new boolean[256];
 
     /**
      * Initializes the StringExtract utility Sets enabled scripts to all
@@ -111,6 +132,7 @@ public class StringExtract {
      */
     public final void setEnabledScripts(List<SCRIPT> scripts) {
         this.enabledScripts = scripts;
+        updateCharClasses();
     }
 
 
@@ -123,6 +145,7 @@ public class StringExtract {
 
         this.enabledScripts = new ArrayList<SCRIPT>();
         this.enabledScripts.add(script);
+        updateCharClasses();
     }
 
     /**
@@ -171,6 +194,59 @@ public class StringExtract {
         return SUPPORTED_SCRIPTS;
     }
 
+    /**
+     * Look up (or build and cache) the char class table of the enabled
+     * scripts, and the table of bytes that can start a UTF-8 string
+     */
+    private void updateCharClasses() {
+        final EnumSet<SCRIPT> scripts = EnumSet.noneOf(SCRIPT.class);
+        scripts.addAll(enabledScripts);
+
+        synchronized (charClassTables) {
+            byte[] classes = charClassTables.get(scripts);
+            if (classes == null) {
+                classes = buildCharClasses();
+                charClassTables.put(scripts, classes);
+            }
+            charClasses = classes;
+        }
+
+        for (int b = 0; b < 256; ++b) {
+            if (b <= 0x7F) {
+                utf8Starts[b] = charClasses[b] != CHAR_CLASS_NONE;
+            } else {
+                //lead bytes of valid multi-byte sequences
+                utf8Starts[b] = b >= 0xC2 && b <= 0xF4;
+            }
+        }
+    }
+
+    /**
+     * Classify every char of the unicode table for the enabled scripts, so the
+     * extraction needs a single array lookup per char
+     *
+     * @return table with a class for each char: CHAR_CLASS_NONE if the char
+     * ends a string, CHAR_CLASS_GENERIC if it can be part of a string of any
+     * script, or the script ordinal + CHAR_CLASS_SCRIPT_BASE
+     */
+    private byte[] buildCharClasses() {
+        final int tableSize = StringExtractUnicodeTable.getUnicodeTableSize();
+        final byte[] classes = new byte[tableSize];
+        for (int ch = 0; ch < tableSize; ++ch) {
+            final SCRIPT script = unicodeTable.getScript(ch);
+            if (script == SCRIPT.NONE) {
+                classes[ch] = CHAR_CLASS_NONE;
+            } else if (StringExtractUnicodeTable.isGeneric(script)) {
+                classes[ch] = CHAR_CLASS_GENERIC;
+            } else if (isExtractionEnabled(script)) {
+                classes[ch] = (byte) (StringExtractUnicodeTable.getScriptValue(script) + CHAR_CLASS_SCRIPT_BASE);
+            } else {
+                classes[ch] = CHAR_CLASS_NONE;
+            }
+        }
+        return classes;
+    }
+
     /**
      * Runs the byte buffer through the string extractor
      *
@@ -185,7 +261,11 @@ public class StringExtract {
              return new StringExtractResult();
         }
         
-        final int buffLen = buff.length;
+        //bytes past len are never extracted, no need to scan them
+        final int end = Math.min(len, buff.length);
+        final byte[] classes = charClasses;
+        //for reading the buffer a long word at a time
+        final ByteBuffer words = ByteBuffer.wrap(buff);
 
         int processedBytes = 0;
         int curOffset = offset;
@@ -199,46 +279,61 @@ public class StringExtract {
         //(one byte past the last byte processed in by last extraction)
         int firstUnprocessedOff = offset;
 
-        while (curOffset < buffLen) {
-            //shortcut, skip processing empty bytes
-            if (buff[curOffset] == 0 && curOffset + 1 < buffLen && buff[curOffset + 1] == 0) {
+        while (curOffset < end) {
+            //shortcut, skip processing empty bytes, a long word at a time
+            while (curOffset + 8 <= end && words.getLong(curOffset) == 0L) {
+                curOffset += 8;
+            }
+            if (curOffset >= end) {
+                break;
+            }
+            if (buff[curOffset] == 0 && curOffset + 1 < end && buff[curOffset + 1] == 0) {
                 curOffset += 2;
                 continue;
             }
 
-            //extract using all methods and see which one wins
-            StringExtractResult resUTF16 = null;
-            boolean runUTF16 = false;
-            if (enableUTF16 && curOffset % 2 == 0) {
-                runUTF16 = true;
-                extractUTF16(buff, len, curOffset, true, resUTF16En1);
-                extractUTF16(buff, len, curOffset, false, resUTF16En2);
-                resUTF16 = resUTF16En1.numChars > resUTF16En2.numChars ? resUTF16En1 : resUTF16En2;
-            } 
-            
-            if (enableUTF8) {
-                extractUTF8(buff, len, curOffset, resUTF8);
+            //shortcut, skip bytes that cannot start a string in any of the encodings
+            final boolean evenOffset = curOffset % 2 == 0;
+            final int byte0 = buff[curOffset] & 0xFF;
+            boolean candidate = enableUTF8 && utf8Starts[byte0];
+            if (!candidate && enableUTF16 && evenOffset && curOffset + 1 < end) {
+                final int byte1 = buff[curOffset + 1] & 0xFF;
+                candidate = classes[(byte0 << 8) | byte1] != CHAR_CLASS_NONE
+                        || classes[(byte1 << 8) | byte0] != CHAR_CLASS_NONE;
             }
 
+            //extract using all methods and see which one wins
             StringExtractResult resWin = null;
-            if (enableUTF8 && enableUTF16) {
-                resWin = runUTF16 && resUTF16.numChars > resUTF8.numChars ? resUTF16 : resUTF8;
-            } else if (enableUTF16){
-                resWin = resUTF16;
-            }
-            else if (enableUTF8) {
-                resWin = resUTF8;
+            if (candidate) {
+                StringExtractResult resUTF16 = null;
+                if (enableUTF16 && evenOffset) {
+                    extractUTF16(buff, end, curOffset, true, resUTF16En1);
+                    extractUTF16(buff, end, curOffset, false, resUTF16En2);
+                    resUTF16 = resUTF16En1.numChars > resUTF16En2.numChars ? resUTF16En1 : resUTF16En2;
+                }
+
+                if (enableUTF8) {
+                    extractUTF8(buff, end, curOffset, resUTF8);
+                }
+
+                if (enableUTF8 && enableUTF16) {
+                    resWin = resUTF16 != null && resUTF16.numChars > resUTF8.numChars ? resUTF16 : resUTF8;
+                } else if (enableUTF16) {
+                    resWin = resUTF16;
+                } else {
+                    resWin = resUTF8;
+                }
             }
 
-            if (resWin.numChars >= MIN_CHARS_STRING) {
+            if (resWin != null && resWin.numChars >= MIN_CHARS_STRING) {
                 //record string 
                 if (startOffset == offset) {
                     //advance start offset where first string starts it hasn't been advanced
                     startOffset = resWin.offset;
                 }
                 curStringLen += resWin.numChars;
-                curString.append(resWin.textString);
-                curString.append("\n");
+                curString.append(resWin.chars, 0, resWin.numChars);
+                curString.append('\n');
                 curStringLen += resWin.numChars + 1;
 
                 //advance
@@ -266,109 +361,77 @@ public class StringExtract {
         return res;
     }
 
+    /**
+     * Extract a UTF-16 string starting at the offset into the char buffer of
+     * the result. The text string of the result is not set.
+     *
+     * @param endianSwap true for big endian, false for little endian
+     */
     private StringExtractResult extractUTF16(byte[] buff, int len, int offset, boolean endianSwap, final StringExtractResult res) {
         res.reset();
-        
-        int curOffset = offset;
-
-        final StringBuilder tempString = new StringBuilder();
-
-        SCRIPT currentScript = SCRIPT.NONE;
 
-        boolean inControl = false;
+        final byte[] classes = charClasses;
+        char[] chars = res.chars;
+        int curOffset = offset;
+        int numChars = 0;
+        //class of the script we locked in to, generic chars do not lock
+        byte currentClass = CHAR_CLASS_NONE;
 
         //while we have 2 byte chunks
-        byte[] b = new byte[2];
         while (curOffset < len - 1) {
-            b[0] = buff[curOffset++];
-            b[1] = buff[curOffset++];
-
-            if (endianSwap) {
-                byte temp = b[0];
-                b[0] = b[1];
-                b[1] = temp;
-            }
-
+            final int byte0 = buff[curOffset] & 0xFF;
+            final int byte1 = buff[curOffset + 1] & 0xFF;
             //convert the byte sequence to 2 byte char
-            //ByteBuffer bb = ByteBuffer.wrap(b);
-            //int byteVal = bb.getInt();
-            char byteVal = (char) b[1];
-            byteVal = (char) (byteVal << 8);
-            byteVal += b[0];
-
-            //skip if beyond range
-            if (byteVal > StringExtractUnicodeTable.UNICODE_TABLE_SIZE - 1) {
-                break;
-            }
+            final char ch = (char) (endianSwap ? (byte0 << 8) | byte1 : (byte1 << 8) | byte0);
 
-            //lookup byteVal in the unicode table
-            SCRIPT scriptFound = unicodeTable.getScript(byteVal);
-
-            if (scriptFound == SCRIPT.NONE) {
+            //lookup the char class, it is NONE for chars of disabled scripts
+            final byte charClass = classes[ch];
+            if (charClass == CHAR_CLASS_NONE) {
                 break;
-            }
-
-            /*
-             else if (scriptFound == SCRIPT.CONTROL) {
-             //update bytes processed
-             res.numBytes += 2;
-             continue;
-             } else if (inControl) {
-             break;
-             }*/
-
-
-            final boolean isGeneric = StringExtractUnicodeTable.isGeneric(scriptFound);
-            //allow generic and one of enabled scripts we locked in to
-            if (isGeneric
-                    || isExtractionEnabled(scriptFound)) {
-
-                if (currentScript == SCRIPT.NONE
-                        && !isGeneric) {
+            } else if (charClass != CHAR_CLASS_GENERIC) {
+                if (currentClass == CHAR_CLASS_NONE) {
                     //handle case when this is the first char in the string
                     //lock into the script
-                    currentScript = scriptFound;
-                }
-                //check if we are within the same script we are locked on to, or COMMON
-                if (currentScript == scriptFound
-                        || isGeneric) {
-                    if (res.numChars == 0) {
-                        //set the start offset of the string
-                        res.offset = curOffset;
-                    }
-                    //update bytes processed
-                    res.numBytes += 2;
-                    //append the char
-                    ++res.numChars;
-                    tempString.append(byteVal);
-                } else {
+                    currentClass = charClass;
+                } else if (currentClass != charClass) {
                     //bail out
                     break;
                 }
-            } else {
-                //bail out 
-                break;
             }
 
+            curOffset += 2;
+            if (numChars == chars.length) {
+                chars = res.growChars();
+            }
+            chars[numChars++] = ch;
         } //no more data
 
-        res.textString = tempString.toString();
+        if (numChars > 0) {
+            //the start offset of the string, as recorded after its first char
+            res.offset = offset + 2;
+        }
+        res.numChars = numChars;
+        res.numBytes = numChars * 2;
 
         return res;
     }
 
+    /**
+     * Extract a UTF-8 string starting at the offset into the char buffer of
+     * the result. The text string of the result is not set.
+     */
     private StringExtractResult extractUTF8(byte[] buff, int len, int offset, final StringExtractResult res) {
         res.reset();
 
+        final byte[] classes = charClasses;
+        char[] chars = res.chars;
         int curOffset = offset;
+        int numChars = 0;
         int ch = 0; //character being extracted
         int chBytes; //num bytes consumed by current char (1 - 4)
 
-        final StringBuilder tempString = new StringBuilder();
-
-        SCRIPT currentScript = SCRIPT.NONE;
-
-        boolean inControl = false;
+        //class of the script we locked in to, generic chars do not lock
+        byte currentClass = CHAR_CLASS_NONE;
 
         //decode and extract a character
         while (curOffset < len) {
@@ -478,63 +541,40 @@ public class StringExtract {
             }
 
 
-            curOffset += chBytes;
-
             //skip if beyond range
             if (ch > StringExtractUnicodeTable.UNICODE_TABLE_SIZE - 1) {
                 break;
             }
 
-            //lookup byteVal in the unicode table
-            SCRIPT scriptFound = unicodeTable.getScript(ch);
-
-            if (scriptFound == SCRIPT.NONE) {
+            //lookup the char class, it is NONE for chars of disabled scripts
+            final byte charClass = classes[ch];
+            if (charClass == CHAR_CLASS_NONE) {
                 break;
-            }
-
-            /*else if (scriptFound == SCRIPT.CONTROL) {
-             //update bytes processed
-             res.numBytes += chBytes;
-             continue;
-             } else if (inControl) {
-             break;
-             }*/
-
-            final boolean isGeneric = StringExtractUnicodeTable.isGeneric(scriptFound);
-            //allow generic and one of enabled scripts we locked in to
-            if (isGeneric
-                    || isExtractionEnabled(scriptFound)) {
-
-                if (currentScript == SCRIPT.NONE
-                        && !isGeneric) {
+            } else if (charClass != CHAR_CLASS_GENERIC) {
+                if (currentClass == CHAR_CLASS_NONE) {
                     //handle case when this is the first char in the string
                     //lock into the script
-                    currentScript = scriptFound;
-                }
-                //check if we are within the same script we are locked on to, or COMMON
-                if (currentScript == scriptFound
-                        || isGeneric) {
-                    if (res.numChars == 0) {
-                        //set the start byte offset of the string
-                        res.offset = curOffset;
-                    }
-                    //update bytes processed
-                    res.numBytes += chBytes;
-                    //append the char
-                    ++res.numChars;
-                    tempString.append((char) ch);
-                } else {
+                    currentClass = charClass;
+                } else if (currentClass != charClass) {
                     //bail out
                     break;
                 }
-            } else {
-                //bail out 
-                break;
             }
 
+            curOffset += chBytes;
+            if (numChars == 0) {
+                //set the start byte offset of the string
+                res.offset = curOffset;
+            }
+            //update bytes processed
+            res.numBytes += chBytes;
+            if (numChars == chars.length) {
+                chars = res.growChars();
+            }
+            chars[numChars++] = (char) ch;
         } //no more data
 
-        res.textString = tempString.toString();
+        res.numChars = numChars;
 
         return res;
     }
@@ -612,8 +652,20 @@ public class StringExtract {
         int numChars; ///< number of encoded characters extracted in the textString
         int firstUnprocessedOff; ///< first byte past the last byte used in extraction, offset+numBytes for a single result, but we keep track of it for multiple extractions
         String textString; ///< the actual text string extracted, of numChars long
+        char[] chars = new char[INITIAL_RESULT_CHARS]; ///< reused buffer the chars are extracted to, before they are added to the text string
+
+        /**
+         * Double the char buffer, keeping the chars extracted so far. The
+         * buffer is kept for the next extractions, so it ends up sized to the
+         * longest string extracted.
+         *
+         * @return the new buffer
+         */
+        char[] growChars() {
+            chars = Arrays.copyOf(chars, chars.length * 2);
+            return chars;
+        }
 
-        
         void reset() {
             offset = 0;
             numBytes = 0;
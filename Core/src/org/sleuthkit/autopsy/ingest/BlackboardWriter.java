@@ -0,0 +1,254 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.BlackboardArtifact;
+import org.sleuthkit.datamodel.BlackboardArtifact.ARTIFACT_TYPE;
+import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskException;
+
+/**
+ * Buffered writer of blackboard artifacts, shared by the ingest modules that
+ * create many artifacts, such as keyword and hash set hits.
+ *
+ * Artifacts are queued with their attributes and written in batches, when
+ * enough are queued or every few seconds, by a single writer thread holding
+ * the case database write lock for the whole batch, instead of the module
+ * threads locking the database for every artifact and every attribute.
+ * Listeners are then fired with one ModuleDataEvent per module and artifact
+ * type of the batch, instead of one event per artifact.
+ *
+ * Modules receive the written artifacts through the listener passed with each
+ * artifact, to post inbox messages for them, and must call flush() when they
+ * complete or stop, so that all their artifacts are written.
+ */
+public class BlackboardWriter {
+
+    /**
+     * Notified from the writer thread after the artifact is written, before
+     * the data event of its batch is fired
+     */
+    public interface WriteListener {
+
+        /**
+         * @param artifact the new artifact
+         * @param attributes attributes added to the artifact
+         */
+        void artifactWritten(BlackboardArtifact artifact, Collection<BlackboardAttribute> attributes);
+    }
+    private static final Logger logger = Logger.getLogger(BlackboardWriter.class.getName());
+    //batch is written when either limit is reached
+    private static final int MAX_PENDING_ARTIFACTS = 200;
+    private static final int FLUSH_INTERVAL_MS = 2000;
+    private static BlackboardWriter instance;
+    private List<PendingArtifact> pending = new ArrayList<PendingArtifact>();
+    private ScheduledExecutorService flushExecutor;
+    //serializes the flushes, so that the artifacts are written in queue order
+    private final Object flushLock = new Object();
+    private boolean flushScheduled = false;
+
+    private BlackboardWriter() {
+        IngestMetrics.getDefault().registerGauge(IngestMetrics.ARTIFACTS_PENDING, new IngestMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                synchronized (BlackboardWriter.this) {
+                    return pending.size();
+                }
+            }
+        });
+    }
+
+    public static synchronized BlackboardWriter getDefault() {
+        if (instance == null) {
+            instance = new BlackboardWriter();
+        }
+        return instance;
+    }
+
+    /**
+     * Queue a new artifact, it is written later, from the writer thread
+     *
+     * @param moduleName name of the module creating the artifact, for the
+     * data event
+     * @param content content the artifact is about
+     * @param type type of the artifact
+     * @param attributes attributes of the artifact
+     * @param listener notified after the artifact is written, or null
+     */
+    public void addArtifact(String moduleName, Content content, ARTIFACT_TYPE type,
+            Collection<BlackboardAttribute> attributes, WriteListener listener) {
+        final PendingArtifact artifact = new PendingArtifact(moduleName, content, type,
+                new ArrayList<BlackboardAttribute>(attributes), listener);
+        synchronized (this) {
+            final ScheduledExecutorService executor = getFlushExecutor();
+            pending.add(artifact);
+            if (pending.size() >= MAX_PENDING_ARTIFACTS && !flushScheduled) {
+                flushScheduled = true;
+                executor.execute(new FlushTask());
+            }
+        }
+    }
+
+    /**
+     * Write all the queued artifacts, and wait until they are written and
+     * their listeners notified. Modules call it when they complete or stop.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            final List<PendingArtifact> toWrite;
+            synchronized (this) {
+                toWrite = pending;
+                pending = new ArrayList<PendingArtifact>();
+                flushScheduled = false;
+            }
+            if (toWrite.isEmpty()) {
+                return;
+            }
+            write(toWrite);
+        }
+    }
+
+    /**
+     * Write the batch under a single database write lock, then notify the
+     * listeners and fire the data events, outside of the lock
+     */
+    private void write(List<PendingArtifact> batch) {
+        final long start = System.currentTimeMillis();
+        final List<BlackboardArtifact> written = new ArrayList<BlackboardArtifact>(batch.size());
+        SleuthkitCase.dbWriteLock();
+        try {
+            for (PendingArtifact p : batch) {
+                BlackboardArtifact artifact = null;
+                try {
+                    artifact = p.content.newArtifact(p.type);
+                    artifact.addAttributes(p.attributes);
+                } catch (TskException ex) {
+                    logger.log(Level.WARNING, "Error writing blackboard artifact of type " + p.type.getLabel()
+                            + " for content: " + p.content.getId(), ex);
+                    //an artifact without all its attributes is still reported
+                }
+                written.add(artifact);
+            }
+        } finally {
+            SleuthkitCase.dbWriteUnlock();
+        }
+
+        //one event per module and artifact type, in the order they were queued
+        final Map<String, ModuleDataEvent> events = new LinkedHashMap<String, ModuleDataEvent>();
+        final Map<String, List<BlackboardArtifact>> eventArtifacts = new LinkedHashMap<String, List<BlackboardArtifact>>();
+        int numWritten = 0;
+        for (int i = 0; i < batch.size(); ++i) {
+            final PendingArtifact p = batch.get(i);
+            final BlackboardArtifact artifact = written.get(i);
+            if (artifact == null) {
+                continue;
+            }
+            ++numWritten;
+            final String key = p.moduleName + "/" + p.type.getTypeID();
+            List<BlackboardArtifact> artifacts = eventArtifacts.get(key);
+            if (artifacts == null) {
+                artifacts = new ArrayList<BlackboardArtifact>();
+                eventArtifacts.put(key, artifacts);
+                events.put(key, new ModuleDataEvent(p.moduleName, p.type, artifacts));
+            }
+            artifacts.add(artifact);
+
+            if (p.listener != null) {
+                try {
+                    p.listener.artifactWritten(artifact, p.attributes);
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Blackboard write listener threw exception", e);
+                }
+            }
+        }
+
+        for (ModuleDataEvent event : events.values()) {
+            IngestServices.getDefault().fireModuleDataEvent(event);
+        }
+
+        IngestMetrics.getDefault().incrementCounter(IngestMetrics.ARTIFACTS_WRITTEN, numWritten);
+        logger.log(Level.FINE, "Wrote " + numWritten + " blackboard artifacts in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Get the writer thread, starting it and its periodic flush on first use
+     */
+    private synchronized ScheduledExecutorService getFlushExecutor() {
+        if (flushExecutor == null) {
+            flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "Blackboard writer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            flushExecutor.scheduleWithFixedDelay(new FlushTask(), FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        return flushExecutor;
+    }
+
+    private class FlushTask implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (Exception e) {
+                //keep the periodic flush scheduled
+                logger.log(Level.WARNING, "Error flushing blackboard artifacts", e);
+            }
+        }
+    }
+
+    /**
+     * Artifact queued and not yet written
+     */
+    private static class PendingArtifact {
+
+        private final String moduleName;
+        private final Content content;
+        private final ARTIFACT_TYPE type;
+        private final Collection<BlackboardAttribute> attributes;
+        private final WriteListener listener;
+
+        PendingArtifact(String moduleName, Content content, ARTIFACT_TYPE type,
+                Collection<BlackboardAttribute> attributes, WriteListener listener) {
+            this.moduleName = moduleName;
+            this.content = content;
+            this.type = type;
+            this.attributes = attributes;
+            this.listener = listener;
+        }
+    }
+}
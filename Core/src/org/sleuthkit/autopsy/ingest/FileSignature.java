@@ -0,0 +1,166 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.util.Arrays;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Header bytes and signature based type of a file, shared by all file modules
+ * processing the file, so that the beginning of the file is read from the image
+ * only once per file.
+ *
+ * The header is read on first use, up to HEADER_SIZE bytes. Modules get the
+ * signature of the file being processed from
+ * PipelineContext.getFileSignature().
+ */
+public class FileSignature {
+
+    /**
+     * Max. number of bytes read from the beginning of the file, large enough
+     * for Tika type detection, which reads up to 64KB
+     */
+    public static final int HEADER_SIZE = 64 * 1024;
+    /**
+     * Type of files with no known signature
+     */
+    public static final String MIME_TYPE_UNKNOWN = "application/octet-stream";
+    private static final byte[] EMPTY = new byte[0];
+    //signatures at offset 0, and the mime types they identify, the first match wins
+    private static final Object[][] SIGNATURES = {
+        {new byte[]{'P', 'K', 3, 4}, "application/zip"},
+        {new byte[]{'7', 'z', (byte) 0xBC, (byte) 0xAF, 0x27, 0x1C}, "application/x-7z-compressed"},
+        {new byte[]{'R', 'a', 'r', '!', 0x1A, 0x07}, "application/x-rar-compressed"},
+        {new byte[]{0x1F, (byte) 0x8B}, "application/x-gzip"},
+        {new byte[]{'B', 'Z', 'h'}, "application/x-bzip2"},
+        {new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}, "image/jpeg"},
+        {new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A}, "image/png"},
+        {new byte[]{'G', 'I', 'F', '8'}, "image/gif"},
+        {new byte[]{'I', 'I', 0x2A, 0x00}, "image/tiff"},
+        {new byte[]{'M', 'M', 0x00, 0x2A}, "image/tiff"},
+        {new byte[]{'%', 'P', 'D', 'F', '-'}, "application/pdf"},
+        {new byte[]{(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, 0x1A, (byte) 0xE1}, "application/x-tika-msoffice"},
+        {new byte[]{'{', '\\', 'r', 't', 'f'}, "application/rtf"},
+        {new byte[]{'F', 'r', 'o', 'm', ' '}, "application/mbox"},
+        {new byte[]{0x7F, 'E', 'L', 'F'}, "application/x-executable"},
+        {new byte[]{'M', 'Z'}, "application/x-msdownload"},
+        {new byte[]{'S', 'Q', 'L', 'i', 't', 'e', ' ', 'f', 'o', 'r', 'm', 'a', 't', ' ', '3', 0}, "application/x-sqlite3"}
+    };
+    private static final Logger logger = Logger.getLogger(FileSignature.class.getName());
+    private final AbstractFile file;
+    private byte[] header;
+    private String mimeType;
+
+    /**
+     * Create signature of the file, the file is not read until the header or
+     * type is requested
+     *
+     * @param file file to get the signature of
+     */
+    public FileSignature(AbstractFile file) {
+        this.file = file;
+    }
+
+    public AbstractFile getFile() {
+        return file;
+    }
+
+    /**
+     * Get the beginning of the file. The array is shared by all modules and
+     * must not be modified.
+     *
+     * @return up to HEADER_SIZE bytes from the beginning of the file, shorter
+     * if the file is smaller, empty if the file has no content or could not be
+     * read
+     */
+    public synchronized byte[] getHeader() {
+        if (header == null) {
+            header = readHeader();
+        }
+        return header;
+    }
+
+    /**
+     * Check if the file starts with the signature
+     *
+     * @param signature bytes the file should start with
+     * @return true if the header starts with the signature
+     */
+    public boolean startsWith(byte[] signature) {
+        return startsWith(getHeader(), signature);
+    }
+
+    /**
+     * Get the mime type identified by the file signature. This is a quick
+     * check of well known signatures only, modules that need finer detection
+     * can run a full detector on the header bytes.
+     *
+     * @return mime type, or MIME_TYPE_UNKNOWN if no known signature
+     */
+    public synchronized String getMimeType() {
+        if (mimeType == null) {
+            mimeType = MIME_TYPE_UNKNOWN;
+            final byte[] h = getHeader();
+            for (Object[] entry : SIGNATURES) {
+                if (startsWith(h, (byte[]) entry[0])) {
+                    mimeType = (String) entry[1];
+                    break;
+                }
+            }
+        }
+        return mimeType;
+    }
+
+    private byte[] readHeader() {
+        if (file.isDir()) {
+            return EMPTY;
+        }
+        final long size = file.getSize();
+        if (size <= 0) {
+            return EMPTY;
+        }
+        final byte[] buf = new byte[(int) Math.min(size, HEADER_SIZE)];
+        try {
+            //single read of the first block, at file offset 0
+            final int read = file.read(buf, 0, buf.length);
+            if (read <= 0) {
+                return EMPTY;
+            }
+            return read == buf.length ? buf : Arrays.copyOf(buf, read);
+        } catch (TskCoreException ex) {
+            logger.log(Level.WARNING, "Could not read header of file: " + file.getId() + ", " + file.getName(), ex);
+            return EMPTY;
+        }
+    }
+
+    private static boolean startsWith(byte[] header, byte[] signature) {
+        if (header.length < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; ++i) {
+            if (header[i] != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
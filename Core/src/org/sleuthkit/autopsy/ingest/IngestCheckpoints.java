@@ -0,0 +1,555 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.Image;
+
+/**
+ * Per-image, per-module file ingest progress, persisted in checkpoint sidecar
+ * files in the case directory, so that an interrupted ingest can be resumed
+ * without reprocessing files already processed.
+ *
+ * For every image being ingested, the ids of the files every file module has
+ * finished processing are recorded in a bitmap per module. The bitmaps are
+ * written to the image checkpoint file periodically while the ingest runs,
+ * and when the file ingest stops. The checkpoint file is deleted when the
+ * file ingest of the image completes.
+ *
+ * For modules implementing IngestModuleDeferredOutput, a finished file is kept
+ * pending with the output mark of the module, and recorded in the bitmap only
+ * once the module reports the mark persisted. Artifacts queued with
+ * BlackboardWriter are written before the bitmaps, so that a file is not
+ * recorded before the artifacts its modules created for it.
+ *
+ * Checkpoint file format: magic, version, image id, names of all modules of
+ * the ingest, then for every file module its name and its bitmap words.
+ */
+class IngestCheckpoints {
+
+    private static final String CHECKPOINTS_DIR = "IngestCheckpoints";
+    private static final String CHECKPOINT_EXT = ".ckpt";
+    //checkpoint being written, replaces the checkpoint file once complete
+    private static final String TEMP_EXT = ".tmp";
+    private static final int MAGIC = 0x494e434b; //INCK
+    private static final int VERSION = 1;
+    //how often the checkpoints are written during ingest
+    private static final long FLUSH_INTERVAL_MS = 30 * 1000;
+    private static final Logger logger = Logger.getLogger(IngestCheckpoints.class.getName());
+    //checkpoints of images being ingested, by image id
+    private final Map<Long, ImageCheckpoint> checkpoints = new ConcurrentHashMap<Long, ImageCheckpoint>();
+    private final AtomicLong lastFlushTime = new AtomicLong(System.currentTimeMillis());
+    //file modules of the ingest with deferred output, by module name
+    private final Map<String, IngestModuleDeferredOutput> deferredModules = new ConcurrentHashMap<String, IngestModuleDeferredOutput>();
+
+    /**
+     * Checkpoint of a previous ingest of an image that did not complete
+     */
+    static class ResumableIngest {
+
+        final long imageId;
+        final List<String> moduleNames;
+
+        ResumableIngest(long imageId, List<String> moduleNames) {
+            this.imageId = imageId;
+            this.moduleNames = moduleNames;
+        }
+    }
+
+    /**
+     * Start tracking progress of ingest of the images, for a new ingest
+     * previous checkpoints of the images are discarded, when resuming they
+     * are loaded so that finished files are skipped
+     *
+     * @param images images to ingest
+     * @param modules modules to run on the images
+     * @param resume true to continue from the previous checkpoints
+     */
+    void start(List<Image> images, List<IngestModuleAbstract> modules, boolean resume) {
+        final List<String> moduleNames = new ArrayList<String>();
+        for (IngestModuleAbstract module : modules) {
+            moduleNames.add(module.getName());
+            if (module instanceof IngestModuleDeferredOutput) {
+                deferredModules.put(module.getName(), (IngestModuleDeferredOutput) module);
+            }
+        }
+        for (Image image : images) {
+            ImageCheckpoint checkpoint = checkpoints.get(image.getId());
+            if (checkpoint == null) {
+                //resolve the file now, the case might be closed by the time the checkpoint is written
+                checkpoint = new ImageCheckpoint(image.getId(), getCheckpointFile(image.getId()));
+                if (resume) {
+                    checkpoint.load();
+                }
+                checkpoints.put(image.getId(), checkpoint);
+            }
+            checkpoint.addModuleNames(moduleNames);
+            checkpoint.dirty = true;
+        }
+        flush();
+    }
+
+    /**
+     * Check if the module already finished processing the file in a previous
+     * run of the ingest
+     *
+     * @param imageId image of the file
+     * @param moduleName module name
+     * @param fileId file id
+     * @return true if the module finished the file
+     */
+    boolean isDone(long imageId, String moduleName, long fileId) {
+        final ImageCheckpoint checkpoint = checkpoints.get(imageId);
+        return checkpoint != null && checkpoint.isDone(moduleName, fileId);
+    }
+
+    /**
+     * Record that the module finished processing the file. Call right after
+     * process() returned for the file.
+     *
+     * @param imageId image of the file
+     * @param moduleName module name
+     * @param fileId file id
+     */
+    void markDone(long imageId, String moduleName, long fileId) {
+        final ImageCheckpoint checkpoint = checkpoints.get(imageId);
+        if (checkpoint == null) {
+            return;
+        }
+        final IngestModuleDeferredOutput deferred = deferredModules.get(moduleName);
+        if (deferred != null) {
+            //finished once the output is persisted
+            checkpoint.markPending(moduleName, fileId, deferred.getOutputMark());
+        } else {
+            checkpoint.markDone(moduleName, fileId);
+        }
+    }
+
+    /**
+     * Write the checkpoints, if the flush interval elapsed since the last
+     * write. Only one of the concurrent callers writes.
+     */
+    void flushIfDue() {
+        final long last = lastFlushTime.get();
+        final long now = System.currentTimeMillis();
+        if (now - last >= FLUSH_INTERVAL_MS && lastFlushTime.compareAndSet(last, now)) {
+            flush();
+        }
+    }
+
+    /**
+     * Write the checkpoints of all images being ingested
+     */
+    void flush() {
+        lastFlushTime.set(System.currentTimeMillis());
+        //get the marks first, files pending with a mark persisted later are kept pending
+        final Map<String, Long> persistedMarks = new HashMap<String, Long>();
+        for (Map.Entry<String, IngestModuleDeferredOutput> deferred : deferredModules.entrySet()) {
+            persistedMarks.put(deferred.getKey(), deferred.getValue().getPersistedOutputMark());
+        }
+        final Map<ImageCheckpoint, CheckpointData> snapshots = new HashMap<ImageCheckpoint, CheckpointData>();
+        for (ImageCheckpoint checkpoint : checkpoints.values()) {
+            for (Map.Entry<String, Long> persisted : persistedMarks.entrySet()) {
+                checkpoint.markPersisted(persisted.getKey(), persisted.getValue());
+            }
+            final CheckpointData data = checkpoint.snapshot();
+            if (data != null) {
+                snapshots.put(checkpoint, data);
+            }
+        }
+        if (snapshots.isEmpty()) {
+            return;
+        }
+        //artifacts of the files in the snapshots were queued before the files were marked done,
+        //write them before the files are recorded as done
+        BlackboardWriter.getDefault().flush();
+        for (Map.Entry<ImageCheckpoint, CheckpointData> snapshot : snapshots.entrySet()) {
+            snapshot.getKey().save(snapshot.getValue());
+        }
+    }
+
+    /**
+     * File ingest stopped. If it completed, the checkpoints of the images are
+     * deleted, otherwise they are written, to be resumed later
+     *
+     * @param completed true if all files have been processed
+     */
+    void stop(boolean completed) {
+        if (completed) {
+            for (ImageCheckpoint checkpoint : checkpoints.values()) {
+                final File file = checkpoint.file;
+                if (file != null) {
+                    deleteCheckpointFile(file);
+                    deleteCheckpointFile(getTempFile(file));
+                }
+            }
+        } else {
+            flush();
+        }
+        checkpoints.clear();
+        deferredModules.clear();
+    }
+
+    /**
+     * Delete the checkpoints of the ingests of the current case that did not
+     * complete, they will not be resumed
+     */
+    static void discardResumableIngests() {
+        final File dir = getCheckpointsDir();
+        if (dir == null || !dir.isDirectory()) {
+            return;
+        }
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(CHECKPOINT_EXT) || file.getName().endsWith(CHECKPOINT_EXT + TEMP_EXT)) {
+                deleteCheckpointFile(file);
+            }
+        }
+    }
+
+    private static void deleteCheckpointFile(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.log(Level.WARNING, "Could not delete ingest checkpoint: " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Get ingests of the current case that did not complete
+     *
+     * @return ingests that can be resumed, one per image
+     */
+    static List<ResumableIngest> getResumableIngests() {
+        final List<ResumableIngest> ret = new ArrayList<ResumableIngest>();
+        final File dir = getCheckpointsDir();
+        if (dir == null || !dir.isDirectory()) {
+            return ret;
+        }
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return ret;
+        }
+        for (File file : files) {
+            File checkpointFile;
+            final String name = file.getName();
+            if (name.endsWith(CHECKPOINT_EXT)) {
+                checkpointFile = file;
+            } else if (name.endsWith(CHECKPOINT_EXT + TEMP_EXT)) {
+                //only a complete temp file left when the rename did not happen, load() reads it
+                checkpointFile = new File(dir, name.substring(0, name.length() - TEMP_EXT.length()));
+                if (checkpointFile.exists()) {
+                    continue;
+                }
+            } else {
+                continue;
+            }
+            final ImageCheckpoint checkpoint = new ImageCheckpoint(-1, checkpointFile);
+            if (checkpoint.load()) {
+                ret.add(new ResumableIngest(checkpoint.imageId, checkpoint.moduleNames));
+            }
+        }
+        return ret;
+    }
+
+    private static File getCheckpointsDir() {
+        if (!Case.isCaseOpen()) {
+            return null;
+        }
+        return new File(Case.getCurrentCase().getModulesOutputDirAbsPath() + File.separator + CHECKPOINTS_DIR);
+    }
+
+    private static File getCheckpointFile(long imageId) {
+        final File dir = getCheckpointsDir();
+        if (dir == null) {
+            return null;
+        }
+        return new File(dir, "image_" + imageId + CHECKPOINT_EXT);
+    }
+
+    private static File getTempFile(File checkpointFile) {
+        return new File(checkpointFile.getParentFile(), checkpointFile.getName() + TEMP_EXT);
+    }
+
+    /**
+     * Progress of the ingest of an image
+     */
+    private static class ImageCheckpoint {
+
+        private long imageId;
+        private final File file;
+        private final List<String> moduleNames = new ArrayList<String>();
+        //finished file ids per file module, guarded by this
+        private final Map<String, BitSet> doneFiles = new HashMap<String, BitSet>();
+        //finished file ids per file module with deferred output, by output mark, guarded by this
+        private final Map<String, TreeMap<Long, BitSet>> pendingFiles = new HashMap<String, TreeMap<Long, BitSet>>();
+        private volatile boolean dirty = false;
+
+        ImageCheckpoint(long imageId, File file) {
+            this.imageId = imageId;
+            this.file = file;
+        }
+
+        synchronized void addModuleNames(List<String> names) {
+            for (String name : names) {
+                if (!moduleNames.contains(name)) {
+                    moduleNames.add(name);
+                }
+            }
+        }
+
+        synchronized boolean isDone(String moduleName, long fileId) {
+            final BitSet done = doneFiles.get(moduleName);
+            return done != null && fileId <= Integer.MAX_VALUE && done.get((int) fileId);
+        }
+
+        synchronized void markDone(String moduleName, long fileId) {
+            if (fileId > Integer.MAX_VALUE) {
+                //not trackable in the bitmap, will be reprocessed on resume
+                return;
+            }
+            BitSet done = doneFiles.get(moduleName);
+            if (done == null) {
+                done = new BitSet();
+                doneFiles.put(moduleName, done);
+            }
+            done.set((int) fileId);
+            dirty = true;
+        }
+
+        synchronized void markPending(String moduleName, long fileId, long outputMark) {
+            if (fileId > Integer.MAX_VALUE) {
+                //not trackable in the bitmap, will be reprocessed on resume
+                return;
+            }
+            TreeMap<Long, BitSet> pending = pendingFiles.get(moduleName);
+            if (pending == null) {
+                pending = new TreeMap<Long, BitSet>();
+                pendingFiles.put(moduleName, pending);
+            }
+            BitSet files = pending.get(outputMark);
+            if (files == null) {
+                files = new BitSet();
+                pending.put(outputMark, files);
+            }
+            files.set((int) fileId);
+        }
+
+        /**
+         * Record the pending files of the module with output persisted as
+         * done
+         *
+         * @param moduleName module name
+         * @param persistedMark mark of the persisted output of the module
+         */
+        synchronized void markPersisted(String moduleName, long persistedMark) {
+            final TreeMap<Long, BitSet> pending = pendingFiles.get(moduleName);
+            if (pending == null) {
+                return;
+            }
+            final Map<Long, BitSet> persisted = pending.headMap(persistedMark, true);
+            if (persisted.isEmpty()) {
+                return;
+            }
+            BitSet done = doneFiles.get(moduleName);
+            if (done == null) {
+                done = new BitSet();
+                doneFiles.put(moduleName, done);
+            }
+            for (BitSet files : persisted.values()) {
+                done.or(files);
+            }
+            persisted.clear();
+            dirty = true;
+        }
+
+        /**
+         * Load the checkpoint from its file
+         *
+         * @return true if loaded
+         */
+        synchronized boolean load() {
+            if (file == null) {
+                return false;
+            }
+            File source = file;
+            if (!source.exists()) {
+                //the previous save may have stopped before replacing the file with the synced temp file
+                source = getTempFile(file);
+                if (!source.exists()) {
+                    return false;
+                }
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(source)));
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    logger.log(Level.WARNING, "Unsupported ingest checkpoint: " + source.getAbsolutePath());
+                    return false;
+                }
+                imageId = in.readLong();
+                final int numModules = in.readInt();
+                for (int i = 0; i < numModules; ++i) {
+                    moduleNames.add(in.readUTF());
+                }
+                final int numFileModules = in.readInt();
+                for (int i = 0; i < numFileModules; ++i) {
+                    final String moduleName = in.readUTF();
+                    final long[] words = new long[in.readInt()];
+                    for (int w = 0; w < words.length; ++w) {
+                        words[w] = in.readLong();
+                    }
+                    doneFiles.put(moduleName, BitSet.valueOf(words));
+                }
+                logger.log(Level.INFO, "Loaded ingest checkpoint: " + source.getAbsolutePath());
+                return true;
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Error reading ingest checkpoint: " + source.getAbsolutePath(), ex);
+                moduleNames.clear();
+                doneFiles.clear();
+                return false;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ex) {
+                        logger.log(Level.WARNING, "Error closing ingest checkpoint: " + source.getAbsolutePath(), ex);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Copy the checkpoint to be written, if changed
+         *
+         * @return copy of the checkpoint, or null if there is nothing to write
+         */
+        synchronized CheckpointData snapshot() {
+            if (file == null || !dirty) {
+                return null;
+            }
+            final List<String> names = new ArrayList<String>(moduleNames);
+            final Map<String, long[]> words = new HashMap<String, long[]>();
+            for (Map.Entry<String, BitSet> done : doneFiles.entrySet()) {
+                words.put(done.getKey(), done.getValue().toLongArray());
+            }
+            dirty = false;
+            return new CheckpointData(names, words);
+        }
+
+        /**
+         * Write a snapshot of the checkpoint to its file. Written and synced
+         * to a temp file first, then moved over the checkpoint file, so that a
+         * crash while writing does not lose the previous checkpoint.
+         *
+         * @param data snapshot of the checkpoint
+         */
+        void save(CheckpointData data) {
+            final List<String> names = data.names;
+            final Map<String, long[]> words = data.words;
+            final File dir = file.getParentFile();
+            if (!dir.exists() && !dir.mkdirs()) {
+                logger.log(Level.WARNING, "Could not create ingest checkpoints directory: " + dir.getAbsolutePath());
+                dirty = true;
+                return;
+            }
+
+            final File tempFile = getTempFile(file);
+            FileOutputStream fileOut = null;
+            DataOutputStream out = null;
+            try {
+                fileOut = new FileOutputStream(tempFile);
+                out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(imageId);
+                out.writeInt(names.size());
+                for (String name : names) {
+                    out.writeUTF(name);
+                }
+                out.writeInt(words.size());
+                for (Map.Entry<String, long[]> moduleWords : words.entrySet()) {
+                    out.writeUTF(moduleWords.getKey());
+                    out.writeInt(moduleWords.getValue().length);
+                    for (long w : moduleWords.getValue()) {
+                        out.writeLong(w);
+                    }
+                }
+                //the temp file must be complete on disk before it replaces the checkpoint
+                out.flush();
+                fileOut.getFD().sync();
+                out.close();
+                out = null;
+                try {
+                    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Error writing ingest checkpoint: " + file.getAbsolutePath(), ex);
+                dirty = true;
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException ex) {
+                        logger.log(Level.WARNING, "Error closing ingest checkpoint: " + tempFile.getAbsolutePath(), ex);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Contents of a checkpoint file, copied from the checkpoint to be written
+     */
+    private static class CheckpointData {
+
+        private final List<String> names;
+        private final Map<String, long[]> words;
+
+        CheckpointData(List<String> names, Map<String, long[]> words) {
+            this.names = names;
+            this.words = words;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+import org.openide.util.Lookup;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.coreutils.PlatformUtil;
+import org.sleuthkit.autopsy.coreutils.XMLUtil;
+import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.TskData;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Loads file priority policies (triage profiles) from file_priority_config.xml
+ * in the user config directory, and from the default Lookup, and provides the
+ * active policy to the file scheduler.
+ *
+ * The XML is reloaded every time the active policy is requested, so that a
+ * different profile can be selected between ingests.
+ */
+final class IngestFilePriorityConfig {
+
+    private static final String FILE_PRIORITY_CONFIG_XML = "file_priority_config.xml";
+    private static final String XSDFILE = "FilePriorityConfigSchema.xsd";
+    private static final String XML_ROOT_EL = "FILE_PRIORITY_CONFIG";
+    private static final String XML_ACTIVE_ATTR = "active";
+    private static final String XML_PROFILE_EL = "PROFILE";
+    private static final String XML_PROFILE_NAME_ATTR = "name";
+    private static final String XML_RULE_EL = "RULE";
+    private static final String XML_RULE_PRIORITY_ATTR = "priority";
+    private static final String XML_RULE_PATTERN_ATTR = "pattern";
+    private static final String DEFAULT_PROFILE = "default";
+    private static final Logger logger = Logger.getLogger(IngestFilePriorityConfig.class.getName());
+
+    private IngestFilePriorityConfig() {
+    }
+
+    /**
+     * Load the policies and get the one selected as active. If the active
+     * policy can not be found, falls back to a policy that only puts
+     * unstructured content last.
+     *
+     * @return the active file priority policy
+     */
+    static IngestFilePriorityPolicy getActivePolicy() {
+        final String absFilePath = PlatformUtil.getUserConfigDirectory() + File.separator + FILE_PRIORITY_CONFIG_XML;
+        try {
+            PlatformUtil.extractResourceToUserConfigDir(IngestFilePriorityConfig.class, FILE_PRIORITY_CONFIG_XML);
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, "Error copying default file priority configuration to user dir ", ex);
+        }
+
+        String activeName = DEFAULT_PROFILE;
+        final List<IngestFilePriorityPolicy> policies = new ArrayList<IngestFilePriorityPolicy>();
+
+        final Document doc = XMLUtil.loadDoc(IngestFilePriorityConfig.class, absFilePath, XSDFILE);
+        if (doc != null && doc.getDocumentElement() != null
+                && doc.getDocumentElement().getTagName().equals(XML_ROOT_EL)) {
+            final Element root = doc.getDocumentElement();
+            if (!root.getAttribute(XML_ACTIVE_ATTR).isEmpty()) {
+                activeName = root.getAttribute(XML_ACTIVE_ATTR);
+            }
+            NodeList profileNodes = root.getElementsByTagName(XML_PROFILE_EL);
+            for (int i = 0; i < profileNodes.getLength(); ++i) {
+                policies.add(loadProfile((Element) profileNodes.item(i)));
+            }
+        } else {
+            logger.log(Level.SEVERE, "Error loading file priority configuration: " + absFilePath);
+        }
+
+        //policies registered by other modules
+        policies.addAll(Lookup.getDefault().lookupAll(IngestFilePriorityPolicy.class));
+
+        for (IngestFilePriorityPolicy policy : policies) {
+            if (policy.getName().equals(activeName)) {
+                logger.log(Level.INFO, "Using file priority policy: " + activeName);
+                return policy;
+            }
+        }
+
+        logger.log(Level.WARNING, "File priority policy not found: " + activeName + ", using no priorities");
+        return new XmlProfilePolicy(activeName);
+    }
+
+    private static XmlProfilePolicy loadProfile(Element profileEl) {
+        final XmlProfilePolicy policy = new XmlProfilePolicy(profileEl.getAttribute(XML_PROFILE_NAME_ATTR));
+        NodeList ruleNodes = profileEl.getElementsByTagName(XML_RULE_EL);
+        for (int i = 0; i < ruleNodes.getLength(); ++i) {
+            final Element ruleEl = (Element) ruleNodes.item(i);
+            final String priorityS = ruleEl.getAttribute(XML_RULE_PRIORITY_ATTR);
+            final String patternS = ruleEl.getAttribute(XML_RULE_PATTERN_ATTR);
+            try {
+                policy.addRule(IngestFilePriorityPolicy.Priority.valueOf(priorityS),
+                        Pattern.compile(patternS, Pattern.CASE_INSENSITIVE));
+            } catch (IllegalArgumentException e) {
+                //also catches PatternSyntaxException
+                logger.log(Level.WARNING, "Invalid file priority rule in profile " + policy.getName()
+                        + ": " + priorityS + " " + patternS, e);
+            }
+        }
+        return policy;
+    }
+
+    /**
+     * Policy defined by a profile in the XML, with patterns matched against
+     * the file name. Patterns are compiled once when the profile is loaded.
+     */
+    private static class XmlProfilePolicy implements IngestFilePriorityPolicy {
+
+        //order in which the rules are checked
+        private static final Priority[] CHECK_ORDER = {Priority.HIGH, Priority.MEDIUM, Priority.LOW, Priority.LAST};
+        private final String name;
+        private final Map<Priority, List<Pattern>> rules = new EnumMap<Priority, List<Pattern>>(Priority.class);
+
+        XmlProfilePolicy(String name) {
+            this.name = name;
+            for (Priority priority : Priority.values()) {
+                rules.put(priority, new ArrayList<Pattern>());
+            }
+        }
+
+        void addRule(Priority priority, Pattern pattern) {
+            rules.get(priority).add(pattern);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Priority getPriority(AbstractFile abstractFile) {
+            if (!abstractFile.getType().equals(TskData.TSK_DB_FILES_TYPE_ENUM.FS)) {
+                //quickly filter out unstructured content
+                //non-fs virtual files and dirs, such as representing unalloc space
+                return Priority.LAST;
+            }
+
+            //determine the fs files priority by name
+            final String path = abstractFile.getName();
+
+            if (path == null) {
+                return Priority.MEDIUM;
+            }
+
+            for (Priority priority : CHECK_ORDER) {
+                for (Pattern p : rules.get(priority)) {
+                    if (p.matcher(path).find()) {
+                        return priority;
+                    }
+                }
+            }
+
+            //default is medium
+            return Priority.MEDIUM;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import org.sleuthkit.datamodel.AbstractFile;
+
+/**
+ * Policy that determines in which order the top level files and directories of
+ * an image are processed by the file ingest pipeline.
+ *
+ * Policies (triage profiles) are defined in file_priority_config.xml in the
+ * user config directory. Additional policies can be registered in the default
+ * Lookup using @ServiceProvider(service = IngestFilePriorityPolicy.class). The
+ * policy used is selected by name by the active attribute of the XML.
+ */
+public interface IngestFilePriorityPolicy {
+
+    /**
+     * Priority of a file, higher priority files are processed first
+     */
+    public enum Priority {
+
+        LAST, LOW, MEDIUM, HIGH
+    };
+
+    /**
+     * Gets name of the policy, used to select the active policy
+     *
+     * @return unique policy name
+     */
+    public String getName();
+
+    /**
+     * Get priority of the top level file or directory. The priority is
+     * determined once when the image is scheduled, and cached by the scheduler.
+     *
+     * @param abstractFile file or directory to get the priority for
+     * @return priority of the file
+     */
+    public Priority getPriority(AbstractFile abstractFile);
+}
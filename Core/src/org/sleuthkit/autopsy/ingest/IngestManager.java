@@ -21,28 +21,49 @@ package org.sleuthkit.autopsy.ingest;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import javax.swing.SwingWorker;
 import org.netbeans.api.progress.ProgressHandle;
 import org.netbeans.api.progress.ProgressHandleFactory;
 import org.openide.util.Cancellable;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.coreutils.EscapeUtil;
+import org.sleuthkit.autopsy.coreutils.ModuleSettings;
 import org.sleuthkit.autopsy.coreutils.PlatformUtil;
-import org.sleuthkit.autopsy.coreutils.StopWatch;
 import org.sleuthkit.autopsy.ingest.IngestMessage.MessageType;
 import org.sleuthkit.autopsy.ingest.IngestScheduler.FileScheduler.ProcessTask;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.Image;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
 
 /**
  * IngestManager sets up and manages ingest modules runs them in a background
@@ -66,8 +87,19 @@ public class IngestManager {
     //modules
     private List<IngestModuleImage> imageModules;
     private List<IngestModuleAbstractFile> abstractFileModules;
-    // module return values
-    private final Map<String, IngestModuleAbstractFile.ProcessResult> abstractFileModulesRetValues = new HashMap<String, IngestModuleAbstractFile.ProcessResult>();
+    // module return values, per file ingest worker thread
+    private final ThreadLocal<Map<String, IngestModuleAbstractFile.ProcessResult>> abstractFileModulesRetValues = new ThreadLocal<Map<String, IngestModuleAbstractFile.ProcessResult>>() {
+        @Override
+        protected Map<String, IngestModuleAbstractFile.ProcessResult> initialValue() {
+            return new HashMap<String, IngestModuleAbstractFile.ProcessResult>();
+        }
+    };
+    // signature of the file being processed, per file ingest worker thread
+    private final ThreadLocal<FileSignature> currentFileSignature = new ThreadLocal<FileSignature>();
+    //runs file module calls under a deadline
+    private final IngestModuleWatchdog watchdog = new IngestModuleWatchdog();
+    //persisted file ingest progress, to resume interrupted ingests
+    private final IngestCheckpoints checkpoints = new IngestCheckpoints();
     //notifications
     private final static PropertyChangeSupport pcs = new PropertyChangeSupport(IngestManager.class);
     //monitor
@@ -76,6 +108,12 @@ public class IngestManager {
     private IngestModuleLoader moduleLoader = null;
     //property file name id for the module
     final static String MODULE_PROPERTIES = "ingest";
+    //directory under module output of the case where ingest stats are exported
+    private static final String INGEST_STATS_DIR = "IngestStats";
+    //number of file ingest worker threads
+    private static final String NUM_FILE_INGEST_THREADS_SETTING = "NumFileIngestThreads";
+    private static final int DEFAULT_NUM_FILE_INGEST_THREADS = 1;
+    private volatile int numFileIngestThreads = DEFAULT_NUM_FILE_INGEST_THREADS;
 
     /**
      * Possible events about ingest modules Event listeners can get the event
@@ -205,20 +243,48 @@ public class IngestManager {
         pcs.firePropertyChange(IngestModuleEvent.CONTENT_CHANGED.toString(), moduleContentEvent, null);
     }
 
+    /**
+     * Set the module return values for the file processed by the calling
+     * thread, used when a module is called in a different thread than the
+     * file ingest worker
+     *
+     * @param retValues return values of the modules that ran on the file
+     */
+    void setAbstractFileModulesRetValues(Map<String, IngestModuleAbstractFile.ProcessResult> retValues) {
+        abstractFileModulesRetValues.set(retValues);
+    }
+
+    /**
+     * Set the signature of the file processed by the calling thread
+     *
+     * @param signature signature of the file being processed
+     */
+    void setCurrentFileSignature(FileSignature signature) {
+        currentFileSignature.set(signature);
+    }
+
+    /**
+     * Get the signature of the file processed by the calling thread
+     *
+     * @return the signature, or null if the thread is not processing a file
+     */
+    FileSignature getCurrentFileSignature() {
+        return currentFileSignature.get();
+    }
+
     /**
      * Returns the return value from a previously run module on the file being
-     * currently analyzed.
+     * currently analyzed by the calling file ingest worker thread.
      *
      * @param moduleName Name of module.
      * @returns Return value from that module if it was previously run.
      */
     IngestModuleAbstractFile.ProcessResult getAbstractFileModuleResult(String moduleName) {
-        synchronized (abstractFileModulesRetValues) {
-            if (abstractFileModulesRetValues.containsKey(moduleName)) {
-                return abstractFileModulesRetValues.get(moduleName);
-            } else {
-                return IngestModuleAbstractFile.ProcessResult.UNKNOWN;
-            }
+        final Map<String, IngestModuleAbstractFile.ProcessResult> retValues = abstractFileModulesRetValues.get();
+        if (retValues.containsKey(moduleName)) {
+            return retValues.get(moduleName);
+        } else {
+            return IngestModuleAbstractFile.ProcessResult.UNKNOWN;
         }
     }
 
@@ -230,8 +296,28 @@ public class IngestManager {
      * @param images images to execute modules on
      */
     void execute(final List<IngestModuleAbstract> modules, final List<Image> images) {
+        execute(modules, images, false);
+    }
+
+    /**
+     * Enqueues images and associated modules, optionally resuming from the
+     * checkpoints of a previous ingest of the images that did not complete
+     *
+     * @param modules modules to execute on every image
+     * @param images images to execute modules on
+     * @param resume true to skip files already processed by the modules in
+     * the previous ingest
+     */
+    private void execute(final List<IngestModuleAbstract> modules, final List<Image> images, boolean resume) {
         logger.log(Level.INFO, "Will enqueue number of images: " + images.size() + " to " + modules.size() + " modules.");
 
+        for (IngestModuleAbstract module : modules) {
+            if (module.getType() == IngestModuleAbstract.ModuleType.AbstractFile) {
+                checkpoints.start(images, modules, resume);
+                break;
+            }
+        }
+
         if (!isIngestRunning() && ui != null) {
             ui.clearMessages();
         }
@@ -245,6 +331,74 @@ public class IngestManager {
         //logger.log(Level.INFO, "Queues: " + imageQueue.toString() + " " + AbstractFileQueue.toString());
     }
 
+    /**
+     * Check if the current case has ingests that did not complete, and can be
+     * resumed with resumeIngest()
+     *
+     * @return true if there are ingests to resume
+     */
+    public boolean hasResumableIngest() {
+        //checkpoints of a running ingest are not resumable
+        return !isIngestRunning() && !IngestCheckpoints.getResumableIngests().isEmpty();
+    }
+
+    /**
+     * Discard the ingests of the current case that did not complete, so that
+     * they are no longer offered to be resumed
+     */
+    public void discardResumableIngest() {
+        if (!isIngestRunning()) {
+            IngestCheckpoints.discardResumableIngests();
+        }
+    }
+
+    /**
+     * Resume the ingests of the current case that did not complete, with the
+     * same modules. Files already processed by a module are skipped for that
+     * module, image modules are run again.
+     */
+    public void resumeIngest() {
+        final SleuthkitCase skCase = Case.getCurrentCase().getSleuthkitCase();
+        //modules by name
+        final Map<String, IngestModuleAbstract> allModules = new HashMap<String, IngestModuleAbstract>();
+        for (IngestModuleAbstract module : enumerateImageModules()) {
+            allModules.put(module.getName(), module);
+        }
+        for (IngestModuleAbstract module : enumerateAbstractFileModules()) {
+            allModules.put(module.getName(), module);
+        }
+
+        //group images by the modules they were ingested with
+        final Map<List<String>, List<Image>> imagesByModules = new LinkedHashMap<List<String>, List<Image>>();
+        for (IngestCheckpoints.ResumableIngest resumable : IngestCheckpoints.getResumableIngests()) {
+            try {
+                final Image image = skCase.getImageById(resumable.imageId);
+                List<Image> images = imagesByModules.get(resumable.moduleNames);
+                if (images == null) {
+                    images = new ArrayList<Image>();
+                    imagesByModules.put(resumable.moduleNames, images);
+                }
+                images.add(image);
+            } catch (TskCoreException ex) {
+                logger.log(Level.WARNING, "Could not get image to resume ingest of: " + resumable.imageId, ex);
+            }
+        }
+
+        for (Map.Entry<List<String>, List<Image>> entry : imagesByModules.entrySet()) {
+            final List<IngestModuleAbstract> modules = new ArrayList<IngestModuleAbstract>();
+            for (String moduleName : entry.getKey()) {
+                final IngestModuleAbstract module = allModules.get(moduleName);
+                if (module != null) {
+                    modules.add(module);
+                } else {
+                    logger.log(Level.WARNING, "Module not available to resume ingest: " + moduleName);
+                }
+            }
+            logger.log(Level.INFO, "Resuming ingest of images: " + entry.getValue().size());
+            execute(modules, entry.getValue(), true);
+        }
+    }
+
     /**
      * IngestManager entry point, enqueues image to be processed. Spawns
      * background thread which enumerates all sorted files and executes chosen
@@ -297,6 +451,8 @@ public class IngestManager {
             ingestMonitor.start();
         }
 
+        IngestMetrics.getDefault().start();
+
         //image ingesters
         // cycle through each image in the queue
         while (imageScheduler.hasNext()) {
@@ -589,6 +745,42 @@ public class IngestManager {
         this.processUnallocSpace = processUnallocSpace;
     }
 
+    /**
+     * Get number of worker threads the file ingest pipeline uses. Every worker
+     * pulls files from the file scheduler and runs the complete file module
+     * chain on each file.
+     *
+     * @return number of file ingest worker threads
+     */
+    int getNumFileIngestThreads() {
+        final String setting = ModuleSettings.getConfigSetting(MODULE_PROPERTIES, NUM_FILE_INGEST_THREADS_SETTING);
+        if (setting != null) {
+            try {
+                final int num = Integer.parseInt(setting);
+                if (num > 0) {
+                    numFileIngestThreads = num;
+                }
+            } catch (NumberFormatException e) {
+                logger.log(Level.WARNING, "Invalid number of file ingest threads setting: " + setting);
+            }
+        }
+        return numFileIngestThreads;
+    }
+
+    /**
+     * Sets number of worker threads the file ingest pipeline uses. Takes
+     * effect next time the file ingest pipeline is started.
+     *
+     * @param numThreads number of threads, at least 1
+     */
+    void setNumFileIngestThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Need at least 1 file ingest thread, got: " + numThreads);
+        }
+        ModuleSettings.setConfigSetting(MODULE_PROPERTIES, NUM_FILE_INGEST_THREADS_SETTING, Integer.toString(numThreads));
+        numFileIngestThreads = numThreads;
+    }
+
     /**
      * returns ingest summary report (how many files ingested, any errors, etc)
      */
@@ -665,10 +857,16 @@ public class IngestManager {
         private int errorsTotal;
         private Map<IngestModuleAbstract, Integer> errors;
         private final DateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        private final StopWatch timer = new StopWatch();
-        private IngestModuleAbstract currentModuleForTimer;
-        //file module timing stats, image module timers are logged in IngestImageThread class
-        private final Map<String, Long> fileModuleTimers = new HashMap<String, Long>();
+        //timers are per file ingest worker thread
+        private final ThreadLocal<Long> moduleStartTime = new ThreadLocal<Long>();
+        private final ThreadLocal<IngestModuleAbstract> currentModuleForTimer = new ThreadLocal<IngestModuleAbstract>();
+        //file module latency stats, image module timers are logged in IngestImageThread class
+        //populated in start(), before the file ingest workers run
+        private final Map<String, IngestModuleLatencyStats> fileModuleLatencies = new LinkedHashMap<String, IngestModuleLatencyStats>();
+        //names of the module busy time metrics, populated in start()
+        private final Map<String, String> fileModuleBusyMetrics = new HashMap<String, String>();
+        //number of slowest files per module shown in the ingest complete message
+        private static final int NUM_SLOWEST_FILES_HTML = 3;
 
         IngestManagerStats() {
             errors = new HashMap<IngestModuleAbstract, Integer>();
@@ -682,9 +880,8 @@ public class IngestManager {
          * @param module to record start time for processing a file
          */
         void logFileModuleStartProcess(IngestModuleAbstract module) {
-            timer.reset();
-            timer.start();
-            currentModuleForTimer = module;
+            currentModuleForTimer.set(module);
+            moduleStartTime.set(System.nanoTime());
         }
 
         /**
@@ -692,31 +889,82 @@ public class IngestManager {
          * by logFileModuleStartProcess for the same module
          *
          * @param module to record stop time for processing a file
+         * @param file the file processed by the module
          */
-        void logFileModuleEndProcess(IngestModuleAbstract module) {
-            timer.stop();
-            if (module != currentModuleForTimer) {
+        void logFileModuleEndProcess(IngestModuleAbstract module, AbstractFile file) {
+            final long end = System.nanoTime();
+            final IngestModuleAbstract expectedModule = currentModuleForTimer.get();
+            final Long start = moduleStartTime.get();
+            if (module != expectedModule || start == null) {
                 logger.log(Level.WARNING, "Invalid module passed in to record stop processing: " + module.getName()
-                        + ", expected: " + currentModuleForTimer.getName());
+                        + ", expected: " + (expectedModule == null ? null : expectedModule.getName()));
             } else {
-                final long elapsed = timer.getElapsedTime();
-                final long current = fileModuleTimers.get(module.getName());
-                fileModuleTimers.put(module.getName(), elapsed + current);
+                final IngestModuleLatencyStats latencies = fileModuleLatencies.get(module.getName());
+                if (latencies != null) {
+                    latencies.record(file, end - start);
+                    IngestMetrics.getDefault().incrementCounter(fileModuleBusyMetrics.get(module.getName()), (end - start) / 1000);
+                }
             }
 
-            currentModuleForTimer = null;
+            currentModuleForTimer.remove();
+            moduleStartTime.remove();
         }
 
         String getFileModuleStats() {
             StringBuilder sb = new StringBuilder();
-            for (final String moduleName : fileModuleTimers.keySet()) {
-                sb.append(moduleName).append(" took: ")
-                        .append(fileModuleTimers.get(moduleName) / 1000)
-                        .append(" secs. to process()").append('\n');
+            for (final IngestModuleLatencyStats latencies : fileModuleLatencies.values()) {
+                sb.append(latencies.getModuleName()).append(" took: ")
+                        .append(latencies.getTotalMicros() / 1000000)
+                        .append(" secs. to process() ").append(latencies.getCount()).append(" files")
+                        .append(", p50: ").append(IngestModuleLatencyStats.formatMillis(latencies.getPercentileMicros(50)))
+                        .append(" ms, p95: ").append(IngestModuleLatencyStats.formatMillis(latencies.getPercentileMicros(95)))
+                        .append(" ms, p99: ").append(IngestModuleLatencyStats.formatMillis(latencies.getPercentileMicros(99)))
+                        .append(" ms, max: ").append(IngestModuleLatencyStats.formatMillis(latencies.getMaxMicros()))
+                        .append(" ms").append('\n');
             }
             return sb.toString();
         }
 
+        /**
+         * Write the file module latency stats to the ingest stats directory of
+         * the case, as CSV (summary and slowest files) and JSON, for capacity
+         * planning.
+         */
+        void exportFileModuleStats() {
+            if (!Case.isCaseOpen() || fileModuleLatencies.isEmpty()) {
+                return;
+            }
+            final File statsDir = new File(Case.getCurrentCase().getModulesOutputDirAbsPath() + File.separator + INGEST_STATS_DIR);
+            if (!statsDir.exists() && !statsDir.mkdirs()) {
+                logger.log(Level.WARNING, "Could not create ingest stats directory: " + statsDir.getAbsolutePath());
+                return;
+            }
+            final String baseName = "file_module_latencies_" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(startTime);
+            final Collection<IngestModuleLatencyStats> latencies = fileModuleLatencies.values();
+            writeStatsFile(new File(statsDir, baseName + "_summary.csv"), IngestModuleLatencyStats.toSummaryCsv(latencies));
+            writeStatsFile(new File(statsDir, baseName + "_slowest.csv"), IngestModuleLatencyStats.toSlowestFilesCsv(latencies));
+            writeStatsFile(new File(statsDir, baseName + ".json"), IngestModuleLatencyStats.toJson(latencies));
+        }
+
+        private void writeStatsFile(File file, String content) {
+            Writer writer = null;
+            try {
+                writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+                writer.write(content);
+                logger.log(Level.INFO, "Wrote ingest stats: " + file.getAbsolutePath());
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Error writing ingest stats: " + file.getAbsolutePath(), ex);
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException ex) {
+                        logger.log(Level.WARNING, "Error closing ingest stats: " + file.getAbsolutePath(), ex);
+                    }
+                }
+            }
+        }
+
         @Override
         public String toString() {
             final String EOL = System.getProperty("line.separator");
@@ -753,6 +1001,34 @@ public class IngestManager {
 
             sb.append("Ingest time: ").append(getTotalTimeString()).append("<br />");
             sb.append("Total errors: ").append(errorsTotal).append("<br />");
+
+            if (!fileModuleLatencies.isEmpty()) {
+                sb.append("<table border=0 cellpadding=2><tr><th>Module</th><th>Files</th><th>p50 ms</th>")
+                        .append("<th>p95 ms</th><th>p99 ms</th><th>Max ms</th></tr>");
+                for (IngestModuleLatencyStats latencies : fileModuleLatencies.values()) {
+                    sb.append("<tr><td>").append(latencies.getModuleName()).append("</td>")
+                            .append("<td>").append(latencies.getCount()).append("</td>")
+                            .append("<td>").append(IngestModuleLatencyStats.formatMillis(latencies.getPercentileMicros(50))).append("</td>")
+                            .append("<td>").append(IngestModuleLatencyStats.formatMillis(latencies.getPercentileMicros(95))).append("</td>")
+                            .append("<td>").append(IngestModuleLatencyStats.formatMillis(latencies.getPercentileMicros(99))).append("</td>")
+                            .append("<td>").append(IngestModuleLatencyStats.formatMillis(latencies.getMaxMicros())).append("</td></tr>");
+                }
+                sb.append("</table>");
+
+                sb.append("Slowest files:<ul>");
+                for (IngestModuleLatencyStats latencies : fileModuleLatencies.values()) {
+                    final List<IngestModuleLatencyStats.SlowFile> slowest = latencies.getSlowestFiles();
+                    for (int i = 0; i < slowest.size() && i < NUM_SLOWEST_FILES_HTML; ++i) {
+                        final IngestModuleLatencyStats.SlowFile slowFile = slowest.get(i);
+                        sb.append("<li>").append(latencies.getModuleName()).append(": ")
+                                .append(EscapeUtil.escapeHtml(slowFile.fileName))
+                                .append(" (id: ").append(slowFile.fileId)
+                                .append(", size: ").append(slowFile.fileSize)
+                                .append(") ").append(IngestModuleLatencyStats.formatMillis(slowFile.micros)).append(" ms</li>");
+                    }
+                }
+                sb.append("</ul>");
+            }
             /*
              if (errorsTotal > 0) {
              sb.append("Errors per module:");
@@ -771,7 +1047,8 @@ public class IngestManager {
             startTime = new Date();
 
             for (IngestModuleAbstractFile module : abstractFileModules) {
-                fileModuleTimers.put(module.getName(), 0L);
+                fileModuleLatencies.put(module.getName(), new IngestModuleLatencyStats(module.getName()));
+                fileModuleBusyMetrics.put(module.getName(), IngestMetrics.MODULE_BUSY_PREFIX + module.getName());
             }
         }
 
@@ -821,12 +1098,30 @@ public class IngestManager {
      * File ingest pipeline processor. Worker runs until AbstractFile queue is
      * consumed New instance is created and started when data arrives and
      * previous pipeline completed.
+     *
+     * Files are processed by one or more FileIngestWorker threads, each
+     * dequeuing files from the file scheduler and running the file module
+     * chain on them.
      */
     private class IngestAbstractFileProcessor extends SwingWorker<Object, Void> {
 
         private Logger logger = Logger.getLogger(IngestAbstractFileProcessor.class.getName());
         //progress  bar
         private ProgressHandle progress;
+        //workers currently processing a file
+        private final AtomicInteger busyWorkers = new AtomicInteger(0);
+        //guards the progress counters
+        private final Object progressLock = new Object();
+        private int totalEnqueuedFiles = 0;
+        private int processedFiles = 0;
+        //locks to serialize process() calls into modules that are not thread-safe
+        private final Map<String, Object> moduleLocks = new HashMap<String, Object>();
+        //names of the modules that can be called concurrently, populated before the workers start
+        private final Set<String> threadSafeModules = new HashSet<String>();
+        //how long an idle worker waits for other workers to schedule more files
+        private static final int IDLE_WAIT_MS = 100;
+        //ids of the messages about quarantined files
+        private final AtomicLong quarantineMessageId = new AtomicLong(0);
 
         @Override
         protected Object doInBackground() throws Exception {
@@ -841,6 +1136,14 @@ public class IngestManager {
                 IngestManager.fireModuleEvent(IngestModuleEvent.STARTED.toString(), s.getName());
             }
 
+            //the threading model is queried once, when the pipeline starts
+            for (IngestModuleAbstractFile s : abstractFileModules) {
+                if (s instanceof IngestModuleConcurrency
+                        && ((IngestModuleConcurrency) s).getThreadingModel() == IngestModuleConcurrency.ThreadingModel.THREAD_SAFE) {
+                    threadSafeModules.add(s.getName());
+                }
+            }
+
             final String displayName = "File Ingest";
             progress = ProgressHandleFactory.createHandle(displayName, new Cancellable() {
                 @Override
@@ -859,57 +1162,113 @@ public class IngestManager {
             progress.start();
             progress.switchToIndeterminate();
             //set initial totals and processed (to be updated as we process or new files are scheduled)
-            int totalEnqueuedFiles = fileScheduler.getFilesEnqueuedEst();
+            totalEnqueuedFiles = fileScheduler.getFilesEnqueuedEst();
             progress.switchToDeterminate(totalEnqueuedFiles);
-            int processedFiles = 0;
-            //process AbstractFiles queue
-            while (fileScheduler.hasNext()) {
-                final ProcessTask fileTask = fileScheduler.next();
-                final PipelineContext<IngestModuleAbstractFile> filepipelineContext = fileTask.context;
-                final ScheduledImageTask<IngestModuleAbstractFile> fileIngestTask = filepipelineContext.getScheduledTask();
-                final AbstractFile fileToProcess = fileTask.file;
 
-                //clear return values from modules for last file
-                synchronized (abstractFileModulesRetValues) {
-                    abstractFileModulesRetValues.clear();
+            IngestMetrics.getDefault().registerGauge(IngestMetrics.FILE_QUEUE_DEPTH, new IngestMetrics.Gauge() {
+                @Override
+                public long getValue() {
+                    return Math.max(0, fileScheduler.getFilesEnqueuedEst() - fileScheduler.getFilesDequeued());
                 }
+            });
 
-                logger.log(Level.INFO, "IngestManager: Processing: {0}", fileToProcess.getName());
-                progress.progress(fileToProcess.getName(), processedFiles);
-                for (IngestModuleAbstractFile module : fileIngestTask.getModules()) {
-                    //process the file with every file module
-                    if (isCancelled()) {
-                        logger.log(Level.INFO, "Terminating file ingest due to cancellation.");
-                        return null;
+            watchdog.reset();
+
+            final int numWorkers = getNumFileIngestThreads();
+            if (numWorkers == 1) {
+                //process in this thread
+                new FileIngestWorker().run();
+            } else {
+                logger.log(Level.INFO, "Starting file ingest workers: " + numWorkers);
+                final AtomicInteger workerThreadCount = new AtomicInteger(0);
+                final ExecutorService workers = Executors.newFixedThreadPool(numWorkers, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "File ingest worker " + workerThreadCount.incrementAndGet());
+                    }
+                });
+                final List<Future<?>> workerFutures = new ArrayList<Future<?>>();
+                for (int i = 0; i < numWorkers; ++i) {
+                    workerFutures.add(workers.submit(new FileIngestWorker()));
+                }
+                workers.shutdown();
+                try {
+                    boolean terminated = false;
+                    while (!terminated) {
+                        //keep waiting until all workers are done, or cancelled
+                        terminated = workers.awaitTermination(1, TimeUnit.SECONDS);
+                        checkWorkerFailures(workerFutures);
                     }
+                } catch (InterruptedException e) {
+                    logger.log(Level.INFO, "File ingest interrupted, stopping file ingest workers.");
+                    workers.shutdownNow();
+                    throw e;
+                }
+            }
 
-                    try {
-                        stats.logFileModuleStartProcess(module);
-                        IngestModuleAbstractFile.ProcessResult result = module.process(filepipelineContext, fileToProcess);
-                        stats.logFileModuleEndProcess(module);
+            logger.log(Level.INFO, "IngestManager: Finished processing files");
+            return null;
+        }
 
-                        //store the result for subsequent modules for this file
-                        synchronized (abstractFileModulesRetValues) {
-                            abstractFileModulesRetValues.put(module.getName(), result);
-                        }
+        /**
+         * Log the workers that terminated with an error, and stop tracking
+         * them. The remaining workers continue to process the files.
+         *
+         * @param workerFutures futures of the workers still tracked
+         */
+        private void checkWorkerFailures(List<Future<?>> workerFutures) throws InterruptedException {
+            final Iterator<Future<?>> it = workerFutures.iterator();
+            while (it.hasNext()) {
+                final Future<?> workerFuture = it.next();
+                if (!workerFuture.isDone()) {
+                    continue;
+                }
+                it.remove();
+                try {
+                    workerFuture.get();
+                } catch (ExecutionException e) {
+                    logger.log(Level.SEVERE, "File ingest worker terminated with an error, "
+                            + workerFutures.size() + " workers remaining", e.getCause());
+                } catch (CancellationException e) {
+                    //stopped by shutdownNow()
+                }
+            }
+        }
 
-                    } catch (Exception e) {
-                        logger.log(Level.SEVERE, "Error: unexpected exception from module: " + module.getName(), e);
-                        stats.addError(module);
-                    } catch (OutOfMemoryError e) {
-                        logger.log(Level.SEVERE, "Error: out of memory from module: " + module.getName(), e);
-                        stats.addError(module);
-                    }
-                } //end for every module
+        /**
+         * Get next file task to process and mark the calling worker as busy.
+         * Does not block other workers.
+         *
+         * @return next task, or null if there is currently nothing to process
+         */
+        private ProcessTask nextTask() {
+            //mark busy before dequeuing, so that other workers do not finish while we schedule more files
+            busyWorkers.incrementAndGet();
+            final ProcessTask task = scheduler.getFileScheduler().poll();
+            if (task == null) {
+                busyWorkers.decrementAndGet();
+            }
+            return task;
+        }
+
+        /**
+         * Mark the calling worker done with a task, and update the progress
+         *
+         * @param task the task that has been processed
+         */
+        private void taskDone(ProcessTask task) {
+            busyWorkers.decrementAndGet();
 
-                //free the internal file resource after done with every module
-                fileToProcess.close();
+            final IngestMetrics metrics = IngestMetrics.getDefault();
+            metrics.incrementCounter(IngestMetrics.FILES_PROCESSED, 1);
+            metrics.incrementCounter(IngestMetrics.BYTES_PROCESSED, task.file.getSize());
 
+            final IngestScheduler.FileScheduler fileScheduler = scheduler.getFileScheduler();
+            synchronized (progressLock) {
                 int newTotalEnqueuedFiles = fileScheduler.getFilesEnqueuedEst();
                 if (newTotalEnqueuedFiles > totalEnqueuedFiles) {
                     //update if new enqueued
                     totalEnqueuedFiles = newTotalEnqueuedFiles + 1;// + processedFiles + 1;
-                    //processedFiles = 0;
                     //reset
                     progress.switchToIndeterminate();
                     progress.switchToDeterminate(totalEnqueuedFiles);
@@ -917,18 +1276,188 @@ public class IngestManager {
                 if (processedFiles < totalEnqueuedFiles) { //fix for now to handle the same image enqueued twice
                     ++processedFiles;
                 }
-                //--totalEnqueuedFiles;
+                progress.progress(task.file.getName(), processedFiles);
+            }
 
+            checkpoints.flushIfDue();
+        }
 
-            } //end of for every AbstractFile
-            logger.log(Level.INFO, "IngestManager: Finished processing files");
-            return null;
+        /**
+         * Check if the file ingest is complete: nothing is enqueued and no
+         * worker is processing a file that could still schedule new files
+         *
+         * @return true if all workers should terminate
+         */
+        private boolean isAllDone() {
+            return busyWorkers.get() == 0 && !scheduler.getFileScheduler().hasNext();
+        }
+
+        private Object getModuleLock(IngestModuleAbstractFile module) {
+            synchronized (moduleLocks) {
+                Object lock = moduleLocks.get(module.getName());
+                if (lock == null) {
+                    lock = new Object();
+                    moduleLocks.put(module.getName(), lock);
+                }
+                return lock;
+            }
+        }
+
+        /**
+         * Runs the file module chain for every file it dequeues from the file
+         * scheduler, until the scheduler is empty and no other worker could
+         * schedule more files, or until the ingest is cancelled.
+         */
+        private class FileIngestWorker implements Runnable {
+
+            @Override
+            public void run() {
+                try {
+                    processTasks();
+                } finally {
+                    watchdog.workerDone();
+                }
+            }
+
+            private void processTasks() {
+                //interrupted when the file ingest is stopped
+                while (!isCancelled() && !Thread.currentThread().isInterrupted()) {
+                    final ProcessTask fileTask = nextTask();
+                    if (fileTask == null) {
+                        if (isAllDone()) {
+                            break;
+                        }
+                        //other workers may still schedule derived files
+                        try {
+                            Thread.sleep(IDLE_WAIT_MS);
+                        } catch (InterruptedException e) {
+                            break;
+                        }
+                        continue;
+                    }
+
+                    try {
+                        processFile(fileTask);
+                    } catch (RuntimeException e) {
+                        //keep the worker running for the next files
+                        logger.log(Level.SEVERE, "Unexpected exception processing file: " + fileTask.file.getName(), e);
+                    } finally {
+                        taskDone(fileTask);
+                    }
+                }
+            }
+
+            private void processFile(ProcessTask fileTask) {
+                final PipelineContext<IngestModuleAbstractFile> filepipelineContext = fileTask.context;
+                final ScheduledImageTask<IngestModuleAbstractFile> fileIngestTask = filepipelineContext.getScheduledTask();
+                final AbstractFile fileToProcess = fileTask.file;
+
+                //clear return values from modules for last file processed by this worker
+                final Map<String, IngestModuleAbstractFile.ProcessResult> retValues = abstractFileModulesRetValues.get();
+                retValues.clear();
+
+                //the file header is read at most once, when first needed by a module
+                currentFileSignature.set(new FileSignature(fileToProcess));
+
+                final long imageId = fileIngestTask.getImage().getId();
+                final long fileId = fileToProcess.getId();
+
+                logger.log(Level.INFO, "IngestManager: Processing: {0}", fileToProcess.getName());
+                //set if a module timed out and is still running on the file in an abandoned thread
+                boolean fileInUse = false;
+                try {
+                    for (IngestModuleAbstractFile module : fileIngestTask.getModules()) {
+                        //process the file with every file module
+                        if (isCancelled()) {
+                            logger.log(Level.INFO, "Terminating file ingest due to cancellation.");
+                            return;
+                        }
+
+                        if (checkpoints.isDone(imageId, module.getName(), fileId)) {
+                            //processed by the module in the ingest being resumed
+                            continue;
+                        }
+
+                        try {
+                            IngestModuleAbstractFile.ProcessResult result;
+                            if (threadSafeModules.contains(module.getName())) {
+                                result = invokeModule(module, filepipelineContext, fileToProcess, retValues);
+                            } else {
+                                synchronized (getModuleLock(module)) {
+                                    if (watchdog.isDisabled(module)) {
+                                        //a call timed out and may still be running in the abandoned thread
+                                        watchdog.fileSkipped(module, fileToProcess);
+                                        continue;
+                                    }
+                                    result = invokeModule(module, filepipelineContext, fileToProcess, retValues);
+                                }
+                            }
+
+                            //store the result for subsequent modules for this file
+                            retValues.put(module.getName(), result);
+                            checkpoints.markDone(imageId, module.getName(), fileId);
+
+                        } catch (InterruptedException e) {
+                            //file ingest stopped while waiting for the module, its call may still be running
+                            fileInUse = true;
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (TimeoutException e) {
+                            if (e instanceof IngestModuleWatchdog.ModuleStuckException) {
+                                fileInUse = true;
+                            }
+                            postMessage(IngestMessage.createErrorMessage(quarantineMessageId.incrementAndGet(), module,
+                                    "File quarantined, " + module.getName() + " timed out: " + fileToProcess.getName(),
+                                    "Module " + module.getName() + " did not finish processing file " + fileToProcess.getName()
+                                    + " (id: " + fileToProcess.getId() + ") within " + watchdog.getTimeout(module)
+                                    + " secs. The file has been quarantined and the other modules continue with the file."
+                                    + (watchdog.isDisabled(module) ? " The module has been disabled for the rest of the ingest." : "")));
+                        } catch (Exception e) {
+                            logger.log(Level.SEVERE, "Error: unexpected exception from module: " + module.getName(), e);
+                            stats.addError(module);
+                        } catch (OutOfMemoryError e) {
+                            logger.log(Level.SEVERE, "Error: out of memory from module: " + module.getName(), e);
+                            stats.addError(module);
+                        }
+                    } //end for every module
+                } finally {
+                    //free the internal file resource after done with every module,
+                    //unless the abandoned thread of a module may still read it
+                    if (!fileInUse) {
+                        fileToProcess.close();
+                    }
+                }
+            }
+
+            /**
+             * Call process() of the module on the file under the watchdog, and
+             * record the module processing time
+             *
+             * @param module module to run
+             * @param pipelineContext context of the file ingest
+             * @param file file to process
+             * @param retValues results of the previous modules for the file
+             * @return result of the module
+             * @throws Exception exception thrown by the module or the watchdog
+             */
+            private IngestModuleAbstractFile.ProcessResult invokeModule(IngestModuleAbstractFile module,
+                    PipelineContext<IngestModuleAbstractFile> pipelineContext, AbstractFile file,
+                    Map<String, IngestModuleAbstractFile.ProcessResult> retValues) throws Exception {
+                stats.logFileModuleStartProcess(module);
+                try {
+                    return watchdog.process(module, threadSafeModules.contains(module.getName()), pipelineContext, file, retValues);
+                } finally {
+                    stats.logFileModuleEndProcess(module, file);
+                }
+            }
         }
 
         @Override
         protected void done() {
+            boolean completed = false;
             try {
                 super.get(); //block and get all exceptions thrown while doInBackground()
+                completed = !this.isCancelled();
                 //notify modules of completion
                 if (!this.isCancelled()) {
                     for (IngestModuleAbstractFile s : abstractFileModules) {
@@ -959,9 +1488,25 @@ public class IngestManager {
                 stats.end();
                 progress.finish();
 
+                //keep the checkpoints if the file ingest did not complete, so that it can be resumed
+                checkpoints.stop(completed);
+
+                final IngestScheduler.FileScheduler fileScheduler = scheduler.getFileScheduler();
+                logger.log(Level.INFO, "File system lookups saved by file scheduler cache: " + fileScheduler.getFsLookupsSaved());
+                fileScheduler.resetFsMetadataCache();
+
                 if (!this.isCancelled()) {
                     logger.log(Level.INFO, "Summary Report: " + stats.toString());
                     logger.log(Level.INFO, "File module timings: " + stats.getFileModuleStats());
+                    for (IngestModuleWatchdog.QuarantinedFile quarantined : watchdog.getQuarantinedFiles()) {
+                        logger.log(Level.WARNING, "Quarantined file: " + quarantined.fileId + ", " + quarantined.fileName
+                                + ", module " + quarantined.moduleName + " timed out after " + quarantined.timeoutSecs + " secs.");
+                    }
+                    for (Map.Entry<String, Integer> skipped : watchdog.getSkippedFileCounts().entrySet()) {
+                        logger.log(Level.WARNING, "Module " + skipped.getKey() + " was disabled after a timeout and skipped "
+                                + skipped.getValue() + " files.");
+                    }
+                    stats.exportFileModuleStats();
                     if (ui != null) {
                         logger.log(Level.INFO, "Ingest messages count: " + ui.getMessagesCount());
                     }
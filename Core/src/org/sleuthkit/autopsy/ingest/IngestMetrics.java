@@ -0,0 +1,294 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import javax.swing.Timer;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Lightweight in-process registry of ingest metrics.
+ *
+ * Ingest code and modules publish counters (monotonically increasing totals,
+ * such as files processed), values (last observed value, such as the latency
+ * of the last Solr commit) and gauges (values computed when sampled, such as
+ * the file queue depth). While ingest is running, the registry samples all
+ * metrics once a second into fixed size histories and notifies listeners of
+ * the METRICS_SAMPLED event on the EDT. For counters, the sampled value is the
+ * rate per second.
+ *
+ * Publishing is lock-free and cheap enough to be called for every file.
+ */
+public class IngestMetrics {
+
+    /**
+     * Event fired on the EDT after every sample of the metrics
+     */
+    public static final String METRICS_SAMPLED = "METRICS_SAMPLED";
+    /**
+     * Counter of files processed by the file ingest pipeline
+     */
+    public static final String FILES_PROCESSED = "Files processed";
+    /**
+     * Counter of bytes of files processed by the file ingest pipeline
+     */
+    public static final String BYTES_PROCESSED = "Bytes processed";
+    /**
+     * Gauge of files enqueued and not yet processed
+     */
+    public static final String FILE_QUEUE_DEPTH = "File queue depth";
+    /**
+     * Counter prefix of the time in microseconds spent by a file module in
+     * process(), followed by the module name. The rate divided by 10^6 is the
+     * average number of threads busy in the module.
+     */
+    public static final String MODULE_BUSY_PREFIX = "Module busy: ";
+    /**
+     * Value of the latency in ms of the last Solr commit
+     */
+    public static final String SOLR_COMMIT_LATENCY = "Solr commit latency ms";
+    /**
+     * Value of the latency in ms of the last Solr soft commit, making new
+     * documents searchable without syncing the index to disk
+     */
+    public static final String SOLR_SOFT_COMMIT_LATENCY = "Solr soft commit latency ms";
+    /**
+     * Gauge of documents sent to Solr and not searchable yet
+     */
+    public static final String SOLR_UNCOMMITTED_DOCS = "Solr uncommitted documents";
+    /**
+     * Counter of artifacts written by the BlackboardWriter
+     */
+    public static final String ARTIFACTS_WRITTEN = "Blackboard artifacts written";
+    /**
+     * Gauge of artifacts queued in the BlackboardWriter and not yet written
+     */
+    public static final String ARTIFACTS_PENDING = "Blackboard artifacts pending";
+    //number of samples kept per metric
+    public static final int HISTORY_SIZE = 120;
+    private static final int SAMPLE_INTERVAL_MS = 1000;
+    private static IngestMetrics instance;
+    private static final Logger logger = Logger.getLogger(IngestMetrics.class.getName());
+    private final PropertyChangeSupport pcs = new PropertyChangeSupport(this);
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentHashMap<String, AtomicLong> values = new ConcurrentHashMap<String, AtomicLong>();
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+    //sorted by name, so that the metrics are always listed in the same order
+    private final Map<String, History> histories = new ConcurrentSkipListMap<String, History>();
+    //counter values at the previous sample, accessed only by the sampler on the EDT
+    private final Map<String, Long> lastCounterValues = new ConcurrentHashMap<String, Long>();
+    private long lastSampleTime = 0;
+    private Timer timer;
+
+    /**
+     * Computes the current value of a metric when the metrics are sampled
+     */
+    public interface Gauge {
+
+        long getValue();
+    }
+
+    private IngestMetrics() {
+    }
+
+    public static synchronized IngestMetrics getDefault() {
+        if (instance == null) {
+            instance = new IngestMetrics();
+        }
+        return instance;
+    }
+
+    /**
+     * Add to a counter, creating it if needed
+     *
+     * @param name name of the counter
+     * @param delta amount to add
+     */
+    public void incrementCounter(String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            counter = new AtomicLong(0);
+            final AtomicLong existing = counters.putIfAbsent(name, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Set the last observed value of a metric
+     *
+     * @param name name of the metric
+     * @param value the value
+     */
+    public void setValue(String name, long value) {
+        AtomicLong current = values.get(name);
+        if (current == null) {
+            current = new AtomicLong(0);
+            final AtomicLong existing = values.putIfAbsent(name, current);
+            if (existing != null) {
+                current = existing;
+            }
+        }
+        current.set(value);
+    }
+
+    /**
+     * Register a gauge, replacing any gauge registered under the same name
+     *
+     * @param name name of the metric
+     * @param gauge gauge computing the metric
+     */
+    public void registerGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Get names of the metrics sampled so far
+     *
+     * @return metric names, sorted
+     */
+    public List<String> getMetricNames() {
+        return new ArrayList<String>(histories.keySet());
+    }
+
+    /**
+     * Get the sampled history of a metric
+     *
+     * @param name name of the metric
+     * @return samples, oldest first, at most HISTORY_SIZE, empty if the metric
+     * has not been sampled
+     */
+    public long[] getHistory(String name) {
+        final History history = histories.get(name);
+        if (history == null) {
+            return new long[0];
+        }
+        return history.toArray();
+    }
+
+    public void addPropertyChangeListener(PropertyChangeListener l) {
+        pcs.addPropertyChangeListener(l);
+    }
+
+    public void removePropertyChangeListener(PropertyChangeListener l) {
+        pcs.removePropertyChangeListener(l);
+    }
+
+    /**
+     * Start sampling, if not already. Sampling stops by itself after ingest is
+     * no longer running.
+     */
+    synchronized void start() {
+        if (timer == null) {
+            timer = new Timer(SAMPLE_INTERVAL_MS, new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    sample();
+                    if (!IngestManager.getDefault().isIngestRunning()) {
+                        timer.stop();
+                    }
+                }
+            });
+        }
+        if (!timer.isRunning()) {
+            lastSampleTime = System.currentTimeMillis();
+            for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+                lastCounterValues.put(counter.getKey(), counter.getValue().get());
+            }
+            timer.start();
+        }
+    }
+
+    synchronized boolean isRunning() {
+        return timer != null && timer.isRunning();
+    }
+
+    private void sample() {
+        final long now = System.currentTimeMillis();
+        final long elapsedMs = Math.max(1, now - lastSampleTime);
+        lastSampleTime = now;
+
+        for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+            final long value = counter.getValue().get();
+            final Long last = lastCounterValues.put(counter.getKey(), value);
+            final long delta = value - (last == null ? 0 : last);
+            addSample(counter.getKey(), delta * 1000 / elapsedMs);
+        }
+        for (Map.Entry<String, AtomicLong> value : values.entrySet()) {
+            addSample(value.getKey(), value.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+            try {
+                addSample(gauge.getKey(), gauge.getValue().getValue());
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Error sampling ingest metric: " + gauge.getKey(), e);
+            }
+        }
+
+        pcs.firePropertyChange(METRICS_SAMPLED, null, null);
+    }
+
+    private void addSample(String name, long sample) {
+        History history = histories.get(name);
+        if (history == null) {
+            history = new History();
+            histories.put(name, history);
+        }
+        history.add(sample);
+    }
+
+    /**
+     * Ring buffer of the latest samples of a metric
+     */
+    private static class History {
+
+        private final long[] samples = new long[HISTORY_SIZE];
+        private int next = 0;
+        private int size = 0;
+
+        synchronized void add(long sample) {
+            samples[next] = sample;
+            next = (next + 1) % HISTORY_SIZE;
+            if (size < HISTORY_SIZE) {
+                ++size;
+            }
+        }
+
+        synchronized long[] toArray() {
+            final long[] ret = new long[size];
+            final int start = (next - size + HISTORY_SIZE) % HISTORY_SIZE;
+            for (int i = 0; i < size; ++i) {
+                ret[i] = samples[(start + i) % HISTORY_SIZE];
+            }
+            return ret;
+        }
+    }
+}
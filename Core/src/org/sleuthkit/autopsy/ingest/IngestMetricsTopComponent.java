@@ -0,0 +1,226 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.Insets;
+import java.awt.RenderingHints;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.HashMap;
+import java.util.Map;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import org.openide.util.NbBundle;
+import org.openide.windows.Mode;
+import org.openide.windows.TopComponent;
+import org.openide.windows.WindowManager;
+
+/**
+ * Top component showing the live ingest metrics published in IngestMetrics,
+ * one sparkline per metric with its latest value, refreshed every time the
+ * metrics are sampled.
+ */
+public final class IngestMetricsTopComponent extends TopComponent {
+
+    private static IngestMetricsTopComponent instance;
+    private static final String PREFERRED_ID = "IngestMetricsTopComponent";
+    private static final String DOCK_MODE = "output";
+    private final JPanel metricsPanel = new JPanel(new GridBagLayout());
+    private final Map<String, MetricRow> rows = new HashMap<String, MetricRow>();
+    private final PropertyChangeListener metricsListener = new PropertyChangeListener() {
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            if (evt.getPropertyName().equals(IngestMetrics.METRICS_SAMPLED)) {
+                refresh();
+            }
+        }
+    };
+
+    private IngestMetricsTopComponent() {
+        setName(NbBundle.getMessage(IngestMetricsTopComponent.class, "CTL_IngestMetricsTopComponent"));
+        setToolTipText(NbBundle.getMessage(IngestMetricsTopComponent.class, "HINT_IngestMetricsTopComponent"));
+        setLayout(new BorderLayout());
+        final JPanel wrapper = new JPanel(new BorderLayout());
+        wrapper.add(metricsPanel, BorderLayout.NORTH);
+        add(new JScrollPane(wrapper), BorderLayout.CENTER);
+    }
+
+    public static synchronized IngestMetricsTopComponent findInstance() {
+        TopComponent win = WindowManager.getDefault().findTopComponent(PREFERRED_ID);
+        if (win instanceof IngestMetricsTopComponent) {
+            return (IngestMetricsTopComponent) win;
+        }
+        if (instance == null) {
+            instance = new IngestMetricsTopComponent();
+        }
+        return instance;
+    }
+
+    @Override
+    protected String preferredID() {
+        return PREFERRED_ID;
+    }
+
+    @Override
+    public int getPersistenceType() {
+        return TopComponent.PERSISTENCE_NEVER;
+    }
+
+    @Override
+    public void open() {
+        Mode mode = WindowManager.getDefault().findMode(DOCK_MODE);
+        if (mode != null) {
+            mode.dockInto(this);
+        }
+        super.open();
+    }
+
+    @Override
+    protected void componentOpened() {
+        super.componentOpened();
+        IngestMetrics.getDefault().addPropertyChangeListener(metricsListener);
+        refresh();
+    }
+
+    @Override
+    protected void componentClosed() {
+        super.componentClosed();
+        IngestMetrics.getDefault().removePropertyChangeListener(metricsListener);
+    }
+
+    /**
+     * Update the rows from the metric histories, adding rows for new metrics
+     */
+    private void refresh() {
+        final IngestMetrics metrics = IngestMetrics.getDefault();
+        boolean added = false;
+        for (String name : metrics.getMetricNames()) {
+            MetricRow row = rows.get(name);
+            if (row == null) {
+                row = new MetricRow(name);
+                rows.put(name, row);
+                added = true;
+            }
+            row.update(metrics.getHistory(name));
+        }
+
+        if (added) {
+            //re-layout all rows, so that they stay sorted by name
+            metricsPanel.removeAll();
+            int y = 0;
+            for (String name : metrics.getMetricNames()) {
+                final MetricRow row = rows.get(name);
+                GridBagConstraints c = new GridBagConstraints();
+                c.gridy = y++;
+                c.insets = new Insets(2, 4, 2, 4);
+                c.anchor = GridBagConstraints.WEST;
+                c.gridx = 0;
+                metricsPanel.add(row.nameLabel, c);
+                c.gridx = 1;
+                c.fill = GridBagConstraints.HORIZONTAL;
+                c.weightx = 1.0;
+                metricsPanel.add(row.sparkline, c);
+                c.gridx = 2;
+                c.fill = GridBagConstraints.NONE;
+                c.weightx = 0;
+                c.anchor = GridBagConstraints.EAST;
+                metricsPanel.add(row.valueLabel, c);
+            }
+            metricsPanel.revalidate();
+        }
+        metricsPanel.repaint();
+    }
+
+    /**
+     * Label, sparkline and latest value of a metric
+     */
+    private static class MetricRow {
+
+        private final JLabel nameLabel;
+        private final Sparkline sparkline = new Sparkline();
+        private final JLabel valueLabel = new JLabel();
+
+        MetricRow(String name) {
+            nameLabel = new JLabel(name);
+        }
+
+        void update(long[] history) {
+            sparkline.setSamples(history);
+            valueLabel.setText(history.length == 0 ? "" : Long.toString(history[history.length - 1]));
+        }
+    }
+
+    /**
+     * Minimal line chart of the samples, scaled to the max sample
+     */
+    private static class Sparkline extends JComponent {
+
+        private static final Color LINE_COLOR = new Color(0x33, 0x66, 0xCC);
+        private long[] samples = new long[0];
+
+        Sparkline() {
+            setPreferredSize(new Dimension(IngestMetrics.HISTORY_SIZE * 2, 24));
+        }
+
+        void setSamples(long[] samples) {
+            this.samples = samples;
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            if (samples.length < 2) {
+                return;
+            }
+            long max = 1;
+            for (long s : samples) {
+                max = Math.max(max, s);
+            }
+            final int w = getWidth();
+            final int h = getHeight() - 2;
+            final Graphics2D g2 = (Graphics2D) g.create();
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setColor(LINE_COLOR);
+            //samples are right-aligned, so that the latest is always at the right edge
+            final double xStep = (double) w / (IngestMetrics.HISTORY_SIZE - 1);
+            final int xOffset = IngestMetrics.HISTORY_SIZE - samples.length;
+            int prevX = 0;
+            int prevY = 0;
+            for (int i = 0; i < samples.length; ++i) {
+                final int x = (int) ((xOffset + i) * xStep);
+                final int y = 1 + h - (int) ((double) samples[i] / max * h);
+                if (i > 0) {
+                    g2.drawLine(prevX, prevY, x, y);
+                }
+                prevX = x;
+                prevY = y;
+            }
+            g2.dispose();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+/**
+ * Optional interface a file ingest module can implement, in addition to
+ * IngestModuleAbstractFile, to tell the manager how it can be run when the file
+ * ingest pipeline uses multiple worker threads.
+ *
+ * Modules that do not implement this interface are treated as
+ * ThreadingModel.SINGLE_INSTANCE.
+ */
+public interface IngestModuleConcurrency {
+
+    /**
+     * How the manager is allowed to invoke process() on the module
+     */
+    public enum ThreadingModel {
+
+        SINGLE_INSTANCE, ///< Module is not thread-safe, the manager serializes all process() calls to it
+        THREAD_SAFE ///< Module process() can be invoked concurrently by multiple file ingest workers
+    };
+
+    /**
+     * Get the threading model the module supports. Queried once when the file
+     * ingest pipeline starts.
+     *
+     * @return threading model supported by the module
+     */
+    public ThreadingModel getThreadingModel();
+}
@@ -0,0 +1,50 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+/**
+ * Optional interface a file ingest module can implement, in addition to
+ * IngestModuleAbstractFile, if the output of process() is persisted after
+ * process() returns, for example by a queue drained in background threads.
+ *
+ * The manager records a file as finished by such a module in the ingest
+ * checkpoints only after the module reports that the output of the file has
+ * been persisted, so that a resumed ingest does not skip files whose output
+ * was lost.
+ */
+public interface IngestModuleDeferredOutput {
+
+    /**
+     * Get the mark of the output of the files the module has processed so
+     * far. Called by the manager in the file ingest worker thread, right after
+     * process() returned for a file. Marks must not decrease.
+     *
+     * @return mark to compare with getPersistedOutputMark()
+     */
+    public long getOutputMark();
+
+    /**
+     * Get the mark up to which the output is persisted: the output of every
+     * file processed when getOutputMark() returned a mark less than or equal
+     * to it.
+     *
+     * @return mark of the persisted output
+     */
+    public long getPersistedOutputMark();
+}
@@ -0,0 +1,343 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.sleuthkit.datamodel.AbstractFile;
+
+/**
+ * Per-file processing latency statistics of a single file ingest module.
+ *
+ * Latencies are recorded in microseconds into a log-linear histogram (in the
+ * spirit of HdrHistogram) with a bounded relative error of about 3%, so that
+ * percentiles can be reported without keeping every sample. The slowest files
+ * processed by the module are tracked separately, with their ids and sizes.
+ *
+ * Recording is safe to call concurrently from multiple file ingest threads.
+ */
+class IngestModuleLatencyStats {
+
+    //number of slowest files to keep per module
+    static final int NUM_SLOWEST_FILES = 10;
+    //values below 2^SUB_BUCKET_BITS are recorded exactly
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    //highest value tracked, 2^40 us is about 12 days, larger values are clamped
+    private static final int MAX_VALUE_BITS = 40;
+    private static final long MAX_TRACKABLE_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    private static final int BUCKETS = SUB_BUCKET_COUNT + (MAX_VALUE_BITS - SUB_BUCKET_BITS) * SUB_BUCKET_HALF_COUNT;
+    private final String moduleName;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong(0);
+    private final AtomicLong totalMicros = new AtomicLong(0);
+    private final AtomicLong maxMicros = new AtomicLong(0);
+    //min-heap of the slowest files, guarded by itself
+    private final PriorityQueue<SlowFile> slowestFiles = new PriorityQueue<SlowFile>(NUM_SLOWEST_FILES + 1);
+    //fast path check to avoid locking for files not slow enough to make the list
+    private volatile long slowestFilesThreshold = 0;
+
+    IngestModuleLatencyStats(String moduleName) {
+        this.moduleName = moduleName;
+    }
+
+    String getModuleName() {
+        return moduleName;
+    }
+
+    /**
+     * Record the time the module took to process a file
+     *
+     * @param file file processed
+     * @param elapsedNanos processing time in nanoseconds
+     */
+    void record(AbstractFile file, long elapsedNanos) {
+        long micros = elapsedNanos / 1000;
+        if (micros < 0) {
+            micros = 0;
+        }
+
+        counts.incrementAndGet(getBucketIndex(Math.min(micros, MAX_TRACKABLE_VALUE)));
+        totalCount.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long curMax = maxMicros.get();
+        while (micros > curMax && !maxMicros.compareAndSet(curMax, micros)) {
+            curMax = maxMicros.get();
+        }
+
+        if (file != null && micros >= slowestFilesThreshold) {
+            synchronized (slowestFiles) {
+                if (slowestFiles.size() < NUM_SLOWEST_FILES) {
+                    slowestFiles.add(new SlowFile(file, micros));
+                } else if (micros > slowestFiles.peek().micros) {
+                    slowestFiles.poll();
+                    slowestFiles.add(new SlowFile(file, micros));
+                }
+                if (slowestFiles.size() == NUM_SLOWEST_FILES) {
+                    slowestFilesThreshold = slowestFiles.peek().micros;
+                }
+            }
+        }
+    }
+
+    long getCount() {
+        return totalCount.get();
+    }
+
+    long getTotalMicros() {
+        return totalMicros.get();
+    }
+
+    long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    long getMeanMicros() {
+        final long count = totalCount.get();
+        return count == 0 ? 0 : totalMicros.get() / count;
+    }
+
+    /**
+     * Get the value at the percentile, accurate within the histogram
+     * resolution
+     *
+     * @param percentile percentile, between 0 and 100
+     * @return value at the percentile in microseconds, never higher than the
+     * max recorded value
+     */
+    long getPercentileMicros(double percentile) {
+        final long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        final long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            cumulative += counts.get(i);
+            if (cumulative >= countAtPercentile) {
+                return Math.min(getBucketHighestValue(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    /**
+     * Get the slowest files processed by the module
+     *
+     * @return slowest files, slowest first
+     */
+    List<SlowFile> getSlowestFiles() {
+        final List<SlowFile> ret;
+        synchronized (slowestFiles) {
+            ret = new ArrayList<SlowFile>(slowestFiles);
+        }
+        Collections.sort(ret, Collections.reverseOrder());
+        return ret;
+    }
+
+    private static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        //shift so that the value falls in the upper half of the sub buckets
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        final int subBucket = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (subBucket - SUB_BUCKET_HALF_COUNT);
+    }
+
+    private static long getBucketHighestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+        final long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Format microseconds as milliseconds with 1 decimal
+     */
+    static String formatMillis(long micros) {
+        return String.format(Locale.US, "%.1f", micros / 1000.0);
+    }
+
+    /**
+     * Get the latency stats of modules as CSV, one row per module
+     *
+     * @param modulesStats stats of the modules
+     * @return CSV with a header row
+     */
+    static String toSummaryCsv(Collection<IngestModuleLatencyStats> modulesStats) {
+        final String EOL = System.getProperty("line.separator");
+        final StringBuilder sb = new StringBuilder();
+        sb.append("module,files,total_ms,mean_ms,p50_ms,p95_ms,p99_ms,max_ms").append(EOL);
+        for (IngestModuleLatencyStats s : modulesStats) {
+            sb.append(csvEscape(s.getModuleName())).append(',')
+                    .append(s.getCount()).append(',')
+                    .append(formatMillis(s.getTotalMicros())).append(',')
+                    .append(formatMillis(s.getMeanMicros())).append(',')
+                    .append(formatMillis(s.getPercentileMicros(50))).append(',')
+                    .append(formatMillis(s.getPercentileMicros(95))).append(',')
+                    .append(formatMillis(s.getPercentileMicros(99))).append(',')
+                    .append(formatMillis(s.getMaxMicros())).append(EOL);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the slowest files of modules as CSV, one row per module and file
+     *
+     * @param modulesStats stats of the modules
+     * @return CSV with a header row
+     */
+    static String toSlowestFilesCsv(Collection<IngestModuleLatencyStats> modulesStats) {
+        final String EOL = System.getProperty("line.separator");
+        final StringBuilder sb = new StringBuilder();
+        sb.append("module,rank,file_id,file_name,file_size,ms").append(EOL);
+        for (IngestModuleLatencyStats s : modulesStats) {
+            int rank = 1;
+            for (SlowFile f : s.getSlowestFiles()) {
+                sb.append(csvEscape(s.getModuleName())).append(',')
+                        .append(rank++).append(',')
+                        .append(f.fileId).append(',')
+                        .append(csvEscape(f.fileName)).append(',')
+                        .append(f.fileSize).append(',')
+                        .append(formatMillis(f.micros)).append(EOL);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Get the latency stats and slowest files of modules as JSON
+     *
+     * @param modulesStats stats of the modules
+     * @return JSON array with an object per module
+     */
+    static String toJson(Collection<IngestModuleLatencyStats> modulesStats) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("[");
+        boolean firstModule = true;
+        for (IngestModuleLatencyStats s : modulesStats) {
+            if (!firstModule) {
+                sb.append(",");
+            }
+            firstModule = false;
+            sb.append("\n  {\"module\": ").append(jsonString(s.getModuleName()))
+                    .append(", \"files\": ").append(s.getCount())
+                    .append(", \"total_us\": ").append(s.getTotalMicros())
+                    .append(", \"mean_us\": ").append(s.getMeanMicros())
+                    .append(", \"p50_us\": ").append(s.getPercentileMicros(50))
+                    .append(", \"p95_us\": ").append(s.getPercentileMicros(95))
+                    .append(", \"p99_us\": ").append(s.getPercentileMicros(99))
+                    .append(", \"max_us\": ").append(s.getMaxMicros())
+                    .append(", \"slowest\": [");
+            boolean firstFile = true;
+            for (SlowFile f : s.getSlowestFiles()) {
+                if (!firstFile) {
+                    sb.append(",");
+                }
+                firstFile = false;
+                sb.append("\n    {\"file_id\": ").append(f.fileId)
+                        .append(", \"file_name\": ").append(jsonString(f.fileName))
+                        .append(", \"file_size\": ").append(f.fileSize)
+                        .append(", \"us\": ").append(f.micros).append("}");
+            }
+            sb.append("]}");
+        }
+        sb.append("\n]\n");
+        return sb.toString();
+    }
+
+    private static String csvEscape(String s) {
+        if (s == null) {
+            return "";
+        }
+        if (s.indexOf(',') == -1 && s.indexOf('"') == -1 && s.indexOf('\n') == -1 && s.indexOf('\r') == -1) {
+            return s;
+        }
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String jsonString(String s) {
+        if (s == null) {
+            return "null";
+        }
+        final StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+
+    /**
+     * A file that took long to process by the module
+     */
+    static class SlowFile implements Comparable<SlowFile> {
+
+        final long fileId;
+        final String fileName;
+        final long fileSize;
+        final long micros;
+
+        SlowFile(AbstractFile file, long micros) {
+            this.fileId = file.getId();
+            this.fileName = file.getName();
+            this.fileSize = file.getSize();
+            this.micros = micros;
+        }
+
+        @Override
+        public int compareTo(SlowFile o) {
+            return micros < o.micros ? -1 : (micros == o.micros ? 0 : 1);
+        }
+    }
+}
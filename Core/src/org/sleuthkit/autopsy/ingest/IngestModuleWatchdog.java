@@ -0,0 +1,321 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.coreutils.ModuleSettings;
+import org.sleuthkit.datamodel.AbstractFile;
+
+/**
+ * Runs file module process() calls under a per-module deadline, so that a
+ * single file that hangs a module does not stall the whole file ingest.
+ *
+ * Each file ingest worker thread hands its module invocations to its own
+ * invoker thread and waits for the result up to the deadline. On timeout the
+ * invoker thread is interrupted and the file is recorded in the quarantine
+ * list. If the module returns within a short grace period after the interrupt,
+ * the module stays enabled for the next files. Otherwise the invoker thread is
+ * abandoned (a new one is created for the next invocation), and a module that
+ * is not thread-safe is disabled for the rest of the ingest, since the
+ * abandoned thread is still running in it.
+ *
+ * The deadline is read from the ingest settings, FileModuleTimeoutSecs for
+ * all modules, overridden per module by FileModuleTimeoutSecs_(module name).
+ * A deadline of 0 disables the watchdog, and process() is then called
+ * directly in the file ingest worker thread.
+ */
+class IngestModuleWatchdog {
+
+    private static final String TIMEOUT_SETTING = "FileModuleTimeoutSecs";
+    private static final int DEFAULT_TIMEOUT_SECS = 30 * 60;
+    //time given to a module to return after its invoker thread is interrupted
+    private static final int INTERRUPT_GRACE_SECS = 5;
+    private static final Logger logger = Logger.getLogger(IngestModuleWatchdog.class.getName());
+    //deadlines per module name, read once per ingest
+    private final Map<String, Integer> timeouts = new ConcurrentHashMap<String, Integer>();
+    private final List<QuarantinedFile> quarantine = new CopyOnWriteArrayList<QuarantinedFile>();
+    //names of the modules disabled after a timeout
+    private final Set<String> disabledModules = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    //number of files skipped per disabled module name
+    private final ConcurrentHashMap<String, AtomicInteger> skippedFiles = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicInteger invokerThreadCount = new AtomicInteger(0);
+    //invoker of the file ingest worker thread
+    private final ThreadLocal<ExecutorService> invoker = new ThreadLocal<ExecutorService>();
+
+    /**
+     * Reset the deadlines and the quarantine list for a new file ingest
+     */
+    void reset() {
+        timeouts.clear();
+        quarantine.clear();
+        disabledModules.clear();
+        skippedFiles.clear();
+    }
+
+    /**
+     * Check if the module has been disabled for the rest of the ingest,
+     * because a call to it timed out and may still be running. Check it while
+     * holding the module lock.
+     *
+     * @param module module to check
+     * @return true if the module must not be called anymore
+     */
+    boolean isDisabled(IngestModuleAbstract module) {
+        return disabledModules.contains(module.getName());
+    }
+
+    /**
+     * Record a file not processed by a module because the module has been
+     * disabled
+     *
+     * @param module disabled module
+     * @param file file skipped
+     */
+    void fileSkipped(IngestModuleAbstract module, AbstractFile file) {
+        final String moduleName = module.getName();
+        AtomicInteger count = skippedFiles.get(moduleName);
+        if (count == null) {
+            final AtomicInteger newCount = new AtomicInteger(0);
+            count = skippedFiles.putIfAbsent(moduleName, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+        logger.log(Level.WARNING, "Module " + moduleName + " is disabled, skipped file: "
+                + file.getId() + ", " + file.getName());
+    }
+
+    /**
+     * Get the number of files skipped by the disabled modules since the last
+     * reset()
+     *
+     * @return number of skipped files per module name
+     */
+    Map<String, Integer> getSkippedFileCounts() {
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Map.Entry<String, AtomicInteger> entry : skippedFiles.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * Get the deadline for the module
+     *
+     * @param module module to get the deadline for
+     * @return deadline in seconds, 0 if disabled
+     */
+    int getTimeout(IngestModuleAbstract module) {
+        final String moduleName = module.getName();
+        Integer timeout = timeouts.get(moduleName);
+        if (timeout == null) {
+            timeout = readTimeoutSetting(TIMEOUT_SETTING + "_" + moduleName,
+                    readTimeoutSetting(TIMEOUT_SETTING, DEFAULT_TIMEOUT_SECS));
+            timeouts.put(moduleName, timeout);
+        }
+        return timeout;
+    }
+
+    private static int readTimeoutSetting(String key, int defaultTimeout) {
+        final String value = ModuleSettings.getConfigSetting(IngestManager.MODULE_PROPERTIES, key);
+        if (value == null) {
+            return defaultTimeout;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            logger.log(Level.WARNING, "Invalid file module timeout setting: " + key + "=" + value);
+            return defaultTimeout;
+        }
+    }
+
+    /**
+     * Call process() of the module under the module deadline
+     *
+     * @param module module to run
+     * @param threadSafe true if the module can be called concurrently, it is
+     * then not disabled if its call does not return after a timeout
+     * @param pipelineContext context of the file ingest
+     * @param file file to process
+     * @param retValues results of the previous modules for the file, made
+     * visible to the module through IngestServices
+     * @return result of the module
+     * @throws TimeoutException if the module did not finish within the
+     * deadline, the file has been quarantined
+     * @throws ModuleStuckException if in addition the module did not return
+     * after the interrupt, and may still be using the file
+     * @throws Exception exception thrown by the module
+     */
+    IngestModuleAbstractFile.ProcessResult process(final IngestModuleAbstractFile module, boolean threadSafe,
+            final PipelineContext<IngestModuleAbstractFile> pipelineContext, final AbstractFile file,
+            final Map<String, IngestModuleAbstractFile.ProcessResult> retValues) throws Exception {
+        final int timeout = getTimeout(module);
+        if (timeout == 0) {
+            return module.process(pipelineContext, file);
+        }
+
+        ExecutorService executor = invoker.get();
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new InvokerThreadFactory());
+            invoker.set(executor);
+        }
+
+        final FileSignature signature = IngestManager.getDefault().getCurrentFileSignature();
+        //released once the module call returns, even after a timeout
+        final CountDownLatch returned = new CountDownLatch(1);
+        final Future<IngestModuleAbstractFile.ProcessResult> future = executor.submit(new Callable<IngestModuleAbstractFile.ProcessResult>() {
+            @Override
+            public IngestModuleAbstractFile.ProcessResult call() throws Exception {
+                //results and signature are kept per thread, share the worker's with the module
+                IngestManager.getDefault().setAbstractFileModulesRetValues(retValues);
+                IngestManager.getDefault().setCurrentFileSignature(signature);
+                try {
+                    return module.process(pipelineContext, file);
+                } finally {
+                    returned.countDown();
+                }
+            }
+        });
+
+        try {
+            return future.get(timeout, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            quarantine.add(new QuarantinedFile(file, module.getName(), timeout));
+            logger.log(Level.SEVERE, "Module " + module.getName() + " timed out after " + timeout
+                    + " secs. processing file: " + file.getId() + ", " + file.getName() + ", quarantined");
+            boolean moduleReturned;
+            try {
+                moduleReturned = returned.await(INTERRUPT_GRACE_SECS, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                moduleReturned = returned.getCount() == 0;
+            }
+            if (moduleReturned) {
+                //the module honored the interrupt, keep it and its invoker for the next files
+                throw e;
+            }
+
+            //abandon the invoker thread, it might never return
+            executor.shutdownNow();
+            invoker.remove();
+            if (!threadSafe) {
+                //the next call would run concurrently with the abandoned one
+                disabledModules.add(module.getName());
+                logger.log(Level.SEVERE, "Module " + module.getName() + " did not return after interrupt, disabled for the rest of the ingest");
+            } else {
+                logger.log(Level.SEVERE, "Module " + module.getName() + " did not return after interrupt, invoker thread abandoned");
+            }
+            throw new ModuleStuckException(e.getMessage());
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            //file ingest cancelled, stop the module call as well
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    /**
+     * Shut down the invoker of the calling file ingest worker thread
+     */
+    void workerDone() {
+        final ExecutorService executor = invoker.get();
+        if (executor != null) {
+            executor.shutdown();
+            invoker.remove();
+        }
+    }
+
+    /**
+     * Get files quarantined since the last reset()
+     *
+     * @return quarantined files, in the order they timed out
+     */
+    List<QuarantinedFile> getQuarantinedFiles() {
+        return new ArrayList<QuarantinedFile>(quarantine);
+    }
+
+    private class InvokerThreadFactory implements ThreadFactory {
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "File ingest module invoker " + invokerThreadCount.incrementAndGet());
+            //an abandoned invoker must not keep the application from exiting
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * Thrown when a module timed out on a file and was still running in the
+     * abandoned invoker thread after the grace period
+     */
+    static class ModuleStuckException extends TimeoutException {
+
+        ModuleStuckException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A file on which a module timed out
+     */
+    static class QuarantinedFile {
+
+        final long fileId;
+        final String fileName;
+        final String moduleName;
+        final int timeoutSecs;
+
+        QuarantinedFile(AbstractFile file, String moduleName, int timeoutSecs) {
+            this.fileId = file.getId();
+            this.fileName = file.getName();
+            this.moduleName = moduleName;
+            this.timeoutSecs = timeoutSecs;
+        }
+    }
+}
@@ -18,19 +18,28 @@
  */
 package org.sleuthkit.autopsy.ingest;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.openide.util.Exceptions;
 import org.sleuthkit.autopsy.casemodule.Case;
 import org.sleuthkit.autopsy.ingest.IngestScheduler.FileScheduler.ProcessTask;
@@ -41,6 +50,7 @@ import org.sleuthkit.datamodel.DerivedFile;
 import org.sleuthkit.datamodel.Directory;
 import org.sleuthkit.datamodel.File;
 import org.sleuthkit.datamodel.FileSystem;
+import org.sleuthkit.datamodel.FsContent;
 import org.sleuthkit.datamodel.Image;
 import org.sleuthkit.datamodel.VirtualDirectory;
 import org.sleuthkit.datamodel.LayoutFile;
@@ -101,20 +111,42 @@ class IngestScheduler {
      * Enqueues files and modules, and sorts the files by priority. Maintains
      * only top level directories in memory, not all files in image.
      *
-     * getNext() will return next ProcessTask - tuple of (file, modules)
+     * Every image has its own set of concurrent queues (sorted root dirs, stack
+     * of dirs, files to process). Consumers do not share any lock: a file
+     * ingest worker dequeues from its own home image first, expands
+     * directories of that image when needed, and when its home image has no
+     * more work it steals from the other ends of the queues of other images.
+     * Expansion of a directory (a database query for its children) is done by
+     * the worker that dequeued the directory, outside of any lock.
+     *
+     * poll() will return next ProcessTask - tuple of (file, modules)
      *
      */
     static class FileScheduler implements Iterator<FileScheduler.ProcessTask> {
-        //root folders enqueued
 
-        private TreeSet<ProcessTask> rootProcessTasks;
-        //stack of current dirs to be processed recursively
-        private List<ProcessTask> curDirProcessTasks;
-        //list of files being processed in the currently processed directory
-        private LinkedList<ProcessTask> curFileProcessTasks; //need to add to start and end quickly
+        //queues of images enqueued, replaced as a whole (copy on write) when images are scheduled
+        private volatile ImageQueue[] imageQueues;
+        //guards replacing of the image queues array by the producers
+        private final Object imageQueuesLock = new Object();
+        //number of directories dequeued and currently being expanded, counted before dequeuing
+        private final AtomicInteger dirsBeingExpanded;
+        //number of directory dequeues started, to detect expansions started while checking the queues
+        private final AtomicLong dirDequeuesStarted = new AtomicLong(0);
         //estimated files to be enqueued for current images
-        private int filesEnqueuedEst;
-        private int filesDequeued;
+        private final AtomicInteger filesEnqueuedEst;
+        private final AtomicInteger filesDequeued;
+        //assigns every consumer thread its own home image queue
+        private final AtomicInteger nextHomeIndex = new AtomicInteger(0);
+        private final ThreadLocal<Integer> homeIndex = new ThreadLocal<Integer>() {
+            @Override
+            protected Integer initialValue() {
+                return nextHomeIndex.getAndIncrement();
+            }
+        };
+        //loads children of directories ahead of the consumers
+        private final DirChildrenPrefetcher prefetcher = new DirChildrenPrefetcher();
+        //file system info of the directories enqueued, used to filter files
+        private final FsMetadataCache fsMetadataCache = new FsMetadataCache();
         private final static int FAT_NTFS_FLAGS =
                 TskData.TSK_FS_TYPE_ENUM.TSK_FS_TYPE_FAT12.getValue()
                 | TskData.TSK_FS_TYPE_ENUM.TSK_FS_TYPE_FAT16.getValue()
@@ -122,37 +154,28 @@ class IngestScheduler {
                 | TskData.TSK_FS_TYPE_ENUM.TSK_FS_TYPE_NTFS.getValue();
 
         private FileScheduler() {
-            rootProcessTasks = new TreeSet<ProcessTask>(new RootTaskComparator());
-            curDirProcessTasks = new ArrayList<ProcessTask>();
-            curFileProcessTasks = new LinkedList<ProcessTask>();
-            filesEnqueuedEst = 0;
-            filesDequeued = 0;
+            imageQueues = new ImageQueue[0];
+            dirsBeingExpanded = new AtomicInteger(0);
+            filesEnqueuedEst = new AtomicInteger(0);
+            filesDequeued = new AtomicInteger(0);
         }
 
         @Override
-        public synchronized String toString() {
+        public String toString() {
             StringBuilder sb = new StringBuilder();
-            sb.append("\nRootDirs(sorted), size: ").append(rootProcessTasks.size());
-            for (ProcessTask task : rootProcessTasks) {
-                sb.append(task.toString()).append(" ");
-            }
-            sb.append("\nCurDirs(stack), size: ").append(curDirProcessTasks.size());
-            for (ProcessTask task : curDirProcessTasks) {
-                sb.append(task.toString()).append(" ");
-            }
-            sb.append("\nCurFiles, size: ").append(curFileProcessTasks.size());
-            for (ProcessTask task : curFileProcessTasks) {
-                sb.append(task.toString()).append(" ");
+            for (ImageQueue queue : imageQueues) {
+                sb.append(queue.toString());
             }
             return sb.toString();
         }
 
         float getPercentageDone() {
-            if (filesEnqueuedEst == 0) {
+            final int enqueuedEst = filesEnqueuedEst.get();
+            if (enqueuedEst == 0) {
                 return 0;
             }
 
-            return ((100.f) * filesDequeued) / filesEnqueuedEst;
+            return ((100.f) * filesDequeued.get()) / enqueuedEst;
 
         }
 
@@ -163,7 +186,7 @@ class IngestScheduler {
          *
          * @return approx. total num of files enqueued (or to be enqueued)
          */
-        private synchronized int queryNumFilesinEnqueuedImages() {
+        private int queryNumFilesinEnqueuedImages() {
             int totalFiles = 0;
             List<Image> images = getImages();
 
@@ -185,7 +208,7 @@ class IngestScheduler {
          * @return total number of files
          */
         int getFilesEnqueuedEst() {
-            return filesEnqueuedEst;
+            return filesEnqueuedEst.get();
         }
 
         /**
@@ -195,7 +218,7 @@ class IngestScheduler {
          * @return number of files dequeued so far
          */
         int getFilesDequeued() {
-            return filesDequeued;
+            return filesDequeued.get();
         }
 
         /**
@@ -205,9 +228,18 @@ class IngestScheduler {
 
             final AbstractFile file;
             final PipelineContext<IngestModuleAbstractFile> context;
+            //parent directory of the file, or null if not known
+            final AbstractFile parent;
+            //priority in the root queue, determined once when the task is scheduled
+            IngestFilePriorityPolicy.Priority priority = IngestFilePriorityPolicy.Priority.MEDIUM;
 
             public ProcessTask(AbstractFile file, PipelineContext<IngestModuleAbstractFile> context) {
+                this(file, null, context);
+            }
+
+            ProcessTask(AbstractFile file, AbstractFile parent, PipelineContext<IngestModuleAbstractFile> context) {
                 this.file = file;
+                this.parent = parent;
                 this.context = context;
             }
 
@@ -256,13 +288,15 @@ class IngestScheduler {
             //constructor that converts from enqueued process task in dir stack
             //to enqueued processtask in file queue
             ProcessTask(ProcessTask orig, AbstractFile childFile) {
-                this.file = childFile;;
+                this.file = childFile;
+                this.parent = orig.file;
                 this.context = orig.context;
             }
 
             /**
              * Create 1 or more ProcessTasks for each root dir in the image from
-             * the context supplied
+             * the context supplied. The tasks are not filtered, caller should
+             * check them using shouldEnqueueTask()
              *
              * @param context the original ingest context
              * @return
@@ -270,7 +304,7 @@ class IngestScheduler {
             private static List<ProcessTask> createFromScheduledTask(PipelineContext<IngestModuleAbstractFile> context) {
                 ScheduledImageTask<IngestModuleAbstractFile> scheduledTask = context.getScheduledTask();
                 Collection<AbstractFile> rootObjects = scheduledTask.getImage().accept(new GetRootDirVisitor());
-                List<AbstractFile> firstLevelFiles = new ArrayList<AbstractFile>();
+                List<ProcessTask> processTasks = new ArrayList<ProcessTask>();
                 for (AbstractFile root : rootObjects) {
                     //TODO use more specific get AbstractFile children method
                     List<Content> children;
@@ -278,12 +312,12 @@ class IngestScheduler {
                         children = root.getChildren();
                         if (children.isEmpty()) {
                             //add the root itself, could be unalloc file, child of volume or image
-                            firstLevelFiles.add(root);
+                            processTasks.add(new ProcessTask(root, context));
                         } else {
                             //root for fs root dir, schedule children dirs/files
                             for (Content child : children) {
                                 if (child instanceof AbstractFile) {
-                                    firstLevelFiles.add((AbstractFile) child);
+                                    processTasks.add(new ProcessTask((AbstractFile) child, root, context));
                                 }
                             }
                         }
@@ -294,54 +328,172 @@ class IngestScheduler {
 
                 }
 
-                List<ProcessTask> processTasks = new ArrayList<ProcessTask>();
-                for (AbstractFile firstLevelFile : firstLevelFiles) {
-                    ProcessTask newTask = new ProcessTask(firstLevelFile, context);
-                    if (shouldEnqueueTask(newTask)) {
-                        processTasks.add(newTask);
-                    }
-                }
                 return processTasks;
             }
         }
 
         /**
-         * Remove duplicated tasks from previous ingest enqueue currently it
-         * removes all previous tasks scheduled in queues for this image
-         *
-         * @param task tasks similar to this one should be removed
+         * Queues of tasks of a single image. All queues are concurrent, the
+         * owner worker takes tasks from the end, workers stealing from the
+         * image take tasks from the beginning.
          */
-        private void removeDupTasks(ScheduledImageTask task) {
-            final Image image = task.getImage();
+        private class ImageQueue {
+
+            private final Image image;
+            //root folders enqueued
+            private final ConcurrentSkipListSet<ProcessTask> rootProcessTasks;
+            //stack of current dirs to be processed recursively
+            private final ConcurrentLinkedDeque<ProcessTask> curDirProcessTasks;
+            //list of files being processed in the currently processed directories
+            private final ConcurrentLinkedDeque<ProcessTask> curFileProcessTasks;
+
+            ImageQueue(Image image, Collection<ProcessTask> rootTasks) {
+                this.image = image;
+                rootProcessTasks = new ConcurrentSkipListSet<ProcessTask>(new RootTaskComparator());
+                rootProcessTasks.addAll(rootTasks);
+                curDirProcessTasks = new ConcurrentLinkedDeque<ProcessTask>();
+                curFileProcessTasks = new ConcurrentLinkedDeque<ProcessTask>();
+            }
 
-            //remove from root queue
-            List<ProcessTask> toRemove = new ArrayList<ProcessTask>();
-            for (ProcessTask pt : rootProcessTasks) {
-                if (pt.context.getScheduledTask().getImage().equals(image)) {
-                    toRemove.add(pt);
-                }
+            Image getImage() {
+                return image;
+            }
+
+            boolean isEmpty() {
+                return curFileProcessTasks.isEmpty()
+                        && curDirProcessTasks.isEmpty()
+                        && rootProcessTasks.isEmpty();
             }
-            rootProcessTasks.removeAll(toRemove);
 
-            //remove from dir stack
-            toRemove = new ArrayList<ProcessTask>();
-            for (ProcessTask pt : curDirProcessTasks) {
-                if (pt.context.getScheduledTask().getImage().equals(image)) {
-                    toRemove.add(pt);
+            /**
+             * Get next file task of the image, expanding directories if there
+             * are no files ready to be processed
+             *
+             * @param owner true if called by the worker owning the image,
+             * false if called by a worker stealing work
+             * @return next task or null if the image has no more work
+             */
+            ProcessTask poll(boolean owner) {
+                ProcessTask task = owner ? curFileProcessTasks.pollLast() : curFileProcessTasks.pollFirst();
+                while (task == null) {
+                    //no file ready, expand next directory
+                    //counted before dequeuing, so that the image never looks done while the task is in hand
+                    dirsBeingExpanded.incrementAndGet();
+                    dirDequeuesStarted.incrementAndGet();
+                    ProcessTask dirTask = owner ? curDirProcessTasks.pollLast() : curDirProcessTasks.pollFirst();
+                    if (dirTask == null) {
+                        //grab from root dir sorted queue
+                        dirTask = rootProcessTasks.pollFirst();
+                    }
+                    if (dirTask == null) {
+                        dirsBeingExpanded.decrementAndGet();
+                        //nothing left to expand, files could have been added concurrently
+                        return owner ? curFileProcessTasks.pollLast() : curFileProcessTasks.pollFirst();
+                    }
+
+                    expandDir(dirTask);
+                    task = owner ? curFileProcessTasks.pollLast() : curFileProcessTasks.pollFirst();
                 }
+                return task;
             }
-            curDirProcessTasks.removeAll(toRemove);
 
-            //remove from file queue
-            toRemove = new ArrayList<ProcessTask>();
-            for (ProcessTask pt : curFileProcessTasks) {
-                if (pt.context.getScheduledTask().getImage().equals(image)) {
-                    toRemove.add(pt);
+            /**
+             * Add the dequeued directory task and its leaf children onto the
+             * file queue and push its directory children onto the dir stack.
+             * The calling worker exclusively owns the dequeued directory task,
+             * and has counted it in dirsBeingExpanded, the count is released
+             * here.
+             *
+             * @param parentTask directory task to expand
+             */
+            private void expandDir(ProcessTask parentTask) {
+                try {
+                    final AbstractFile parentFile = parentTask.file;
+                    //add popped to file list
+                    if (shouldEnqueueTask(parentTask)) {
+                        curFileProcessTasks.addLast(parentTask);
+                    }
+                    try {
+                        //get children, and if leafs, schedule to file queue
+                        //otherwise push to curDir stack
+
+                        //use children loaded ahead by the prefetcher, if available
+                        List<? extends Content> children = prefetcher.takeChildren(parentFile);
+                        if (children == null) {
+                            //TODO use the new more specific method to get list of AbstractFile
+                            children = parentFile.getChildren();
+                        }
+                        for (Content c : children) {
+                            if (c instanceof AbstractFile) {
+                                AbstractFile childFile = (AbstractFile) c;
+                                ProcessTask childTask = new ProcessTask(parentTask, childFile);
+
+                                if (childFile.isDir()) {
+                                    fsMetadataCache.addChildDir(parentFile, childFile);
+                                    curDirProcessTasks.addLast(childTask);
+                                } else {
+                                    if (shouldEnqueueTask(childTask)) {
+                                        curFileProcessTasks.addLast(childTask);
+                                    }
+                                }
+
+                            }
+                        }
+                    } catch (TskCoreException ex) {
+                        logger.log(Level.SEVERE, "Could not get children of file and update file queues: "
+                                + parentFile.getName(), ex);
+                    }
+                } finally {
+                    dirsBeingExpanded.decrementAndGet();
                 }
             }
-            curFileProcessTasks.removeAll(toRemove);
 
+            /**
+             * Get all tasks currently enqueued for the image
+             *
+             * @return tasks from root, dir and file queues
+             */
+            List<ProcessTask> getTasks() {
+                List<ProcessTask> tasks = new ArrayList<ProcessTask>();
+                tasks.addAll(rootProcessTasks);
+                tasks.addAll(curDirProcessTasks);
+                tasks.addAll(curFileProcessTasks);
+                return tasks;
+            }
 
+            @Override
+            public String toString() {
+                StringBuilder sb = new StringBuilder();
+                sb.append("\nImage: ").append(image.getName());
+                sb.append("\nRootDirs(sorted), size: ").append(rootProcessTasks.size());
+                for (ProcessTask task : rootProcessTasks) {
+                    sb.append(task.toString()).append(" ");
+                }
+                sb.append("\nCurDirs(stack), size: ").append(curDirProcessTasks.size());
+                for (ProcessTask task : curDirProcessTasks) {
+                    sb.append(task.toString()).append(" ");
+                }
+                sb.append("\nCurFiles, size: ").append(curFileProcessTasks.size());
+                for (ProcessTask task : curFileProcessTasks) {
+                    sb.append(task.toString()).append(" ");
+                }
+                return sb.toString();
+            }
+        }
+
+        /**
+         * Get the queue of the image, or null if image is not enqueued
+         *
+         * @param image image to get the queue for
+         * @return the image queue or null
+         */
+        private ImageQueue getImageQueue(Image image) {
+            for (ImageQueue queue : imageQueues) {
+                if (queue.getImage().equals(image)) {
+                    return queue;
+                }
+            }
+            return null;
         }
 
         /**
@@ -356,7 +508,7 @@ class IngestScheduler {
          * @param originalContext original image schedule context that was used to
          * schedule the parent origin file, with the modules, settings, etc.
          */
-        synchronized void schedule(AbstractFile file, PipelineContext originalContext) {
+        void schedule(AbstractFile file, PipelineContext originalContext) {
             ScheduledImageTask originalTask = originalContext.getScheduledTask();
             
             //skip if task contains no modules
@@ -366,8 +518,17 @@ class IngestScheduler {
 
             ProcessTask fileTask = new ProcessTask(file, originalContext);
             if (shouldEnqueueTask(fileTask)) {
-                this.curFileProcessTasks.addFirst(fileTask);
-                ++filesEnqueuedEst;
+                final Image image = originalTask.getImage();
+                synchronized (imageQueuesLock) {
+                    ImageQueue queue = getImageQueue(image);
+                    if (queue == null) {
+                        //image queue already consumed and removed
+                        queue = new ImageQueue(image, new ArrayList<ProcessTask>());
+                        addImageQueue(queue);
+                    }
+                    queue.curFileProcessTasks.addFirst(fileTask);
+                }
+                filesEnqueuedEst.incrementAndGet();
             }
 
 
@@ -378,7 +539,7 @@ class IngestScheduler {
          *
          * @param task image schedule task with image and associated modules
          */
-        synchronized void schedule(PipelineContext<IngestModuleAbstractFile> context) {
+        void schedule(PipelineContext<IngestModuleAbstractFile> context) {
             
             final ScheduledImageTask task = context.getScheduledTask();
             
@@ -387,187 +548,501 @@ class IngestScheduler {
                 return;
             }
 
-            if (getImages().contains(task.getImage())) {
+            final Image image = task.getImage();
+            if (getImages().contains(image)) {
                 //reset counters if the same image enqueued twice
                 //Note, not very accurate, because we may have processed some files from 
                 //another image
-                this.filesDequeued = 0;
+                this.filesDequeued.set(0);
             }
 
-            //remove duplicate scheduled tasks for this image if enqueued previously
-            removeDupTasks(task);
+            //enumerate and prioritize root tasks before replacing the queue, without blocking consumers
+            final IngestFilePriorityPolicy priorityPolicy = IngestFilePriorityConfig.getActivePolicy();
+            List<ProcessTask> rootTasks = new ArrayList<ProcessTask>();
+            for (ProcessTask rootTask : ProcessTask.createFromScheduledTask(context)) {
+                if (shouldEnqueueTask(rootTask)) {
+                    rootTask.priority = priorityPolicy.getPriority(rootTask.file);
+                    rootTasks.add(rootTask);
+                }
+            }
 
-            List<ProcessTask> rootTasks = ProcessTask.createFromScheduledTask(context);
+            //replace queue of the image, removing tasks from previous ingest enqueue of the image
+            synchronized (imageQueuesLock) {
+                removeImageQueue(image);
+                addImageQueue(new ImageQueue(image, rootTasks));
+            }
 
-            //adds and resorts the tasks
-            this.rootProcessTasks.addAll(rootTasks);
+            filesEnqueuedEst.set(queryNumFilesinEnqueuedImages());
 
-            this.filesEnqueuedEst = queryNumFilesinEnqueuedImages();
+            prefetcher.start();
 
-            //update the dir and file level queues if needed
-            updateQueues();
+        }
+
+        //must be called holding imageQueuesLock
+        private void addImageQueue(ImageQueue queue) {
+            final ImageQueue[] curQueues = imageQueues;
+            final ImageQueue[] newQueues = Arrays.copyOf(curQueues, curQueues.length + 1);
+            newQueues[curQueues.length] = queue;
+            imageQueues = newQueues;
+        }
 
+        //must be called holding imageQueuesLock
+        private void removeImageQueue(Image image) {
+            final List<ImageQueue> newQueues = new ArrayList<ImageQueue>();
+            for (ImageQueue queue : imageQueues) {
+                if (!queue.getImage().equals(image)) {
+                    newQueues.add(queue);
+                }
+            }
+            imageQueues = newQueues.toArray(new ImageQueue[newQueues.size()]);
         }
 
+        /**
+         * Check if there are any files enqueued, or directories being expanded
+         * that can result in more files enqueued. Does not block consumers.
+         *
+         * @return true if more files are or can be enqueued
+         */
         @Override
-        public synchronized boolean hasNext() {
-            boolean hasNext = !this.curFileProcessTasks.isEmpty();
+        public boolean hasNext() {
+            final boolean hasNext = !isIdle();
 
             if (!hasNext) {
                 //reset counters
-                filesDequeued = 0;
-                filesEnqueuedEst = 0;
+                filesDequeued.set(0);
+                filesEnqueuedEst.set(0);
             }
 
             return hasNext;
         }
 
+        /**
+         * Check that nothing is enqueued and no directory is being expanded.
+         * A consumer dequeuing a directory counts it as being expanded before
+         * removing it from the queues, and enqueues its children before
+         * releasing the count, so the image is idle only if the count is 0 and
+         * no dequeue started while the queues were checked.
+         *
+         * @return true if no more files can be enqueued by the consumers
+         */
+        private boolean isIdle() {
+            final long dequeuesStarted = dirDequeuesStarted.get();
+            if (dirsBeingExpanded.get() > 0) {
+                return false;
+            }
+            for (ImageQueue queue : imageQueues) {
+                if (!queue.isEmpty()) {
+                    return false;
+                }
+            }
+            return dirDequeuesStarted.get() == dequeuesStarted;
+        }
+
+        /**
+         * Get next file task. With multiple consumers, prefer poll(), because
+         * another consumer can take the last task between hasNext() and next()
+         *
+         * @return next file task
+         * @throws IllegalStateException if there is no task currently available
+         */
         @Override
-        public synchronized ProcessTask next() {
-            if (!hasNext()) {
+        public ProcessTask next() {
+            final ProcessTask task = poll();
+            if (task == null) {
                 throw new IllegalStateException("No next ProcessTask, check hasNext() first!");
             }
+            return task;
+        }
 
-            //dequeue the last in the list
-            final ProcessTask task = curFileProcessTasks.pollLast();
+        /**
+         * Get next file task for the calling consumer thread, without
+         * blocking. Tasks of the home image of the consumer are preferred, if
+         * there are none, work is stolen from the other images.
+         *
+         * @return next file task, or null if none is currently available
+         */
+        ProcessTask poll() {
+            final ImageQueue[] queues = imageQueues;
+            final int numQueues = queues.length;
+            if (numQueues == 0) {
+                return null;
+            }
+            final int home = homeIndex.get() % numQueues;
+            for (int i = 0; i < numQueues; ++i) {
+                final ProcessTask task = queues[(home + i) % numQueues].poll(i == 0);
+                if (task != null) {
+                    filesDequeued.incrementAndGet();
+                    return task;
+                }
+            }
+            return null;
+        }
 
-            //continue shifting to file queue until not empty
-            while (curFileProcessTasks.isEmpty()
-                    && !(this.rootProcessTasks.isEmpty() && this.curDirProcessTasks.isEmpty())) {
-                updateQueues();
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Not supported.");
+        }
+
+        /**
+         * Return list of images associated with the file/dir objects in the
+         * queue scheduler to be processed Helpful to determine whether ingest
+         * for particular image is active
+         *
+         * @return list of images for files currently enqueued
+         */
+        List<Image> getImages() {
+            List<Image> images = new ArrayList<Image>();
+            for (ImageQueue queue : imageQueues) {
+                if (!queue.isEmpty()) {
+                    images.add(queue.getImage());
+                }
+            }
+            return images;
+        }
+
+        boolean hasModuleEnqueued(IngestModuleAbstractFile module) {
+            for (ImageQueue queue : imageQueues) {
+                for (ProcessTask task : queue.getTasks()) {
+                    for (IngestModuleAbstractFile m : task.context.getScheduledTask().getModules()) {
+                        if (m.getName().equals(module.getName())) {
+                            return true;
+                        }
+                    }
+                }
             }
 
-            ++filesDequeued;
+            return false;
+        }
 
-            return task;
+        void empty() {
+            synchronized (imageQueuesLock) {
+                imageQueues = new ImageQueue[0];
+            }
+            prefetcher.clear();
+            fsMetadataCache.clear();
+        }
 
+        /**
+         * Discard the file system info cached during the previous ingest and
+         * reset the lookups saved counter. Call when a new file ingest starts.
+         */
+        void resetFsMetadataCache() {
+            fsMetadataCache.clear();
         }
 
-        private synchronized void updateQueues() {
-            //if file queue is empty, grab the next one from the dir stack
-            //if dir stack is empty, grab one from root dir queue first
-            //when pop from dir stack, get children of popped, and push them back onto stack
+        /**
+         * Get number of database lookups avoided by the file system info cache
+         * when checking files to enqueue, since the cache has been reset
+         *
+         * @return number of lookups saved
+         */
+        long getFsLookupsSaved() {
+            return fsMetadataCache.getLookupsSaved();
+        }
 
-            if (!this.curFileProcessTasks.isEmpty()) {
-                return;
+        /**
+         * Cache of file system info of directories, used to check if files
+         * should be enqueued without querying the database for every file.
+         *
+         * File system type is cached by fs_obj_id, file system of a directory
+         * is cached by the directory obj id, and ids of file system root
+         * directories are kept. File system of a child directory is inherited
+         * from its parent when the parent is expanded, so only the first
+         * directory checked in a file system requires queries.
+         */
+        private static class FsMetadataCache {
+
+            private final ConcurrentHashMap<Long, TskData.TSK_FS_TYPE_ENUM> fsTypes = new ConcurrentHashMap<Long, TskData.TSK_FS_TYPE_ENUM>();
+            private final ConcurrentHashMap<Long, Long> dirFsIds = new ConcurrentHashMap<Long, Long>();
+            private final Set<Long> rootDirIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+            private final AtomicLong lookupsSaved = new AtomicLong(0);
+
+            void clear() {
+                fsTypes.clear();
+                dirFsIds.clear();
+                rootDirIds.clear();
+                lookupsSaved.set(0);
             }
 
-            //no file queue tasks
-            //grab from dir stack, if available
-            if (this.curDirProcessTasks.isEmpty()) {
-                //grab from root dir sorted queue
-                if (!rootProcessTasks.isEmpty()) {
-                    ProcessTask rootTask = this.rootProcessTasks.pollFirst();
-                    curDirProcessTasks.add(rootTask);
+            long getLookupsSaved() {
+                return lookupsSaved.get();
+            }
+
+            void addLookupsSaved(int lookups) {
+                lookupsSaved.addAndGet(lookups);
+            }
+
+            /**
+             * Record that the child dir is in the same file system as the
+             * parent, if file system of the parent is known
+             *
+             * @param parentDir parent directory
+             * @param childDir child directory of the parent
+             */
+            void addChildDir(AbstractFile parentDir, AbstractFile childDir) {
+                final Long fsId = dirFsIds.get(parentDir.getId());
+                if (fsId != null) {
+                    dirFsIds.putIfAbsent(childDir.getId(), fsId);
                 }
             }
 
-            if (!this.curDirProcessTasks.isEmpty()) {
-                //pop and push AbstractFile directory children if any
-                //add the popped and its leaf children onto cur file list
-                ProcessTask parentTask = curDirProcessTasks.remove(curDirProcessTasks.size() - 1);
-                final AbstractFile parentFile = parentTask.file;
-                //add popped to file list
-                if (shouldEnqueueTask(parentTask)) {
-                    this.curFileProcessTasks.addLast(parentTask);
+            /**
+             * Get type of the file system the directory is in, querying and
+             * caching it if not known yet
+             *
+             * @param dir directory to get the file system type for
+             * @return the file system type, or null if could not be determined
+             */
+            TskData.TSK_FS_TYPE_ENUM getFsType(AbstractFile dir) {
+                final Long fsId = dirFsIds.get(dir.getId());
+                if (fsId != null) {
+                    return fsTypes.get(fsId);
+                }
+                if (!(dir instanceof FsContent)) {
+                    return null;
                 }
-                try {
-                    //get children, and if leafs, schedule to file queue
-                    //otherwise push to curDir stack
-
-                    //TODO use the new more specific method to get list of AbstractFile
-                    List<Content> children = parentFile.getChildren();
-                    for (Content c : children) {
-                        if (c instanceof AbstractFile) {
-                            AbstractFile childFile = (AbstractFile) c;
-                            ProcessTask childTask = new ProcessTask(parentTask, childFile);
-
-                            if (childFile.isDir()) {
-                                this.curDirProcessTasks.add(childTask);
-                            } else {
-                                if (shouldEnqueueTask(childTask)) {
-                                    this.curFileProcessTasks.addLast(childTask);
-                                }
-                            }
 
-                        }
+                try {
+                    final FileSystem fs = ((FsContent) dir).getFileSystem();
+                    if (dir.isRoot()) {
+                        rootDirIds.add(dir.getId());
                     }
+                    fsTypes.putIfAbsent(fs.getId(), fs.getFsType());
+                    dirFsIds.putIfAbsent(dir.getId(), fs.getId());
+                    return fs.getFsType();
                 } catch (TskCoreException ex) {
-                    logger.log(Level.SEVERE, "Could not get children of file and update file queues: "
-                            + parentFile.getName(), ex);
+                    logger.log(Level.WARNING, "Could not get FileSystem for dir " + dir.getName(), ex);
+                    return null;
                 }
-
             }
 
-            //logger.info("\nAAA ROOTS " + this.rootProcessTasks);
-            //logger.info("\nAAA STACK " + this.curDirProcessTasks);
-            //logger.info("\nAAA CURFILES " + this.curFileProcessTasks);
-        }
-
-        @Override
-        public void remove() {
-            throw new UnsupportedOperationException("Not supported.");
+            /**
+             * Check if the directory is a root directory of a file system. Only
+             * valid for directories for which getFsType() has been called.
+             *
+             * @param dir directory to check
+             * @return true if root dir of the file system
+             */
+            boolean isRootDir(AbstractFile dir) {
+                return rootDirIds.contains(dir.getId());
+            }
         }
 
         /**
-         * Return list of images associated with the file/dir objects in the
-         * queue scheduler to be processed Helpful to determine whether ingest
-         * for particular image is active
+         * Background stage that walks ahead of the consumers through the
+         * directory stacks and root queues of the enqueued images, and loads
+         * children of the next directories to be expanded in batched queries.
+         * The children are kept in a bounded buffer, so that a consumer
+         * expanding a directory does not need to wait for the database.
          *
-         * @return list of images for files currently enqueued
+         * Only file system directories are prefetched, children of other
+         * content are queried by the consumer when expanded.
          */
-        synchronized List<Image> getImages() {
-            Set<Image> imageSet = new HashSet<Image>();
+        private class DirChildrenPrefetcher implements Runnable {
+
+            //number of directories to load children for in a single batch
+            private static final int BATCH_DIRS = 32;
+            //max. number of prefetched children kept in the buffer
+            private static final int MAX_BUFFERED_CHILDREN = 20000;
+            //how long to idle when there is nothing to prefetch or buffer is full
+            private static final long IDLE_WAIT_MS = 50;
+            //marks a directory whose children are being loaded
+            private final List<AbstractFile> PENDING = new ArrayList<AbstractFile>();
+            //children loaded ahead, by directory obj id
+            private final ConcurrentHashMap<Long, List<AbstractFile>> prefetched = new ConcurrentHashMap<Long, List<AbstractFile>>();
+            //directories taken by consumers while a batch is collected and loaded, the batch drops their children
+            private final Set<Long> takenDuringBatch = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+            private volatile boolean batchInProgress = false;
+            private final AtomicInteger numBufferedChildren = new AtomicInteger(0);
+            private volatile Thread prefetchThread;
 
-            try {
-                for (ProcessTask task : rootProcessTasks) {
-                    imageSet.add(task.file.getImage());
+            /**
+             * Start the prefetcher thread, if not already running. The thread
+             * terminates when all images have been consumed.
+             */
+            synchronized void start() {
+                if (prefetchThread == null) {
+                    prefetchThread = new Thread(this, "Ingest directory prefetcher");
+                    prefetchThread.setDaemon(true);
+                    prefetchThread.start();
                 }
-                for (ProcessTask task : curDirProcessTasks) {
-                    imageSet.add(task.file.getImage());
+            }
+
+            /**
+             * Discard all prefetched children
+             */
+            void clear() {
+                prefetched.clear();
+                numBufferedChildren.set(0);
+            }
+
+            /**
+             * Take children of the directory prefetched, if available, and
+             * remove the directory from the buffer. Call after the directory
+             * task has been removed from the queues.
+             *
+             * @param dir directory to get children for
+             * @return the children, or null if they have not been prefetched
+             */
+            List<AbstractFile> takeChildren(AbstractFile dir) {
+                if (!(dir instanceof Directory)) {
+                    //never prefetched
+                    return null;
                 }
-                for (ProcessTask task : curFileProcessTasks) {
-                    imageSet.add(task.file.getImage());
+                final List<AbstractFile> children = prefetched.remove(dir.getId());
+                if (batchInProgress) {
+                    //the batch may have seen the task before it was removed, and store the children after this
+                    takenDuringBatch.add(dir.getId());
+                }
+                if (children == null || children == PENDING) {
+                    return null;
                 }
-            } catch (TskCoreException e) {
-                logger.log(Level.SEVERE, "Could not  get images for files scheduled for ingest", e);
+                numBufferedChildren.addAndGet(-children.size());
+                LockSupport.unpark(prefetchThread);
+                return children;
             }
 
-            return new ArrayList<Image>(imageSet);
-        }
-
-        synchronized boolean hasModuleEnqueued(IngestModuleAbstractFile module) {
-            for (ProcessTask task : rootProcessTasks) {
-                for (IngestModuleAbstractFile m : task.context.getScheduledTask().getModules()) {
-                    if (m.getName().equals(module.getName())) {
-                        return true;
+            @Override
+            public void run() {
+                while (true) {
+                    synchronized (this) {
+                        if (isIdle()) {
+                            prefetchThread = null;
+                            return;
+                        }
+                    }
+                    try {
+                        if (numBufferedChildren.get() >= MAX_BUFFERED_CHILDREN
+                                || prefetchBatch() == false) {
+                            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT_MS));
+                        }
+                    } catch (Exception e) {
+                        logger.log(Level.WARNING, "Error prefetching children of directories to ingest", e);
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT_MS));
                     }
                 }
             }
 
-            for (ProcessTask task : curDirProcessTasks) {
-                for (IngestModuleAbstractFile m : task.context.getScheduledTask().getModules()) {
-                    if (m.getName().equals(module.getName())) {
-                        return true;
+            /**
+             * Load children for the next batch of directories the consumers
+             * will expand
+             *
+             * @return true if a batch was loaded, false if nothing to prefetch
+             */
+            private boolean prefetchBatch() {
+                //directories taken before this are out of the queues, the batch cannot see them
+                takenDuringBatch.clear();
+                batchInProgress = true;
+                try {
+                    return collectAndLoadBatch();
+                } finally {
+                    batchInProgress = false;
+                    takenDuringBatch.clear();
+                }
+            }
+
+            private boolean collectAndLoadBatch() {
+                final List<Long> batch = new ArrayList<Long>();
+                for (ImageQueue queue : imageQueues) {
+                    if (queue.isEmpty()) {
+                        continue;
+                    }
+                    //owner pops the stack from the end, roots are next
+                    collectDirs(queue.curDirProcessTasks.descendingIterator(), batch);
+                    collectDirs(queue.rootProcessTasks.iterator(), batch);
+                    if (batch.size() >= BATCH_DIRS) {
+                        break;
+                    }
+                }
+                if (batch.isEmpty()) {
+                    return false;
+                }
+
+                Map<Long, List<AbstractFile>> children;
+                try {
+                    children = loadChildren(batch);
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Could not prefetch children of directories: " + batch, e);
+                    children = new HashMap<Long, List<AbstractFile>>();
+                }
+                for (Long dirId : batch) {
+                    final List<AbstractFile> dirChildren = children.get(dirId);
+                    if (dirChildren == null || takenDuringBatch.contains(dirId)) {
+                        //consumer will get the children itself, or already did
+                        prefetched.remove(dirId, PENDING);
+                    } else if (prefetched.replace(dirId, PENDING, dirChildren)) {
+                        numBufferedChildren.addAndGet(dirChildren.size());
                     }
                 }
+                return true;
             }
 
-            for (ProcessTask task : curFileProcessTasks) {
-                for (IngestModuleAbstractFile m : task.context.getScheduledTask().getModules()) {
-                    if (m.getName().equals(module.getName())) {
-                        return true;
+            /**
+             * Add file system directories from the tasks to the batch, and
+             * mark them pending
+             */
+            private void collectDirs(Iterator<ProcessTask> tasks, List<Long> batch) {
+                while (tasks.hasNext() && batch.size() < BATCH_DIRS) {
+                    final AbstractFile file = tasks.next().file;
+                    if (file instanceof Directory
+                            && prefetched.putIfAbsent(file.getId(), PENDING) == null) {
+                        batch.add(file.getId());
                     }
                 }
             }
 
-            return false;
-        }
+            /**
+             * Load children of the directories using 2 queries for the whole
+             * batch, one for the parent ids and one for the file objects.
+             *
+             * @param dirIds directories to load children for
+             * @return map of directory id to its children, does not contain
+             * directories with children that could not be all loaded
+             */
+            private Map<Long, List<AbstractFile>> loadChildren(List<Long> dirIds) throws SQLException, TskCoreException {
+                final SleuthkitCase sc = Case.getCurrentCase().getSleuthkitCase();
 
-        synchronized void empty() {
-            this.rootProcessTasks.clear();
-            this.curDirProcessTasks.clear();
-            this.curFileProcessTasks.clear();
+                StringBuilder idsB = new StringBuilder();
+                for (Long dirId : dirIds) {
+                    if (idsB.length() > 0) {
+                        idsB.append(',');
+                    }
+                    idsB.append(dirId);
+                }
+                final String ids = idsB.toString();
+
+                //child id -> parent id
+                final Map<Long, Long> parents = new HashMap<Long, Long>();
+                ResultSet rs = null;
+                try {
+                    rs = sc.runQuery("SELECT obj_id, par_obj_id FROM tsk_objects WHERE par_obj_id IN (" + ids + ")");
+                    while (rs.next()) {
+                        parents.put(rs.getLong("obj_id"), rs.getLong("par_obj_id"));
+                    }
+                } finally {
+                    if (rs != null) {
+                        sc.closeRunQuery(rs);
+                    }
+                }
+
+                final Map<Long, List<AbstractFile>> children = new HashMap<Long, List<AbstractFile>>();
+                for (Long dirId : dirIds) {
+                    children.put(dirId, new ArrayList<AbstractFile>());
+                }
+                final List<FsContent> fsChildren = sc.findFilesWhere("obj_id IN (SELECT obj_id FROM tsk_objects WHERE par_obj_id IN (" + ids + "))");
+                for (FsContent child : fsChildren) {
+                    final Long parentId = parents.remove(child.getId());
+                    if (parentId != null) {
+                        children.get(parentId).add(child);
+                    }
+                }
+
+                //children that are not fs content, let the consumer query the whole dir
+                for (Long parentId : parents.values()) {
+                    children.remove(parentId);
+                }
+                return children;
+            }
         }
 
         /**
@@ -578,7 +1053,7 @@ class IngestScheduler {
          * of skipped
          * @return true if should be enqueued, false otherwise
          */
-        private static boolean shouldEnqueueTask(ProcessTask processTask) {
+        private boolean shouldEnqueueTask(ProcessTask processTask) {
             final AbstractFile aFile = processTask.file;
 
             //if it's unalloc file, skip if so scheduled
@@ -598,27 +1073,46 @@ class IngestScheduler {
 
                 //skip files in root dir, starting with $, containing : (not default attributes)
                 //with meta address < 32, i.e. some special large NTFS and FAT files
-                FileSystem fs = null;
-                try {
-                    fs = f.getFileSystem();
-                } catch (TskCoreException ex) {
-                    logger.log(Level.SEVERE, "Could not get FileSystem for " + f, ex);
+                
+                //use the cached info of the parent dir if the parent is known
+                TskData.TSK_FS_TYPE_ENUM parentFsType = null;
+                if (processTask.parent != null) {
+                    parentFsType = fsMetadataCache.getFsType(processTask.parent);
                 }
+
                 TskData.TSK_FS_TYPE_ENUM fsType = TskData.TSK_FS_TYPE_ENUM.TSK_FS_TYPE_UNSUPP;
-                if (fs != null) {
-                    fsType = fs.getFsType();
+                if (parentFsType != null) {
+                    fsType = parentFsType;
+                } else {
+                    FileSystem fs = null;
+                    try {
+                        fs = f.getFileSystem();
+                    } catch (TskCoreException ex) {
+                        logger.log(Level.SEVERE, "Could not get FileSystem for " + f, ex);
+                    }
+                    if (fs != null) {
+                        fsType = fs.getFsType();
+                    }
                 }
 
                 if ((fsType.getValue() & FAT_NTFS_FLAGS) == 0) {
                     //not fat or ntfs, accept all files
+                    if (parentFsType != null) {
+                        fsMetadataCache.addLookupsSaved(1);
+                    }
                     return true;
                 }
 
                 boolean isInRootDir = false;
-                try {
-                    isInRootDir = f.getParentDirectory().isRoot();
-                } catch (TskCoreException ex) {
-                    logger.log(Level.WARNING, "Could not check if should enqueue the file: " + f.getName(), ex);
+                if (parentFsType != null) {
+                    isInRootDir = fsMetadataCache.isRootDir(processTask.parent);
+                    fsMetadataCache.addLookupsSaved(2);
+                } else {
+                    try {
+                        isInRootDir = f.getParentDirectory().isRoot();
+                    } catch (TskCoreException ex) {
+                        logger.log(Level.WARNING, "Could not check if should enqueue the file: " + f.getName(), ex);
+                    }
                 }
 
                 if (isInRootDir && f.getMetaAddr() < 32) {
@@ -640,14 +1134,14 @@ class IngestScheduler {
         }
 
         /**
-         * Root dir sorter
+         * Root dir sorter, by priority cached in the tasks by the scheduler
          */
         private static class RootTaskComparator implements Comparator<ProcessTask> {
 
             @Override
             public int compare(ProcessTask q1, ProcessTask q2) {
-                AbstractFilePriotity.Priority p1 = AbstractFilePriotity.getPriority(q1.file);
-                AbstractFilePriotity.Priority p2 = AbstractFilePriotity.getPriority(q2.file);
+                IngestFilePriorityPolicy.Priority p1 = q1.priority;
+                IngestFilePriorityPolicy.Priority p2 = q2.priority;
                 if (p1 == p2) {
                     return (int) (q2.file.getId() - q1.file.getId());
                 } else {
@@ -655,94 +1149,6 @@ class IngestScheduler {
                 }
 
             }
-
-            /**
-             * Priority determination for sorted AbstractFile, used by
-             * RootDirComparator
-             */
-            private static class AbstractFilePriotity {
-
-                enum Priority {
-
-                    LAST, LOW, MEDIUM, HIGH
-                };
-                static final List<Pattern> LAST_PRI_PATHS = new ArrayList<Pattern>();
-                static final List<Pattern> LOW_PRI_PATHS = new ArrayList<Pattern>();
-                static final List<Pattern> MEDIUM_PRI_PATHS = new ArrayList<Pattern>();
-                static final List<Pattern> HIGH_PRI_PATHS = new ArrayList<Pattern>();
-
-                /* prioritize root directory folders based on the assumption that we are
-                 * looking for user content. Other types of investigations may want different
-                 * priorities. */
-                static {
-                    // these files have no structure, so they go last
-                    //unalloc files are handled as virtual files in getPriority()
-                    //LAST_PRI_PATHS.schedule(Pattern.compile("^\\$Unalloc", Pattern.CASE_INSENSITIVE));
-                    //LAST_PRI_PATHS.schedule(Pattern.compile("^\\Unalloc", Pattern.CASE_INSENSITIVE));
-                    LAST_PRI_PATHS.add(Pattern.compile("^pagefile", Pattern.CASE_INSENSITIVE));
-                    LAST_PRI_PATHS.add(Pattern.compile("^hiberfil", Pattern.CASE_INSENSITIVE));
-
-                    // orphan files are often corrupt and windows does not typically have
-                    // user content, so put them towards the bottom
-                    LOW_PRI_PATHS.add(Pattern.compile("^\\$OrphanFiles", Pattern.CASE_INSENSITIVE));
-                    LOW_PRI_PATHS.add(Pattern.compile("^Windows", Pattern.CASE_INSENSITIVE));
-
-                    // all other files go into the medium category too
-                    MEDIUM_PRI_PATHS.add(Pattern.compile("^Program Files", Pattern.CASE_INSENSITIVE));
-
-                    // user content is top priority
-                    HIGH_PRI_PATHS.add(Pattern.compile("^Users", Pattern.CASE_INSENSITIVE));
-                    HIGH_PRI_PATHS.add(Pattern.compile("^Documents and Settings", Pattern.CASE_INSENSITIVE));
-                    HIGH_PRI_PATHS.add(Pattern.compile("^home", Pattern.CASE_INSENSITIVE));
-                    HIGH_PRI_PATHS.add(Pattern.compile("^ProgramData", Pattern.CASE_INSENSITIVE));
-                }
-
-                static AbstractFilePriotity.Priority getPriority(final AbstractFile abstractFile) {
-                    if (!abstractFile.getType().equals(TskData.TSK_DB_FILES_TYPE_ENUM.FS)) {
-                        //quickly filter out unstructured content
-                        //non-fs virtual files and dirs, such as representing unalloc space
-                        return AbstractFilePriotity.Priority.LAST;
-                    }
-
-                    //determine the fs files priority by name
-                    final String path = abstractFile.getName();
-
-                    if (path == null) {
-                        return AbstractFilePriotity.Priority.MEDIUM;
-                    }
-
-                    for (Pattern p : HIGH_PRI_PATHS) {
-                        Matcher m = p.matcher(path);
-                        if (m.find()) {
-                            return AbstractFilePriotity.Priority.HIGH;
-                        }
-                    }
-
-                    for (Pattern p : MEDIUM_PRI_PATHS) {
-                        Matcher m = p.matcher(path);
-                        if (m.find()) {
-                            return AbstractFilePriotity.Priority.MEDIUM;
-                        }
-                    }
-
-                    for (Pattern p : LOW_PRI_PATHS) {
-                        Matcher m = p.matcher(path);
-                        if (m.find()) {
-                            return AbstractFilePriotity.Priority.LOW;
-                        }
-                    }
-
-                    for (Pattern p : LAST_PRI_PATHS) {
-                        Matcher m = p.matcher(path);
-                        if (m.find()) {
-                            return AbstractFilePriotity.Priority.LAST;
-                        }
-                    }
-
-                    //default is medium
-                    return AbstractFilePriotity.Priority.MEDIUM;
-                }
-            }
         }
 
         /**
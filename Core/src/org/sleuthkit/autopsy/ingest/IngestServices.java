@@ -168,6 +168,16 @@ public class IngestServices {
     public IngestModuleAbstractFile.ProcessResult getAbstractFileModuleResult(String moduleName) {
         return manager.getAbstractFileModuleResult(moduleName);
     }
+
+    /**
+     * Get the number of file ingest worker threads, that can call process()
+     * of the file ingest modules concurrently
+     *
+     * @return number of file ingest worker threads
+     */
+    public int getNumFileIngestThreads() {
+        return manager.getNumFileIngestThreads();
+    }
     
     /**
      * Gets a configuration setting for a module
@@ -18,10 +18,15 @@
  */
 package org.sleuthkit.autopsy.ingest;
 
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.util.logging.Level;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.openide.modules.ModuleInstall;
 import org.openide.windows.WindowManager;
+import org.sleuthkit.autopsy.casemodule.Case;
 
 /**
  * Initializes ingest manager when the module is loaded
@@ -57,6 +62,33 @@ public class Installer extends ModuleInstall {
             }
         });
 
+        //offer to resume ingests that did not complete when the case was last open
+        Case.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                if (evt.getPropertyName().equals(Case.CASE_CURRENT_CASE) && evt.getNewValue() != null) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!Case.isCaseOpen() || !manager.hasResumableIngest()) {
+                                return;
+                            }
+                            final int choice = JOptionPane.showConfirmDialog(WindowManager.getDefault().getMainWindow(),
+                                    "Ingest of this case did not complete when it was last open.\n"
+                                    + "Resume the ingest? Files already processed will be skipped.",
+                                    "Resume Ingest", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+                            if (choice == JOptionPane.YES_OPTION) {
+                                manager.resumeIngest();
+                            } else {
+                                //do not offer it again on the next case open
+                                manager.discardResumableIngest();
+                            }
+                        }
+                    });
+                }
+            }
+        });
+
     }
 
     @Override
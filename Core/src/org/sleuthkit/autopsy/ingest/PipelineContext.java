@@ -19,6 +19,7 @@
 package org.sleuthkit.autopsy.ingest;
 
 import java.util.Objects;
+import org.sleuthkit.datamodel.AbstractFile;
 
 
 /**
@@ -52,6 +53,22 @@ public class PipelineContext <T extends IngestModuleAbstract> {
         return processUnalloc;
     }
 
+    /**
+     * Get the header and signature based type of the file, shared by all the
+     * file modules processing the file, so that the header is read only once.
+     *
+     * @param file file being processed by the module
+     * @return signature of the file
+     */
+    public FileSignature getFileSignature(AbstractFile file) {
+        final FileSignature signature = IngestManager.getDefault().getCurrentFileSignature();
+        if (signature != null && signature.getFile().getId() == file.getId()) {
+            return signature;
+        }
+        //not the file being processed by the pipeline, such as a file derived by the module
+        return new FileSignature(file);
+    }
+
     @Override
     public String toString() {
         return "pipelineContext{" + "task=" + task + ", processUnalloc=" + processUnalloc + '}';
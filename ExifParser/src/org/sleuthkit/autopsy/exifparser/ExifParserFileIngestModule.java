@@ -39,6 +39,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.logging.Level;
 import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.FileSignature;
 import org.sleuthkit.autopsy.ingest.PipelineContext;
 import org.sleuthkit.autopsy.ingest.IngestServices;
 import org.sleuthkit.autopsy.ingest.IngestMessage;
@@ -72,7 +73,6 @@ public final class ExifParserFileIngestModule implements IngestModuleAbstractFil
     private String args;
     
     private static final int readHeaderSize = 2;
-    private final byte[] fileHeaderBuffer = new byte[readHeaderSize];
     private static final char JPEG_SIGNATURE_BE = 0xFFD8;
     
     private static final Logger logger = Logger.getLogger(ExifParserFileIngestModule.class.getName());
@@ -104,7 +104,7 @@ public final class ExifParserFileIngestModule implements IngestModuleAbstractFil
         }
         
         //skip unsupported
-        if (! parsableFormat(content)) {
+        if (! parsableFormat(content, pipelineContext.getFileSignature(content))) {
             return IngestModuleAbstractFile.ProcessResult.OK;
         }
         
@@ -197,9 +197,10 @@ public final class ExifParserFileIngestModule implements IngestModuleAbstractFil
      * Checks if should try to attempt to extract exif.
      * Currently checks if JPEG image, first by extension, then by signature (if extension fails)
      * @param f file to be checked 
+     * @param signature signature of the file, shared with other modules
      * @return true if to be processed 
      */
-    private boolean parsableFormat(AbstractFile f) {
+    private boolean parsableFormat(AbstractFile f, FileSignature signature) {
         // Get the name, extension
         String name = f.getName();
         int dotIndex = name.lastIndexOf(".");
@@ -211,35 +212,26 @@ public final class ExifParserFileIngestModule implements IngestModuleAbstractFil
             return true;
         }
         
-        return isJpegFileHeader(f);
+        return isJpegFileHeader(signature);
         
     }
     
         /**
      * Check if is jpeg file based on header
-     * @param file
+     * @param signature signature of the file
      * @return true if jpeg file, false otherwise
      */
-    private boolean isJpegFileHeader(AbstractFile file) {
-        if (file.getSize() < readHeaderSize) {
+    private boolean isJpegFileHeader(FileSignature signature) {
+        //empty header if the first few bytes could not be read, not a JPEG
+        final byte[] header = signature.getHeader();
+        if (header.length < readHeaderSize) {
             return false;
         }
         
-        int bytesRead = 0;
-        try {
-            bytesRead = file.read(fileHeaderBuffer, 0, readHeaderSize);
-        } catch (TskCoreException ex) {
-            //ignore if can't read the first few bytes, not a JPEG
-            return false;
-        }
-        if (bytesRead != readHeaderSize) {
-            return false;
-        }
-        
-        ByteBuffer bytes = ByteBuffer.wrap(fileHeaderBuffer);
-        char signature = bytes.getChar();
+        ByteBuffer bytes = ByteBuffer.wrap(header, 0, readHeaderSize);
+        char fileSignature = bytes.getChar();
         
-        return signature == JPEG_SIGNATURE_BE;
+        return fileSignature == JPEG_SIGNATURE_BE;
         
     }
     
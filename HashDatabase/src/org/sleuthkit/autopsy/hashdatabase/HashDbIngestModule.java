@@ -19,19 +19,21 @@
 package org.sleuthkit.autopsy.hashdatabase;
 
 import java.io.IOException;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import org.openide.util.Exceptions;
 import org.sleuthkit.autopsy.casemodule.Case;
 import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.BlackboardWriter;
 import org.sleuthkit.autopsy.ingest.PipelineContext;
 import org.sleuthkit.autopsy.ingest.IngestMessage;
 import org.sleuthkit.autopsy.ingest.IngestModuleAbstractFile;
 import org.sleuthkit.autopsy.ingest.IngestModuleInit;
 import org.sleuthkit.autopsy.ingest.IngestServices;
-import org.sleuthkit.autopsy.ingest.ModuleDataEvent;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.BlackboardArtifact;
 import org.sleuthkit.datamodel.BlackboardArtifact.ARTIFACT_TYPE;
@@ -126,6 +128,9 @@ public class HashDbIngestModule implements IngestModuleAbstractFile {
 
     @Override
     public void complete() {
+        //write the hash set hits still queued
+        BlackboardWriter.getDefault().flush();
+
         if ((knownBadIsSet) || (nsrlIsSet)) {
             StringBuilder detailsSb = new StringBuilder();
             //details
@@ -171,6 +176,7 @@ public class HashDbIngestModule implements IngestModuleAbstractFile {
      */
     @Override
     public void stop() {
+        BlackboardWriter.getDefault().flush();
         clearHashDatabaseHandles();
     }
 
@@ -266,48 +272,55 @@ public class HashDbIngestModule implements IngestModuleAbstractFile {
         HashDbXML.getCurrent().save();
     }
 
-    private void processBadFile(AbstractFile abstractFile, String md5Hash, String hashSetName, boolean showInboxMessage) {
-        try {
-            BlackboardArtifact badFile = abstractFile.newArtifact(ARTIFACT_TYPE.TSK_HASHSET_HIT);
-            //TODO Revisit usage of deprecated constructor as per TSK-583
-            //BlackboardAttribute att2 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_SET_NAME.getTypeID(), MODULE_NAME, "Known Bad", hashSetName);
-            BlackboardAttribute att2 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_SET_NAME.getTypeID(), MODULE_NAME, hashSetName);
-            badFile.addAttribute(att2);
-            BlackboardAttribute att3 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_HASH_MD5.getTypeID(), MODULE_NAME, md5Hash);
-            badFile.addAttribute(att3);
-            if (showInboxMessage) {
-                StringBuilder detailsSb = new StringBuilder();
-                //details
-                detailsSb.append("<table border='0' cellpadding='4' width='280'>");
-                //hit
-                detailsSb.append("<tr>");
-                detailsSb.append("<th>File Name</th>");
-                detailsSb.append("<td>").append(abstractFile.getName()).append("</td>");
-                detailsSb.append("</tr>");
-
-                detailsSb.append("<tr>");
-                detailsSb.append("<th>MD5 Hash</th>");
-                detailsSb.append("<td>").append(md5Hash).append("</td>");
-                detailsSb.append("</tr>");
-
-                detailsSb.append("<tr>");
-                detailsSb.append("<th>Hashset Name</th>");
-                detailsSb.append("<td>").append(hashSetName).append("</td>");
-                detailsSb.append("</tr>");
-
-                detailsSb.append("</table>");
-
-                services.postMessage(IngestMessage.createDataMessage(++messageId, this,
-                        "Notable: " + abstractFile.getName(),
-                        detailsSb.toString(),
-                        abstractFile.getName() + md5Hash,
-                        badFile));
+    private void processBadFile(final AbstractFile abstractFile, final String md5Hash, final String hashSetName, final boolean showInboxMessage) {
+        final List<BlackboardAttribute> attributes = new ArrayList<BlackboardAttribute>();
+        //TODO Revisit usage of deprecated constructor as per TSK-583
+        //BlackboardAttribute att2 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_SET_NAME.getTypeID(), MODULE_NAME, "Known Bad", hashSetName);
+        attributes.add(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_SET_NAME.getTypeID(), MODULE_NAME, hashSetName));
+        attributes.add(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_HASH_MD5.getTypeID(), MODULE_NAME, md5Hash));
+
+        //written in batches, the writer fires the data events
+        BlackboardWriter.getDefault().addArtifact(MODULE_NAME, abstractFile, ARTIFACT_TYPE.TSK_HASHSET_HIT, attributes,
+                new BlackboardWriter.WriteListener() {
+            @Override
+            public void artifactWritten(BlackboardArtifact badFile, Collection<BlackboardAttribute> written) {
+                if (showInboxMessage) {
+                    postBadFileMessage(badFile, abstractFile, md5Hash, hashSetName);
+                }
             }
-            services.fireModuleDataEvent(new ModuleDataEvent(MODULE_NAME, ARTIFACT_TYPE.TSK_HASHSET_HIT, Collections.singletonList(badFile)));
-        } catch (TskException ex) {
-            logger.log(Level.WARNING, "Error creating blackboard artifact", ex);
-        }
+        });
+    }
 
+    /**
+     * Post the inbox message of a hash set hit, once its artifact is written
+     */
+    private void postBadFileMessage(BlackboardArtifact badFile, AbstractFile abstractFile, String md5Hash, String hashSetName) {
+        StringBuilder detailsSb = new StringBuilder();
+        //details
+        detailsSb.append("<table border='0' cellpadding='4' width='280'>");
+        //hit
+        detailsSb.append("<tr>");
+        detailsSb.append("<th>File Name</th>");
+        detailsSb.append("<td>").append(abstractFile.getName()).append("</td>");
+        detailsSb.append("</tr>");
+
+        detailsSb.append("<tr>");
+        detailsSb.append("<th>MD5 Hash</th>");
+        detailsSb.append("<td>").append(md5Hash).append("</td>");
+        detailsSb.append("</tr>");
+
+        detailsSb.append("<tr>");
+        detailsSb.append("<th>Hashset Name</th>");
+        detailsSb.append("<td>").append(hashSetName).append("</td>");
+        detailsSb.append("</tr>");
+
+        detailsSb.append("</table>");
+
+        services.postMessage(IngestMessage.createDataMessage(++messageId, this,
+                "Notable: " + abstractFile.getName(),
+                detailsSb.toString(),
+                abstractFile.getName() + md5Hash,
+                badFile));
     }
 
     private ProcessResult processFile(AbstractFile file) {
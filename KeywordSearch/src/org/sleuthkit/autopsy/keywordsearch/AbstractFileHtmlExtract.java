@@ -44,11 +44,12 @@ public class AbstractFileHtmlExtract implements AbstractFileExtract {
     static final int MAX_EXTR_TEXT_CHARS = 512 * 1024;
     private static final int SINGLE_READ_CHARS = 1024;
     private static final int EXTRA_CHARS = 128; //for whitespace
-    private static final char[] TEXT_CHUNK_BUF = new char[MAX_EXTR_TEXT_CHARS];
     private KeywordSearchIngestModule module;
     private Ingester ingester;
-    private AbstractFile sourceFile;
-    private int numChunks = 0;
+    //state of the file being indexed, per thread, so that files can be indexed in parallel
+    private final ThreadLocal<AbstractFile> sourceFile = new ThreadLocal<AbstractFile>();
+    private final ThreadLocal<Integer> numChunks = new ThreadLocal<Integer>();
+    private final ExtractBufferPool bufferPool = ExtractBufferPool.getDefault();
     //private static final String UTF16BOM = "\uFEFF"; disabled prepending of BOM
     static final List<String> WEB_MIME_TYPES = Arrays.asList(
             "application/javascript",
@@ -86,21 +87,23 @@ public class AbstractFileHtmlExtract implements AbstractFileExtract {
 
     @Override
     public int getNumChunks() {
-        return numChunks;
+        final Integer chunks = numChunks.get();
+        return chunks == null ? 0 : chunks;
     }
 
     @Override
     public AbstractFile getSourceFile() {
-        return sourceFile;
+        return sourceFile.get();
     }
 
     @Override
     public boolean index(AbstractFile sourceFile) throws IngesterException {
-        this.sourceFile = sourceFile;
-        this.numChunks = 0; //unknown until indexing is done
+        this.sourceFile.set(sourceFile);
+        this.numChunks.set(0); //unknown until indexing is done
 
         boolean success = false;
         Reader reader = null;
+        char[] textChunkBuf = null;
 
         final InputStream stream = new ReadContentInputStream(sourceFile);
 
@@ -116,17 +119,18 @@ public class AbstractFileHtmlExtract implements AbstractFileExtract {
                 return false;
             }
 
+            textChunkBuf = bufferPool.getChars(MAX_EXTR_TEXT_CHARS);
             success = true;
             long readSize;
             long totalRead = 0;
             boolean eof = false;
             //we read max 1024 chars at time, this seems to max what this Reader would return
-            while (!eof && (readSize = reader.read(TEXT_CHUNK_BUF, 0, SINGLE_READ_CHARS)) != -1) {
+            while (!eof && (readSize = reader.read(textChunkBuf, 0, SINGLE_READ_CHARS)) != -1) {
                 totalRead += readSize;
 
                 //consume more bytes to fill entire chunk (leave EXTRA_CHARS to end the word)
                 while ((totalRead < MAX_EXTR_TEXT_CHARS - SINGLE_READ_CHARS - EXTRA_CHARS)
-                        && (readSize = reader.read(TEXT_CHUNK_BUF, (int) totalRead, SINGLE_READ_CHARS)) != -1) {
+                        && (readSize = reader.read(textChunkBuf, (int) totalRead, SINGLE_READ_CHARS)) != -1) {
                     totalRead += readSize;
                 }
                 if (readSize == -1) {
@@ -135,8 +139,8 @@ public class AbstractFileHtmlExtract implements AbstractFileExtract {
                 } else {
                     //try to read until whitespace to not break words
                     while ((totalRead < MAX_EXTR_TEXT_CHARS - 1)
-                            && !Character.isWhitespace(TEXT_CHUNK_BUF[(int) totalRead - 1])
-                            && (readSize = reader.read(TEXT_CHUNK_BUF, (int) totalRead, 1)) != -1) {
+                            && !Character.isWhitespace(textChunkBuf[(int) totalRead - 1])
+                            && (readSize = reader.read(textChunkBuf, (int) totalRead, 1)) != -1) {
                         totalRead += readSize;
                     }
                     if (readSize == -1) {
@@ -154,9 +158,9 @@ public class AbstractFileHtmlExtract implements AbstractFileExtract {
                 //inject BOM here (saves byte buffer realloc later), will be converted to specific encoding BOM
                 //sb.append(UTF16BOM); disabled BOM, not needing as bypassing Tika
                 if (totalRead < MAX_EXTR_TEXT_CHARS) {
-                    sb.append(TEXT_CHUNK_BUF, 0, (int) totalRead);
+                    sb.append(textChunkBuf, 0, (int) totalRead);
                 } else {
-                    sb.append(TEXT_CHUNK_BUF);
+                    sb.append(textChunkBuf);
                 }
 
                 //reset for next chunk
@@ -165,10 +169,11 @@ public class AbstractFileHtmlExtract implements AbstractFileExtract {
 
                 //converts BOM automatically to charSet encoding
                 byte[] encodedBytes = extracted.getBytes(outCharset);
-                AbstractFileChunk chunk = new AbstractFileChunk(this, this.numChunks + 1);
+                final int chunkId = this.numChunks.get() + 1;
+                AbstractFileChunk chunk = new AbstractFileChunk(this, chunkId);
                 try {
                     chunk.index(ingester, encodedBytes, encodedBytes.length, outCharset);
-                    ++this.numChunks;
+                    this.numChunks.set(chunkId);
                 } catch (Ingester.IngesterException ingEx) {
                     success = false;
                     logger.log(Level.WARNING, "Ingester had a problem with extracted HTML from file '"
@@ -176,9 +181,12 @@ public class AbstractFileHtmlExtract implements AbstractFileExtract {
                     throw ingEx; //need to rethrow/return to signal error and move on
                 }
 
-                //check if need invoke commit/search between chunks
-                //not to delay commit if timer has gone off
-                module.checkRunCommitSearch();
+                //report literal keyword hits without waiting for the search
+                module.matchInline(sourceFile, chunkId, extracted);
+
+                //check if need invoke search between chunks
+                //not to delay search if timer has gone off
+                module.checkRunSearch();
             }
         } catch (IOException ex) {
             logger.log(Level.WARNING, "Unable to read content stream from " + sourceFile.getId() + ": " + sourceFile.getName(), ex);
@@ -187,6 +195,7 @@ public class AbstractFileHtmlExtract implements AbstractFileExtract {
             logger.log(Level.WARNING, "Unexpected error, can't read content stream from " + sourceFile.getId() + ": " + sourceFile.getName(), ex);
             success = false;
         } finally {
+            bufferPool.release(textChunkBuf);
             try {
                 stream.close();
             } catch (IOException ex) {
@@ -39,12 +39,12 @@ class AbstractFileStringExtract implements AbstractFileExtract {
 
     private KeywordSearchIngestModule module;
     private Ingester ingester;
-    private int numChunks;
     private static final Logger logger = Logger.getLogger(AbstractFileStringExtract.class.getName());
     static final long MAX_STRING_CHUNK_SIZE = 1 * 1024 * 1024L;
-    private AbstractFile sourceFile;
-    //single static buffer for all extractions.  Safe, indexing can only happen in one thread
-    private static final byte[] STRING_CHUNK_BUF = new byte[(int) MAX_STRING_CHUNK_SIZE];
+    //state of the file being indexed, per thread, so that files can be indexed in parallel
+    private final ThreadLocal<AbstractFile> sourceFile = new ThreadLocal<AbstractFile>();
+    private final ThreadLocal<Integer> numChunks = new ThreadLocal<Integer>();
+    private final ExtractBufferPool bufferPool = ExtractBufferPool.getDefault();
     //private static final int BOM_LEN = 3; 
     private static final int BOM_LEN = 0;  //disabled prepending of BOM
     private static final Charset INDEX_CHARSET = Server.DEFAULT_INDEXED_TEXT_CHARSET;
@@ -80,12 +80,13 @@ class AbstractFileStringExtract implements AbstractFileExtract {
 
     @Override
     public int getNumChunks() {
-        return this.numChunks;
+        final Integer chunks = numChunks.get();
+        return chunks == null ? 0 : chunks;
     }
 
     @Override
     public AbstractFile getSourceFile() {
-        return sourceFile;
+        return sourceFile.get();
     }
 
     @Override
@@ -100,8 +101,8 @@ class AbstractFileStringExtract implements AbstractFileExtract {
 
     @Override
     public boolean index(AbstractFile sourceFile) throws IngesterException {
-        this.sourceFile = sourceFile;
-        this.numChunks = 0; //unknown until indexing is done
+        this.sourceFile.set(sourceFile);
+        this.numChunks.set(0); //unknown until indexing is done
         boolean success = false;
 
 
@@ -127,29 +128,38 @@ class AbstractFileStringExtract implements AbstractFileExtract {
         }
 
 
+        byte[] stringChunkBuf = null;
         try {
+            stringChunkBuf = bufferPool.getBytes((int) MAX_STRING_CHUNK_SIZE);
             success = true;
             //break input stream into chunks 
 
             long readSize = 0;
-            while ((readSize = stringStream.read(STRING_CHUNK_BUF, BOM_LEN, (int) MAX_STRING_CHUNK_SIZE - BOM_LEN)) != -1) {
+            while ((readSize = stringStream.read(stringChunkBuf, BOM_LEN, (int) MAX_STRING_CHUNK_SIZE - BOM_LEN)) != -1) {
                 //FileOutputStream debug = new FileOutputStream("c:\\temp\\" + sourceFile.getName() + Integer.toString(this.numChunks+1));
-                //debug.write(STRING_CHUNK_BUF, 0, (int)readSize);
+                //debug.write(stringChunkBuf, 0, (int)readSize);
 
-                AbstractFileChunk chunk = new AbstractFileChunk(this, this.numChunks + 1);
+                final int chunkId = this.numChunks.get() + 1;
+                AbstractFileChunk chunk = new AbstractFileChunk(this, chunkId);
 
                 try {
-                    chunk.index(ingester, STRING_CHUNK_BUF, readSize + BOM_LEN, INDEX_CHARSET);
-                    ++this.numChunks;
+                    chunk.index(ingester, stringChunkBuf, readSize + BOM_LEN, INDEX_CHARSET);
+                    this.numChunks.set(chunkId);
                 } catch (IngesterException ingEx) {
                     success = false;
                     logger.log(Level.WARNING, "Ingester had a problem with extracted strings from file '" + sourceFile.getName() + "' (id: " + sourceFile.getId() + ").", ingEx);
                     throw ingEx; //need to rethrow/return to signal error and move on
                 }
 
-                //check if need invoke commit/search between chunks
-                //not to delay commit if timer has gone off
-                module.checkRunCommitSearch();
+                //report literal keyword hits without waiting for the search
+                if (module.hasInlineMatcher()) {
+                    module.matchInline(sourceFile, chunkId,
+                            new String(stringChunkBuf, BOM_LEN, (int) readSize, INDEX_CHARSET));
+                }
+
+                //check if need invoke search between chunks
+                //not to delay search if timer has gone off
+                module.checkRunSearch();
 
                 //debug.close();    
             }
@@ -162,6 +172,7 @@ class AbstractFileStringExtract implements AbstractFileExtract {
             logger.log(Level.WARNING, "Unable to read input stream to divide and send to Solr, file: " + sourceFile.getName(), ex);
             success = false;
         } finally {
+            bufferPool.release(stringChunkBuf);
             try {
                 stringStream.close();
             } catch (IOException ex) {
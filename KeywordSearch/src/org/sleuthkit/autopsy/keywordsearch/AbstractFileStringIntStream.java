@@ -34,7 +34,9 @@ import org.sleuthkit.datamodel.TskCoreException;
  * object, extract international strings from the file and read output as a
  * stream of UTF-8 strings as encoded bytes.
  *
- * Currently not-thread safe (reusing static buffers for efficiency)
+ * A stream instance is not thread-safe, but different instances can be read in
+ * parallel. The file read buffer is taken from the extract buffer pool for the
+ * duration of each fill.
  */
 public class AbstractFileStringIntStream extends InputStream {
 
@@ -42,7 +44,7 @@ public class AbstractFileStringIntStream extends InputStream {
     private final byte[] oneCharBuf = new byte[1];
     private final StringExtract stringExtractor;
     private static final int FILE_BUF_SIZE = 1024 * 1024;
-    private static final byte[] fileReadBuff = new byte[FILE_BUF_SIZE]; //NOTE: need to run all stream extraction in same thread
+    private final ExtractBufferPool bufferPool = ExtractBufferPool.getDefault();
     private long fileReadOffset = 0L;
     private byte[] convertBuff; //stores extracted string encoded as bytes, before returned to user
     private int convertBuffOffset = 0; //offset to start returning data to user on next read()
@@ -141,18 +143,24 @@ public class AbstractFileStringIntStream extends InputStream {
                         //fill up entire fileReadBuff fresh
                         toRead = Math.min(FILE_BUF_SIZE, fileSize - fileReadOffset);
                     //}
-                    int read = content.read(fileReadBuff, fileReadOffset, toRead);
-                    if (read == -1 || read == 0) {
-                        fileEOF = true;
-                    } else {
-                        fileReadOffset += read;
-                        if (fileReadOffset >= fileSize) {
+                    final byte[] fileReadBuff = bufferPool.getBytes(FILE_BUF_SIZE);
+                    try {
+                        int read = content.read(fileReadBuff, fileReadOffset, toRead);
+                        if (read == -1 || read == 0) {
                             fileEOF = true;
+                        } else {
+                            fileReadOffset += read;
+                            if (fileReadOffset >= fileSize) {
+                                fileEOF = true;
+                            }
+
+                            //put converted string in convertBuff
+                            convert(fileReadBuff, read);
+                            convertBuffRemain = bytesInConvertBuff - convertBuffOffset;
                         }
-
-                        //put converted string in convertBuff
-                        convert(read);
-                        convertBuffRemain = bytesInConvertBuff - convertBuffOffset;
+                    } finally {
+                        //converted strings are copied out, the buffer is not needed until next fill
+                        bufferPool.release(fileReadBuff);
                     }
                 } catch (TskCoreException ex) {
                     //Exceptions.printStackTrace(ex);
@@ -200,9 +208,10 @@ public class AbstractFileStringIntStream extends InputStream {
      * convert bytes in file buffer to string, and encode string in
      * convertBuffer
      *
+     * @param fileReadBuff buffer with bytes read from the file
      * @param numBytes num bytes in the fileReadBuff
      */
-    private void convert(int numBytes) {
+    private void convert(byte[] fileReadBuff, int numBytes) {
         lastExtractResult = stringExtractor.extract(fileReadBuff, numBytes, 0);
         convertBuff = lastExtractResult.getText().getBytes(outCharset);
 
@@ -28,16 +28,22 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
+import org.sleuthkit.autopsy.casemodule.Case;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.autopsy.ingest.IngestModuleAbstractFile;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.ReadContentInputStream;
+import org.sleuthkit.datamodel.TskCoreException;
 import org.apache.tika.Tika;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.mime.MediaType;
@@ -54,6 +60,11 @@ import org.sleuthkit.autopsy.keywordsearch.Ingester.IngesterException;
  * This Tika extraction/chunking utility is useful for large files of Tika
  * parsers-supported content type.
  *
+ * Files can be parsed in the calling thread with index(), or queued with
+ * indexAsync() to a pool of parse workers sized to the available cores. Every
+ * parse reserves an estimate of its memory use from a budget based on the max.
+ * heap size, and is aborted after a timeout based on the file size, by closing
+ * its streams and interrupting its thread.
  */
 public class AbstractFileTikaTextExtract implements AbstractFileExtract {
 
@@ -62,14 +73,44 @@ public class AbstractFileTikaTextExtract implements AbstractFileExtract {
     static final int MAX_EXTR_TEXT_CHARS = 512 * 1024;
     private static final int SINGLE_READ_CHARS = 1024;
     private static final int EXTRA_CHARS = 128; //for whitespace
-    private static final char[] TEXT_CHUNK_BUF = new char[MAX_EXTR_TEXT_CHARS];
     //private Tika tika;
     private KeywordSearchIngestModule module;
     private static Ingester ingester;
-    private AbstractFile sourceFile; //currently processed file
-    private int numChunks = 0;
+    //state of the file being indexed, per thread, so that files can be indexed in parallel
+    private final ThreadLocal<AbstractFile> sourceFile = new ThreadLocal<AbstractFile>();
+    private final ThreadLocal<Integer> numChunks = new ThreadLocal<Integer>();
+    private final ExtractBufferPool bufferPool = ExtractBufferPool.getDefault();
     //private static final String UTF16BOM = "\uFEFF"; disabled prepending of BOM
-    private final ExecutorService tikaParseExecutor = Executors.newSingleThreadExecutor();
+    //leave a core to the ingest pipeline
+    static final int NUM_PARSE_WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static final int MAX_QUEUED_PARSES = NUM_PARSE_WORKERS * 4;
+    //parsers keep part or all of the document in memory, estimated as a multiple of the file size
+    private static final int PARSE_MEMORY_FACTOR = 3;
+    private static final int PARSE_MEMORY_BUDGET_KB = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 4 / 1024);
+    private final AtomicInteger parseWorkerCount = new AtomicInteger(0);
+    private final ExecutorService tikaParseExecutor = Executors.newFixedThreadPool(NUM_PARSE_WORKERS, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "Tika parse worker " + parseWorkerCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final ScheduledExecutorService parseTimeoutExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "Tika parse timeout");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final Semaphore parseMemoryKb = new Semaphore(PARSE_MEMORY_BUDGET_KB);
+    private final Semaphore queuedParses = new Semaphore(MAX_QUEUED_PARSES);
+    private final Set<ParseTask> runningParses = Collections.newSetFromMap(new ConcurrentHashMap<ParseTask, Boolean>());
+    //queued parses of an older generation are dropped, incremented by cancelQueued()
+    private final AtomicInteger generation = new AtomicInteger(0);
+    private final Object pendingLock = new Object();
+    private int pendingParses = 0;
     private final List<String> TIKA_SUPPORTED_TYPES = new ArrayList<String>();
 
     AbstractFileTikaTextExtract() {
@@ -105,65 +146,209 @@ public class AbstractFileTikaTextExtract implements AbstractFileExtract {
 
     @Override
     public int getNumChunks() {
-        return numChunks;
+        final Integer chunks = numChunks.get();
+        return chunks == null ? 0 : chunks;
     }
 
     @Override
     public AbstractFile getSourceFile() {
-        return sourceFile;
+        return sourceFile.get();
+    }
+
+    /**
+     * Notified by the parse workers when a file queued with indexAsync() is
+     * done
+     */
+    interface ExtractionListener {
+
+        /**
+         * Called from the parse worker thread, not called for parses dropped
+         * by cancelQueued()
+         *
+         * @param sourceFile file that was queued
+         * @param success true if the text was extracted and indexed
+         */
+        void extractionDone(AbstractFile sourceFile, boolean success);
+    }
+
+    /**
+     * Queue the file to be parsed and indexed by the parse workers. Blocks if
+     * too many parses are queued, or the memory budget is used up.
+     * The parse worker reads the file through its own instance, so the caller
+     * can close sourceFile as soon as this returns.
+     *
+     * @param sourceFile file to index
+     * @param listener notified when done
+     * @throws InterruptedException if interrupted while waiting to queue
+     */
+    void indexAsync(final AbstractFile sourceFile, final ExtractionListener listener) throws InterruptedException {
+        final int memoryKb = getParseMemoryKb(sourceFile);
+        queuedParses.acquire();
+        try {
+            parseMemoryKb.acquire(memoryKb);
+        } catch (InterruptedException ex) {
+            queuedParses.release();
+            throw ex;
+        }
+        synchronized (pendingLock) {
+            ++pendingParses;
+        }
+
+        final int queuedGeneration = generation.get();
+        tikaParseExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (queuedGeneration != generation.get()) {
+                        //cancelled while queued
+                        return;
+                    }
+                    boolean success = false;
+                    //the ingest thread closes its instance once process() returns, read through our own
+                    AbstractFile workerFile = null;
+                    try {
+                        workerFile = Case.getCurrentCase().getSleuthkitCase().getAbstractFileById(sourceFile.getId());
+                        success = new ParseTask(workerFile).index();
+                    } catch (TskCoreException ex) {
+                        logger.log(Level.WARNING, "Could not open file for Tika text extraction, " + sourceFile.getId() + ", "
+                                + sourceFile.getName(), ex);
+                    } catch (IngesterException ex) {
+                        logger.log(Level.INFO, "Could not extract text with Tika, " + sourceFile.getId() + ", "
+                                + sourceFile.getName(), ex);
+                    } catch (Exception ex) {
+                        logger.log(Level.WARNING, "Error extracting text with Tika, " + sourceFile.getId() + ", "
+                                + sourceFile.getName(), ex);
+                    } finally {
+                        if (workerFile != null) {
+                            workerFile.close();
+                        }
+                    }
+                    if (queuedGeneration == generation.get()) {
+                        listener.extractionDone(sourceFile, success);
+                    }
+                } finally {
+                    parseMemoryKb.release(memoryKb);
+                    queuedParses.release();
+                    synchronized (pendingLock) {
+                        --pendingParses;
+                        pendingLock.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait until all the files queued with indexAsync() are done
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void waitForQueued() throws InterruptedException {
+        synchronized (pendingLock) {
+            while (pendingParses > 0) {
+                pendingLock.wait();
+            }
+        }
+    }
+
+    /**
+     * Drop the queued parses and abort the running ones, their listeners are
+     * not notified
+     */
+    void cancelQueued() {
+        generation.incrementAndGet();
+        for (ParseTask task : runningParses) {
+            task.abort();
+        }
+    }
+
+    /**
+     * Stop the parse workers, once the extractor is no longer used
+     */
+    void shutdown() {
+        cancelQueued();
+        tikaParseExecutor.shutdown();
+        parseTimeoutExecutor.shutdown();
+    }
+
+    /**
+     * Estimate of the memory used to parse the file
+     *
+     * @param file file to be parsed
+     * @return memory in KB, within the budget
+     */
+    private static int getParseMemoryKb(AbstractFile file) {
+        final long kb = file.getSize() / 1024 * PARSE_MEMORY_FACTOR + 1;
+        return (int) Math.min(kb, PARSE_MEMORY_BUDGET_KB);
     }
 
     @Override
     public boolean index(AbstractFile sourceFile) throws Ingester.IngesterException {
-        this.sourceFile = sourceFile;
-        this.numChunks = 0; //unknown until indexing is done
+        final int memoryKb = getParseMemoryKb(sourceFile);
+        try {
+            parseMemoryKb.acquire(memoryKb);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IngesterException("Interrupted while waiting for Tika parse memory, file: " + sourceFile.getName(), ex);
+        }
+        try {
+            return new ParseTask(sourceFile).index();
+        } finally {
+            parseMemoryKb.release(memoryKb);
+        }
+    }
+
+    /**
+     * Parse the file and index the extracted text, in the calling thread
+     *
+     * @param sourceFile file to index
+     * @param task parse of the file, aborted on timeout
+     * @return true if the text was extracted and indexed
+     * @throws IngesterException if the parse timed out, or the text could not
+     * be indexed
+     */
+    private boolean index(AbstractFile sourceFile, ParseTask task) throws Ingester.IngesterException {
+        this.sourceFile.set(sourceFile);
+        this.numChunks.set(0); //unknown until indexing is done
 
         boolean success = false;
         Reader reader = null;
+        char[] textChunkBuf = null;
 
 
         final InputStream stream = new ReadContentInputStream(sourceFile);
+        task.setStream(stream);
         try {
             Metadata meta = new Metadata();
-            //Tika parse request with timeout
+            //Tika parse in this thread, the task is aborted on timeout
             Tika tika = new Tika(); //new tika instance for every file, to workaround tika memory issues
-            ParseRequestTask parseTask = new ParseRequestTask(tika, stream, meta, sourceFile);
-            final Future<?> future = tikaParseExecutor.submit(parseTask);
             try {
-                future.get(Ingester.getTimeout(sourceFile.getSize()), TimeUnit.SECONDS);
-            } catch (TimeoutException te) {
-                tika = null;
-                final String msg = "Exception: Tika parse timeout for content: " + sourceFile.getId() + ", " + sourceFile.getName();
-                KeywordSearch.getTikaLogger().log(Level.WARNING, msg, te);
-                logger.log(Level.WARNING, msg);
-                throw new IngesterException(msg);
+                reader = tika.parse(stream, meta);
             } catch (Exception ex) {
-                tika = null;
-                final String msg = "Exception: Unexpected exception from Tika parse task execution for file: " + sourceFile.getId() + ", " + sourceFile.getName();
-                KeywordSearch.getTikaLogger().log(Level.WARNING, msg, ex);
-                logger.log(Level.WARNING, msg);
-                throw new IngesterException(msg);
+                KeywordSearch.getTikaLogger().log(Level.WARNING, "Exception: Unable to Tika parse the content" + sourceFile.getId() + ": " + sourceFile.getName(), ex);
+                reader = null;
             }
 
-            reader = parseTask.getReader();
-
             if (reader == null) {
                 //likely due to exception in parse()
                 logger.log(Level.WARNING, "No reader available from Tika parse");
+                throwIfTimedOut(task, sourceFile);
                 return false;
             }
+            task.setReader(reader);
 
+            textChunkBuf = bufferPool.getChars(MAX_EXTR_TEXT_CHARS);
             success = true;
             long readSize;
             long totalRead = 0;
             boolean eof = false;
             //we read max 1024 chars at time, this seems to max what this Reader would return
-            while (!eof && (readSize = reader.read(TEXT_CHUNK_BUF, 0, SINGLE_READ_CHARS)) != -1) {
+            while (!eof && (readSize = reader.read(textChunkBuf, 0, SINGLE_READ_CHARS)) != -1) {
                 totalRead += readSize;
 
                 //consume more bytes to fill entire chunk (leave EXTRA_CHARS to end the word)
                 while ((totalRead < MAX_EXTR_TEXT_CHARS - SINGLE_READ_CHARS - EXTRA_CHARS)
-                        && (readSize = reader.read(TEXT_CHUNK_BUF, (int) totalRead, SINGLE_READ_CHARS)) != -1) {
+                        && (readSize = reader.read(textChunkBuf, (int) totalRead, SINGLE_READ_CHARS)) != -1) {
                     totalRead += readSize;
                 }
                 if (readSize == -1) {
@@ -172,8 +357,8 @@ public class AbstractFileTikaTextExtract implements AbstractFileExtract {
                 } else {
                     //try to read char-by-char until whitespace to not break words
                     while ((totalRead < MAX_EXTR_TEXT_CHARS - 1)
-                            && !Character.isWhitespace(TEXT_CHUNK_BUF[(int) totalRead - 1])
-                            && (readSize = reader.read(TEXT_CHUNK_BUF, (int) totalRead, 1)) != -1) {
+                            && !Character.isWhitespace(textChunkBuf[(int) totalRead - 1])
+                            && (readSize = reader.read(textChunkBuf, (int) totalRead, 1)) != -1) {
                         totalRead += readSize;
                     }
                     if (readSize == -1) {
@@ -193,9 +378,9 @@ public class AbstractFileTikaTextExtract implements AbstractFileExtract {
                 //inject BOM here (saves byte buffer realloc later), will be converted to specific encoding BOM
                 //sb.append(UTF16BOM); disabled prepending of BOM
                 if (totalRead < MAX_EXTR_TEXT_CHARS) {
-                    sb.append(TEXT_CHUNK_BUF, 0, (int) totalRead);
+                    sb.append(textChunkBuf, 0, (int) totalRead);
                 } else {
-                    sb.append(TEXT_CHUNK_BUF);
+                    sb.append(textChunkBuf);
                 }
 
                 //reset for next chunk
@@ -217,10 +402,11 @@ public class AbstractFileTikaTextExtract implements AbstractFileExtract {
 
                 //converts BOM automatically to charSet encoding
                 byte[] encodedBytes = extracted.getBytes(OUTPUT_CHARSET);
-                AbstractFileChunk chunk = new AbstractFileChunk(this, this.numChunks + 1);
+                final int chunkId = this.numChunks.get() + 1;
+                AbstractFileChunk chunk = new AbstractFileChunk(this, chunkId);
                 try {
                     chunk.index(ingester, encodedBytes, encodedBytes.length, OUTPUT_CHARSET);
-                    ++this.numChunks;
+                    this.numChunks.set(chunkId);
                 } catch (Ingester.IngesterException ingEx) {
                     success = false;
                     logger.log(Level.WARNING, "Ingester had a problem with extracted strings from file '"
@@ -228,21 +414,27 @@ public class AbstractFileTikaTextExtract implements AbstractFileExtract {
                     throw ingEx; //need to rethrow/return to signal error and move on
                 }
 
-                //check if need invoke commit/search between chunks
-                //not to delay commit if timer has gone off
-                module.checkRunCommitSearch();
+                //report literal keyword hits without waiting for the search
+                module.matchInline(sourceFile, chunkId, extracted);
+
+                //check if need invoke search between chunks
+                //not to delay search if timer has gone off
+                module.checkRunSearch();
             }
         } catch (IOException ex) {
+            throwIfTimedOut(task, sourceFile);
             final String msg = "Exception: Unable to read Tika content stream from " + sourceFile.getId() + ": " + sourceFile.getName();
             KeywordSearch.getTikaLogger().log(Level.WARNING, msg, ex);
             logger.log(Level.WARNING, msg, ex);
             success = false;
         } catch (Exception ex) {
+            throwIfTimedOut(task, sourceFile);
             final String msg = "Exception: Unexpected error, can't read Tika content stream from " + sourceFile.getId() + ": " + sourceFile.getName();
             KeywordSearch.getTikaLogger().log(Level.WARNING, msg, ex);
             logger.log(Level.WARNING, msg, ex);
             success = false;
         } finally {
+            bufferPool.release(textChunkBuf);
             try {
                 stream.close();
             } catch (IOException ex) {
@@ -292,44 +484,93 @@ public class AbstractFileTikaTextExtract implements AbstractFileExtract {
 
     }
 
+    private static void throwIfTimedOut(ParseTask task, AbstractFile sourceFile) throws IngesterException {
+        if (task.isTimedOut()) {
+            final String msg = "Exception: Tika parse timeout for content: " + sourceFile.getId() + ", " + sourceFile.getName();
+            KeywordSearch.getTikaLogger().log(Level.WARNING, msg);
+            logger.log(Level.WARNING, msg);
+            throw new IngesterException(msg);
+        }
+    }
+
     /**
-     * Runnable and timeable task that calls tika to parse the content using
-     * streaming
+     * Parse of a file, timed out by closing the streams of the parse and
+     * interrupting the thread running it
      */
-    private static class ParseRequestTask implements Runnable {
-
-        //in
-        private Tika tika;
-        private InputStream stream;
-        private Metadata meta;
-        private AbstractFile sourceFile;
-        //out
-        private Reader reader;
-
-        ParseRequestTask(Tika tika, InputStream stream, Metadata meta, AbstractFile sourceFile) {
-            this.tika = tika;
-            this.stream = stream;
-            this.meta = meta;
+    private class ParseTask implements Runnable {
+
+        private final AbstractFile sourceFile;
+        private volatile Thread thread;
+        private volatile InputStream stream;
+        private volatile Reader reader;
+        private volatile boolean timedOut = false;
+
+        ParseTask(AbstractFile sourceFile) {
             this.sourceFile = sourceFile;
         }
 
+        /**
+         * Index the file in the calling thread, within the timeout
+         */
+        boolean index() throws IngesterException {
+            thread = Thread.currentThread();
+            runningParses.add(this);
+            final ScheduledFuture<?> timeout = parseTimeoutExecutor.schedule(this,
+                    Ingester.getTimeout(sourceFile.getSize()), TimeUnit.SECONDS);
+            try {
+                return AbstractFileTikaTextExtract.this.index(sourceFile, this);
+            } finally {
+                timeout.cancel(false);
+                runningParses.remove(this);
+                thread = null;
+                if (timedOut) {
+                    //clear the interrupt of the timeout, the thread moves on to the next file
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        void setStream(InputStream stream) {
+            this.stream = stream;
+        }
+
+        void setReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        boolean isTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * Timeout, called from the timeout thread
+         */
         @Override
         public void run() {
+            timedOut = true;
+            abort();
+        }
+
+        /**
+         * Abort the parse, the parse thread gets an error reading the text
+         */
+        void abort() {
             try {
-                reader = tika.parse(stream, meta);
+                final Reader r = reader;
+                if (r != null) {
+                    r.close();
+                }
+                final InputStream s = stream;
+                if (s != null) {
+                    s.close();
+                }
             } catch (IOException ex) {
-                KeywordSearch.getTikaLogger().log(Level.WARNING, "Exception: Unable to Tika parse the content" + sourceFile.getId() + ": " + sourceFile.getName(), ex);
-                tika = null;
-                reader = null;
-            } catch (Exception ex) {
-                KeywordSearch.getTikaLogger().log(Level.WARNING, "Exception: Unable to Tika parse the content" + sourceFile.getId() + ": " + sourceFile.getName(), ex);
-                tika = null;
-                reader = null;
+                logger.log(Level.WARNING, "Error closing Tika streams of aborted parse, file: " + sourceFile.getId(), ex);
+            }
+            final Thread t = thread;
+            if (t != null) {
+                t.interrupt();
             }
-        }
-
-        public Reader getReader() {
-            return reader;
         }
     }
 }
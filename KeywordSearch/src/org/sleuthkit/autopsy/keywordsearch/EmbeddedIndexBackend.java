@@ -0,0 +1,119 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.io.File;
+import java.util.logging.Level;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.embedded.EmbeddedSolrServer;
+import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.CoreDescriptor;
+import org.apache.solr.core.SolrCore;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Runs the Solr engine and its Lucene indexes in the application JVM.
+ *
+ * The cores use the same solr home, schema and configuration as the Solr
+ * process, and write to the same index directory of the case, so a case
+ * indexed with one backend can be opened with the other. Documents and
+ * queries are passed to the core as objects, without HTTP requests or
+ * response parsing, and there is no separate process to start or to size: the
+ * index shares the heap of the application.
+ */
+class EmbeddedIndexBackend implements IndexBackend {
+
+    private static final Logger logger = Logger.getLogger(EmbeddedIndexBackend.class.getName());
+    //solr home, with solr.xml, also the instance dir of the cores
+    private final String instanceDir;
+    private CoreContainer container;
+
+    EmbeddedIndexBackend(String instanceDir) {
+        this.instanceDir = instanceDir;
+    }
+
+    @Override
+    public synchronized void start() throws KeywordSearchModuleException {
+        if (container != null) {
+            return;
+        }
+        logger.log(Level.INFO, "Starting embedded Solr from: " + instanceDir);
+        try {
+            container = new CoreContainer(instanceDir, new File(instanceDir, "solr.xml"));
+        } catch (Exception ex) {
+            //the container throws unchecked exceptions for configuration errors
+            logger.log(Level.WARNING, "Could not start embedded Solr", ex);
+            throw new KeywordSearchModuleException("Could not start embedded Solr", ex);
+        }
+        logger.log(Level.INFO, "Finished starting embedded Solr");
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (container == null) {
+            return;
+        }
+        logger.log(Level.INFO, "Stopping embedded Solr");
+        //closes the open cores and their index writers
+        container.shutdown();
+        container = null;
+        logger.log(Level.INFO, "Finished stopping embedded Solr");
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return container != null;
+    }
+
+    @Override
+    public boolean usesServerPorts() {
+        return false;
+    }
+
+    @Override
+    public synchronized SolrServer openCore(String coreName, File dataDir) throws KeywordSearchModuleException {
+        if (container == null) {
+            throw new KeywordSearchModuleException("Core open requested, but embedded Solr not started");
+        }
+        try {
+            final CoreDescriptor descriptor = new CoreDescriptor(container, coreName, instanceDir);
+            descriptor.setDataDir(dataDir.getAbsolutePath());
+            final SolrCore core = container.create(descriptor);
+            container.register(coreName, core, false);
+            return new EmbeddedSolrServer(container, coreName);
+        } catch (Exception ex) {
+            throw new KeywordSearchModuleException("Could not open Core", ex);
+        }
+    }
+
+    @Override
+    public synchronized void closeCore(String coreName) throws KeywordSearchModuleException {
+        if (container == null) {
+            return;
+        }
+        try {
+            final SolrCore core = container.remove(coreName);
+            if (core != null) {
+                core.close();
+            }
+        } catch (Exception ex) {
+            throw new KeywordSearchModuleException("Cannot close Core", ex);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pool of the large buffers used by the text extractors and the ingester, so
+ * that several files can be extracted at once without allocating new 1MB
+ * buffers for every file.
+ *
+ * Buffers are reused by type and size. The memory of the buffers kept by the
+ * pool is bounded by a budget sized from the number of extraction threads.
+ * When the budget is used up, free buffers of other sizes are dropped to make
+ * room, and if all buffers are in use, a new buffer is allocated anyway and
+ * dropped when returned. Getting a buffer never blocks, so a thread holding
+ * one buffer can always get another.
+ *
+ * Every buffer taken from the pool must be returned with release(), in a
+ * finally block.
+ */
+class ExtractBufferPool {
+
+    //text chars, chunk bytes and file read bytes held by a thread at once
+    private static final long BUDGET_PER_THREAD_BYTES = 4 * 1024 * 1024L;
+    private static final int DEFAULT_THREADS = 8;
+    private static ExtractBufferPool instance;
+    private long budgetBytes;
+    private long allocatedBytes = 0;
+    //free buffers by key, least recently released keys first
+    private final Map<Long, Deque<Object>> freeBuffers = new LinkedHashMap<Long, Deque<Object>>(16, 0.75f, true);
+
+    ExtractBufferPool(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    static synchronized ExtractBufferPool getDefault() {
+        if (instance == null) {
+            instance = new ExtractBufferPool(DEFAULT_THREADS * BUDGET_PER_THREAD_BYTES);
+        }
+        return instance;
+    }
+
+    /**
+     * Size the budget for the number of threads extracting and indexing at
+     * once
+     *
+     * @param numThreads number of extraction threads
+     */
+    synchronized void setExtractionThreads(int numThreads) {
+        budgetBytes = Math.max(1, numThreads) * BUDGET_PER_THREAD_BYTES;
+        dropFreeBuffers(0);
+    }
+
+    /**
+     * Get a byte buffer of exactly the size, its content is undefined
+     *
+     * @param size size of the buffer
+     * @return the buffer
+     */
+    byte[] getBytes(int size) {
+        Object buf = acquire(bytesKey(size), size);
+        if (buf == null) {
+            buf = new byte[size];
+        }
+        return (byte[]) buf;
+    }
+
+    /**
+     * Get a char buffer of exactly the size, its content is undefined
+     *
+     * @param size size of the buffer
+     * @return the buffer
+     */
+    char[] getChars(int size) {
+        Object buf = acquire(charsKey(size), size * 2L);
+        if (buf == null) {
+            buf = new char[size];
+        }
+        return (char[]) buf;
+    }
+
+    /**
+     * Return the buffer to the pool, the caller must not use it anymore
+     *
+     * @param buf buffer from getBytes()
+     */
+    void release(byte[] buf) {
+        if (buf != null) {
+            release(bytesKey(buf.length), buf);
+        }
+    }
+
+    /**
+     * Return the buffer to the pool, the caller must not use it anymore
+     *
+     * @param buf buffer from getChars()
+     */
+    void release(char[] buf) {
+        if (buf != null) {
+            release(charsKey(buf.length), buf);
+        }
+    }
+
+    private static long bytesKey(int size) {
+        return size;
+    }
+
+    private static long charsKey(int size) {
+        return (1L << 32) | size;
+    }
+
+    private static long sizeOf(Object buf) {
+        return buf instanceof char[] ? ((char[]) buf).length * 2L : ((byte[]) buf).length;
+    }
+
+    /**
+     * Take a free buffer for the key, or account for a new one. Never waits,
+     * the budget can be exceeded while all the buffers are in use.
+     *
+     * @return the free buffer, or null if the caller should allocate a new
+     * buffer
+     */
+    private synchronized Object acquire(long key, long sizeBytes) {
+        final Deque<Object> free = freeBuffers.get(key);
+        if (free != null && !free.isEmpty()) {
+            return free.pop();
+        }
+
+        //make room for the new buffer, if possible
+        dropFreeBuffers(sizeBytes);
+        allocatedBytes += sizeBytes;
+        return null;
+    }
+
+    private synchronized void release(long key, Object buf) {
+        if (allocatedBytes > budgetBytes) {
+            //allocated over the budget, do not keep it
+            allocatedBytes -= sizeOf(buf);
+            return;
+        }
+        Deque<Object> free = freeBuffers.get(key);
+        if (free == null) {
+            free = new ArrayDeque<Object>();
+            freeBuffers.put(key, free);
+        }
+        free.push(buf);
+    }
+
+    /**
+     * Drop free buffers, least recently used first, until the size fits in the
+     * budget
+     *
+     * @return true if any buffer was dropped
+     */
+    private boolean dropFreeBuffers(long sizeBytes) {
+        boolean dropped = false;
+        final Iterator<Map.Entry<Long, Deque<Object>>> it = freeBuffers.entrySet().iterator();
+        while (it.hasNext() && allocatedBytes + sizeBytes > budgetBytes) {
+            final Map.Entry<Long, Deque<Object>> e = it.next();
+            final Deque<Object> free = e.getValue();
+            while (!free.isEmpty() && allocatedBytes + sizeBytes > budgetBytes) {
+                allocatedBytes -= sizeOf(free.pop());
+                dropped = true;
+            }
+            if (free.isEmpty()) {
+                it.remove();
+            }
+        }
+        return dropped;
+    }
+}
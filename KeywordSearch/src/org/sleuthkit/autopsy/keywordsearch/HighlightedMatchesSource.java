@@ -121,6 +121,8 @@ class HighlightedMatchesSource implements MarkupSource, HighlightLookup {
         if (hasChunks) {
             //extract pages of interest, sorted
             final long contentId = content.getId();
+            //the chunks of an alias are those of the file with the same content
+            final long indexedContentId = solrServer.getAliases().resolve(contentId);
 
             if (hits == null) {
                 //special case, aka in case of dir tree, we don't know which chunks
@@ -140,7 +142,7 @@ class HighlightedMatchesSource implements MarkupSource, HighlightLookup {
                 }
                 Keyword keywordQuery = new Keyword(queryStr, false);
                 chunksQuery = new LuceneQuery(keywordQuery);
-                KeywordQueryFilter contentIdFilter = new KeywordQueryFilter(FilterType.CHUNK, contentId);
+                KeywordQueryFilter contentIdFilter = new KeywordQueryFilter(FilterType.CHUNK, indexedContentId);
                 chunksQuery.addFilter(contentIdFilter);
                 try {
                     hits = chunksQuery.performQuery();
@@ -155,7 +157,7 @@ class HighlightedMatchesSource implements MarkupSource, HighlightLookup {
             for (Collection<ContentHit> hitCol : hits.values()) {
                 for (ContentHit hit : hitCol) {
                     int chunkID = hit.getChunkId();
-                    if (chunkID != 0 && contentId == hit.getId()) {
+                    if (chunkID != 0 && (contentId == hit.getId() || indexedContentId == hit.getId())) {
                         pagesSorted.add(chunkID);
                     }
                 }
@@ -333,7 +335,7 @@ class HighlightedMatchesSource implements MarkupSource, HighlightLookup {
 
         q.setQuery(queryStr);
 
-        final long contentId = content.getId();
+        final long contentId = solrServer.getAliases().resolve(content.getId());
 
         String contentIdStr = Long.toString(contentId);
         if (hasChunks) {
@@ -0,0 +1,370 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest.METHOD;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Keeps track of the files of the open case whose content is indexed only once
+ * for all the files with the same content.
+ *
+ * The first file indexed with a given MD5 hash has its content indexed in
+ * chunks, as usual, and its document stores the hash. The other files with
+ * the same hash are indexed as alias documents, with their own metadata but no
+ * content, referring to the file whose chunks hold the content. The queries
+ * expand the hits in those chunks back to the aliases, and the viewers show
+ * the indexed content of an alias.
+ */
+class IndexAliases {
+
+    private static final Logger logger = Logger.getLogger(IndexAliases.class.getName());
+    //max. ids OR'ed in a single query
+    static final int MAX_IDS_PER_QUERY = 256;
+    //documents fetched per request when listing aliases
+    private static final int ALIASES_PAGE_SIZE = 10000;
+    private final Server server;
+    //hash -> id of the file whose content is indexed (or being indexed) with that hash
+    private final ConcurrentHashMap<String, Long> indexedContent = new ConcurrentHashMap<String, Long>();
+    //hashes of the files whose content is being indexed, until their document is added
+    private final ConcurrentHashMap<Long, String> pendingHashes = new ConcurrentHashMap<Long, String>();
+    //aliases of the files whose content is being indexed, to be indexed on their own if it fails
+    private final ConcurrentHashMap<Long, List<Long>> pendingAliases = new ConcurrentHashMap<Long, List<Long>>();
+    //file id -> id of the file whose content is indexed for it, itself if not an alias
+    private final ConcurrentHashMap<Long, Long> resolved = new ConcurrentHashMap<Long, Long>();
+    //aliases of the documents matching a set of filters, until the next commit
+    private final ConcurrentHashMap<String, Map<Long, List<Long>>> filteredAliases = new ConcurrentHashMap<String, Map<Long, List<Long>>>();
+    //whether the index had hashed content before this session, checked once per core
+    private volatile Boolean hadIndexedHashes = null;
+
+    IndexAliases(Server server) {
+        this.server = server;
+    }
+
+    /**
+     * Forget everything known about the index, when a core is opened or
+     * closed
+     */
+    void clear() {
+        indexedContent.clear();
+        pendingHashes.clear();
+        pendingAliases.clear();
+        resolved.clear();
+        filteredAliases.clear();
+        hadIndexedHashes = null;
+    }
+
+    /**
+     * Called after a commit, the documents searched have changed
+     */
+    void indexChanged() {
+        filteredAliases.clear();
+    }
+
+    /**
+     * Find the file whose content with the hash is already indexed, or is
+     * being indexed. If none, the file becomes the one indexed for the hash,
+     * and the hash is stored with its document by the Ingester. If the content
+     * is still being indexed, the file is recorded as its alias, and returned
+     * by contentNotIndexed() if that fails.
+     *
+     * @param md5 hash of the content of the file
+     * @param fileId id of the file about to be indexed
+     * @return id of another file with the same content indexed, or null if the
+     * content of the file needs to be indexed
+     */
+    Long findIndexedContent(String md5, long fileId) {
+        //indexed before this session, queried outside of the lock
+        final Long previousId = indexedContent.containsKey(md5) ? null : queryIndexedContent(md5);
+        synchronized (pendingAliases) {
+            Long indexedId = indexedContent.get(md5);
+            if (indexedId == null) {
+                indexedId = previousId;
+            }
+            if (indexedId == null || indexedId == fileId) {
+                //first file with the content, or the same file indexed again
+                indexedContent.put(md5, fileId);
+                pendingHashes.put(fileId, md5);
+                return null;
+            }
+            indexedContent.putIfAbsent(md5, indexedId);
+            if (pendingHashes.containsKey(indexedId)) {
+                List<Long> aliases = pendingAliases.get(indexedId);
+                if (aliases == null) {
+                    aliases = new ArrayList<Long>();
+                    pendingAliases.put(indexedId, aliases);
+                }
+                aliases.add(fileId);
+            }
+            return indexedId;
+        }
+    }
+
+    /**
+     * Get the hash to store with the document of a file, if its content is
+     * the one indexed for the hash
+     *
+     * @param fileId id of the file
+     * @return the hash, or null if none
+     */
+    String removeContentHash(long fileId) {
+        synchronized (pendingAliases) {
+            //content indexed, its aliases are final
+            pendingAliases.remove(fileId);
+            return pendingHashes.remove(fileId);
+        }
+    }
+
+    /**
+     * Called when the content of a file could not be indexed, so that the
+     * next file with the same hash has its content indexed
+     *
+     * @param fileId id of the file
+     * @return ids of the files indexed as aliases of the file meanwhile, they
+     * have no indexed content and need to be indexed on their own
+     */
+    List<Long> contentNotIndexed(long fileId) {
+        synchronized (pendingAliases) {
+            final String md5 = pendingHashes.remove(fileId);
+            if (md5 != null) {
+                indexedContent.remove(md5, fileId);
+            }
+            final List<Long> aliases = pendingAliases.remove(fileId);
+            if (aliases == null) {
+                return new ArrayList<Long>();
+            }
+            for (Long aliasId : aliases) {
+                resolved.remove(aliasId);
+            }
+            return aliases;
+        }
+    }
+
+    /**
+     * Get the id of the file whose indexed content is the content of a file
+     *
+     * @param contentId id of the file
+     * @return id of the file the file is an alias of, or the id of the file
+     * itself if it is not an alias
+     */
+    long resolve(long contentId) {
+        final Long resolvedId = resolved.get(contentId);
+        if (resolvedId != null) {
+            return resolvedId;
+        }
+
+        final SolrQuery q = new SolrQuery("*:*");
+        q.addFilterQuery(Server.Schema.ID.toString() + ":" + Long.toString(contentId));
+        q.setFields(Server.Schema.ALIAS_OF.toString());
+        q.setRows(1);
+        try {
+            final SolrDocumentList docs = server.query(q).getResults();
+            if (docs.isEmpty()) {
+                //not indexed yet, do not remember
+                return contentId;
+            }
+            final Object aliasOf = docs.get(0).getFieldValue(Server.Schema.ALIAS_OF.toString());
+            final long ret = aliasOf == null ? contentId : ((Number) aliasOf).longValue();
+            resolved.put(contentId, ret);
+            return ret;
+        } catch (KeywordSearchModuleException ex) {
+            logger.log(Level.WARNING, "Error resolving the indexed content of: " + contentId, ex);
+        } catch (NoOpenCoreException ex) {
+            logger.log(Level.WARNING, "Error resolving the indexed content of: " + contentId, ex);
+        }
+        return contentId;
+    }
+
+    /**
+     * Get the id of the Solr document holding the indexed content of a
+     * document
+     *
+     * @param docId id of a file or chunk document, from
+     * LuceneQuery.getContentIdString()
+     * @return the id of the same chunk of the file the file is an alias of, or
+     * docId if the file is not an alias
+     */
+    String resolveDocId(String docId) {
+        final int sepIndex = docId.indexOf(Server.ID_CHUNK_SEP);
+        final String fileIdStr = sepIndex == -1 ? docId : docId.substring(0, sepIndex);
+        final long fileId;
+        try {
+            fileId = Long.parseLong(fileIdStr);
+        } catch (NumberFormatException ex) {
+            return docId;
+        }
+        final long resolvedId = resolve(fileId);
+        if (resolvedId == fileId) {
+            return docId;
+        }
+        return sepIndex == -1 ? Long.toString(resolvedId) : Long.toString(resolvedId) + docId.substring(sepIndex);
+    }
+
+    /**
+     * Get the aliases of the given files, in the documents matching the
+     * filters
+     *
+     * @param indexedIds ids of the files with indexed content
+     * @param filters filters the alias documents need to match
+     * @return ids of the aliases by id of the file with the indexed content
+     */
+    Map<Long, List<Long>> getAliases(Collection<Long> indexedIds, List<KeywordQueryFilter> filters) {
+        final Map<Long, List<Long>> aliases = new HashMap<Long, List<Long>>();
+        final List<Long> ids = new ArrayList<Long>(indexedIds);
+        for (int start = 0; start < ids.size(); start += MAX_IDS_PER_QUERY) {
+            final StringBuilder aliasOfQuery = new StringBuilder();
+            aliasOfQuery.append(Server.Schema.ALIAS_OF.toString()).append(":(");
+            for (int i = start; i < Math.min(ids.size(), start + MAX_IDS_PER_QUERY); ++i) {
+                if (i > start) {
+                    aliasOfQuery.append(" OR ");
+                }
+                aliasOfQuery.append(ids.get(i));
+            }
+            aliasOfQuery.append(")");
+            queryAliases(aliasOfQuery.toString(), filters, aliases);
+        }
+        return aliases;
+    }
+
+    /**
+     * Get all the aliases in the documents matching the filters. The result is
+     * kept until the next commit, as it is needed for every keyword searched
+     * with the same filters.
+     *
+     * @param filters filters the alias documents need to match
+     * @return ids of the aliases by id of the file with the indexed content
+     */
+    Map<Long, List<Long>> getAliases(List<KeywordQueryFilter> filters) {
+        final StringBuilder key = new StringBuilder();
+        for (KeywordQueryFilter filter : filters) {
+            key.append(filter.toString()).append('\n');
+        }
+        Map<Long, List<Long>> aliases = filteredAliases.get(key.toString());
+        if (aliases == null) {
+            aliases = new HashMap<Long, List<Long>>();
+            queryAliases(Server.Schema.ALIAS_OF.toString() + ":[* TO *]", filters, aliases);
+            filteredAliases.put(key.toString(), aliases);
+        }
+        return aliases;
+    }
+
+    /**
+     * Get filters matching the chunks of the given files, with up to
+     * MAX_IDS_PER_QUERY files per filter
+     *
+     * @param indexedIds ids of the files with indexed content
+     * @return filters, each to be used in a separate query
+     */
+    static List<KeywordQueryFilter> getChunkFilters(Collection<Long> indexedIds) {
+        final List<KeywordQueryFilter> chunkFilters = new ArrayList<KeywordQueryFilter>();
+        final List<Long> ids = new ArrayList<Long>(indexedIds);
+        for (int start = 0; start < ids.size(); start += MAX_IDS_PER_QUERY) {
+            final List<Long> batch = ids.subList(start, Math.min(ids.size(), start + MAX_IDS_PER_QUERY));
+            final long[] batchIds = new long[batch.size()];
+            for (int i = 0; i < batchIds.length; ++i) {
+                batchIds[i] = batch.get(i);
+            }
+            chunkFilters.add(new KeywordQueryFilter(KeywordQueryFilter.FilterType.CHUNK, batchIds));
+        }
+        return chunkFilters;
+    }
+
+    /**
+     * Add the alias documents matching the query and the filters to the map
+     */
+    private void queryAliases(String aliasQuery, List<KeywordQueryFilter> filters, Map<Long, List<Long>> aliases) {
+        final SolrQuery q = new SolrQuery("*:*");
+        q.addFilterQuery(aliasQuery);
+        for (KeywordQueryFilter filter : filters) {
+            q.addFilterQuery(filter.toString());
+        }
+        q.setFields(Server.Schema.ID.toString(), Server.Schema.ALIAS_OF.toString());
+        q.setRows(ALIASES_PAGE_SIZE);
+
+        try {
+            boolean allFetched = false;
+            for (int start = 0; !allFetched; start += ALIASES_PAGE_SIZE) {
+                q.setStart(start);
+                //POST, as the filters can be long
+                final SolrDocumentList docs = server.query(q, METHOD.POST).getResults();
+                allFetched = start + ALIASES_PAGE_SIZE >= docs.getNumFound();
+                for (SolrDocument doc : docs) {
+                    final long aliasId = Long.parseLong((String) doc.getFieldValue(Server.Schema.ID.toString()));
+                    final long indexedId = ((Number) doc.getFieldValue(Server.Schema.ALIAS_OF.toString())).longValue();
+                    resolved.put(aliasId, indexedId);
+                    List<Long> ofIndexed = aliases.get(indexedId);
+                    if (ofIndexed == null) {
+                        ofIndexed = new ArrayList<Long>();
+                        aliases.put(indexedId, ofIndexed);
+                    }
+                    ofIndexed.add(aliasId);
+                }
+            }
+        } catch (KeywordSearchModuleException ex) {
+            logger.log(Level.WARNING, "Error querying the aliases: " + aliasQuery, ex);
+        } catch (NoOpenCoreException ex) {
+            logger.log(Level.WARNING, "Error querying the aliases: " + aliasQuery, ex);
+        }
+    }
+
+    /**
+     * Find the file whose content with the hash was indexed before this
+     * session
+     *
+     * @return id of the file, or null if none
+     */
+    private Long queryIndexedContent(String md5) {
+        try {
+            if (hadIndexedHashes == null) {
+                final SolrQuery any = new SolrQuery(Server.Schema.MD5.toString() + ":[* TO *]");
+                any.setRows(0);
+                hadIndexedHashes = server.query(any).getResults().getNumFound() > 0;
+            }
+            if (!hadIndexedHashes) {
+                //new index, the hashes indexed so far are all known
+                return null;
+            }
+
+            final SolrQuery q = new SolrQuery("*:*");
+            q.addFilterQuery(Server.Schema.MD5.toString() + ":" + md5);
+            q.setFields(Server.Schema.ID.toString());
+            q.setRows(1);
+            final SolrDocumentList docs = server.query(q).getResults();
+            if (docs.isEmpty()) {
+                return null;
+            }
+            return Long.parseLong((String) docs.get(0).getFieldValue(Server.Schema.ID.toString()));
+        } catch (KeywordSearchModuleException ex) {
+            logger.log(Level.WARNING, "Error looking up indexed content with hash: " + md5, ex);
+        } catch (NoOpenCoreException ex) {
+            logger.log(Level.WARNING, "Error looking up indexed content with hash: " + md5, ex);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.io.File;
+import org.apache.solr.client.solrj.SolrServer;
+import org.sleuthkit.autopsy.keywordsearch.Server.SolrServerNoPortException;
+
+/**
+ * Runs the index engine behind Server, and gives access to its cores.
+ *
+ * The Server, the Ingester and the queries only use the SolrServer returned
+ * for a core, so they work the same with any backend: the Solr server running
+ * in a separate process, accessed over HTTP, or the same Solr engine running
+ * in the application JVM.
+ */
+interface IndexBackend {
+
+    /**
+     * Available backends, selected with
+     * KeywordSearchSettings.setIndexBackend()
+     */
+    enum Type {
+
+        /**
+         * Solr in a separate Jetty process, accessed over HTTP on localhost
+         */
+        SOLR_PROCESS,
+        /**
+         * Solr and Lucene in the application JVM, with no HTTP or process
+         * startup costs
+         */
+        EMBEDDED
+    }
+
+    /**
+     * Start the engine. May return before it is ready, see isRunning().
+     *
+     * @throws KeywordSearchModuleException if the engine could not be started
+     * @throws SolrServerNoPortException if the engine needs a port that is not
+     * available
+     */
+    void start() throws KeywordSearchModuleException, SolrServerNoPortException;
+
+    /**
+     * Stop the engine, waiting until it is stopped
+     *
+     * @throws KeywordSearchModuleException if the engine could not be stopped
+     */
+    void stop() throws KeywordSearchModuleException;
+
+    /**
+     * @return true if the engine is ready to open cores
+     * @throws KeywordSearchModuleException if the engine state could not be
+     * checked
+     */
+    boolean isRunning() throws KeywordSearchModuleException;
+
+    /**
+     * @return true if the engine runs in a separate process listening on the
+     * server ports
+     */
+    boolean usesServerPorts();
+
+    /**
+     * Open a core
+     *
+     * @param coreName name to refer to the core by
+     * @param dataDir directory to load/store the core data from/to, it exists
+     * @return server for all the operations on the core
+     * @throws KeywordSearchModuleException if the core could not be opened
+     */
+    SolrServer openCore(String coreName, File dataDir) throws KeywordSearchModuleException;
+
+    /**
+     * Close a core opened with openCore(), its server must not be used anymore
+     *
+     * @param coreName name of the core
+     * @throws KeywordSearchModuleException if the core could not be closed
+     */
+    void closeCore(String coreName) throws KeywordSearchModuleException;
+}
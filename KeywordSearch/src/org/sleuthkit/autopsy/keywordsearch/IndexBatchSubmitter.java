@@ -0,0 +1,255 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import org.apache.solr.common.SolrInputDocument;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Groups Solr documents into batches, by count or size, and sends the batches
+ * to the index with a small pool of sender threads, so that text extraction in
+ * the ingest thread overlaps with indexing.
+ *
+ * The size of documents submitted but not yet sent is capped, submit() blocks
+ * when the cap is reached until some batches have been sent. Documents that
+ * fail to be indexed are reported to the error listeners with the id of the
+ * file they belong to.
+ *
+ * Every document is stamped with the next index sequence number when it is
+ * submitted, so that searches can be restricted to the documents indexed since
+ * a previous search.
+ */
+class IndexBatchSubmitter {
+
+    /**
+     * Notified from the sender threads of documents that could not be indexed
+     */
+    interface ErrorListener {
+
+        /**
+         * @param sourceId id of the file the document belongs to
+         * @param docId id of the document, file id or chunk id
+         * @param ex cause of the error
+         */
+        void documentFailed(long sourceId, String docId, Exception ex);
+    }
+    private static final Logger logger = Logger.getLogger(IndexBatchSubmitter.class.getName());
+    //batch is sent when either limit is reached
+    private static final int MAX_BATCH_DOCS = 64;
+    private static final int MAX_BATCH_BYTES = 8 * 1024 * 1024;
+    private static final int NUM_SENDER_THREADS = 2;
+    //max. size of documents submitted and not sent yet, in KB
+    private static final int MAX_PENDING_KB = 48 * 1024;
+    private final Server solrServer;
+    private final ExecutorService senders;
+    private final Semaphore pendingKb = new Semaphore(MAX_PENDING_KB);
+    //first sequence numbers of the batches taken for sending and not sent yet, guarded by this
+    private final TreeSet<Long> unsentBatches = new TreeSet<Long>();
+    private final List<ErrorListener> errorListeners = new CopyOnWriteArrayList<ErrorListener>();
+    private final AtomicInteger senderThreadCount = new AtomicInteger(0);
+    private Batch currentBatch = new Batch();
+    //last sequence number stamped, starts from the time so it grows across runs on the same index
+    private long lastIndexSeq = System.currentTimeMillis() * 1000;
+
+    IndexBatchSubmitter(Server solrServer) {
+        this.solrServer = solrServer;
+        this.senders = Executors.newFixedThreadPool(NUM_SENDER_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "Solr batch sender " + senderThreadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    void addErrorListener(ErrorListener l) {
+        errorListeners.add(l);
+    }
+
+    void removeErrorListener(ErrorListener l) {
+        errorListeners.remove(l);
+    }
+
+    /**
+     * Add the document to the current batch, and send the batch if full.
+     * Blocks if too many bytes are pending.
+     *
+     * @param doc document to index
+     * @param sourceId id of the file the document belongs to
+     * @param size approx. size of the document in bytes
+     * @throws InterruptedException if interrupted while waiting for pending
+     * documents to be sent
+     */
+    void submit(SolrInputDocument doc, long sourceId, int size) throws InterruptedException {
+        final int kb = Math.min(MAX_PENDING_KB, size / 1024 + 1);
+        pendingKb.acquire(kb);
+
+        Batch toSend = null;
+        synchronized (this) {
+            final long indexSeq = ++lastIndexSeq;
+            doc.setField(Server.Schema.INDEX_SEQ.toString(), indexSeq);
+            currentBatch.add(doc, sourceId, kb, indexSeq);
+            if (currentBatch.docs.size() >= MAX_BATCH_DOCS
+                    || currentBatch.kb * 1024L >= MAX_BATCH_BYTES) {
+                //registered with the sequence numbers, so that a flush waits for it
+                toSend = currentBatch;
+                unsentBatches.add(toSend.firstIndexSeq);
+                currentBatch = new Batch();
+            }
+        }
+        if (toSend != null) {
+            send(toSend);
+        }
+    }
+
+    /**
+     * Send the current batch and wait until all submitted documents have been
+     * sent. Called before commit, so that the commit includes all of them.
+     * Concurrent flushes are not supported, callers must serialize them.
+     *
+     * @return sequence number of the last document sent, all documents up to
+     * it have been sent, or -1 if interrupted before they were
+     */
+    long flush() {
+        Batch toSend = null;
+        final long flushedSeq;
+        synchronized (this) {
+            if (!currentBatch.docs.isEmpty()) {
+                toSend = currentBatch;
+                unsentBatches.add(toSend.firstIndexSeq);
+                currentBatch = new Batch();
+            }
+            flushedSeq = lastIndexSeq;
+        }
+        if (toSend != null) {
+            send(toSend);
+        }
+
+        //wait for the batches with documents up to flushedSeq, including those
+        //still being handed to the senders by concurrent submits
+        synchronized (this) {
+            try {
+                while (!unsentBatches.isEmpty() && unsentBatches.first() <= flushedSeq) {
+                    wait();
+                }
+            } catch (InterruptedException ex) {
+                logger.log(Level.WARNING, "Interrupted while waiting for documents to be sent to the index");
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+        return flushedSeq;
+    }
+
+    /**
+     * Send the batch in a sender thread. The batch must have been registered
+     * in unsentBatches, it is removed when sent.
+     */
+    private void send(final Batch batch) {
+        senders.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sendBatch(batch);
+                } catch (RuntimeException ex) {
+                    logger.log(Level.WARNING, "Error sending documents to the index", ex);
+                } finally {
+                    pendingKb.release(batch.kb);
+                    synchronized (IndexBatchSubmitter.this) {
+                        unsentBatches.remove(batch.firstIndexSeq);
+                        IndexBatchSubmitter.this.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    private void sendBatch(Batch batch) {
+        try {
+            solrServer.addDocuments(batch.docs);
+            return;
+        } catch (KeywordSearchModuleException ex) {
+            logger.log(Level.WARNING, "Could not index batch of " + batch.docs.size()
+                    + " documents, retrying documents one by one", ex);
+        } catch (NoOpenCoreException ex) {
+            notifyFailed(batch, ex);
+            return;
+        }
+
+        //isolate the documents the index rejects
+        for (int i = 0; i < batch.docs.size(); ++i) {
+            final SolrInputDocument doc = batch.docs.get(i);
+            try {
+                solrServer.addDocuments(Collections.singletonList(doc));
+            } catch (KeywordSearchModuleException | NoOpenCoreException ex) {
+                notifyFailed(batch.sourceIds.get(i), doc, ex);
+            }
+        }
+    }
+
+    private void notifyFailed(Batch batch, Exception ex) {
+        for (int i = 0; i < batch.docs.size(); ++i) {
+            notifyFailed(batch.sourceIds.get(i), batch.docs.get(i), ex);
+        }
+    }
+
+    private void notifyFailed(long sourceId, SolrInputDocument doc, Exception ex) {
+        final String docId = String.valueOf(doc.getFieldValue(Server.Schema.ID.toString()));
+        logger.log(Level.WARNING, "Could not index document: " + docId + ", file: " + sourceId);
+        for (ErrorListener l : errorListeners) {
+            try {
+                l.documentFailed(sourceId, docId, ex);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Index error listener threw exception", e);
+            }
+        }
+    }
+
+    /**
+     * Documents sent in one request, with the ids of the files they belong to
+     */
+    private static class Batch {
+
+        private final List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+        private final List<Long> sourceIds = new ArrayList<Long>();
+        private int kb = 0;
+        private long firstIndexSeq = -1;
+
+        void add(SolrInputDocument doc, long sourceId, int docKb, long indexSeq) {
+            if (docs.isEmpty()) {
+                firstIndexSeq = indexSeq;
+            }
+            docs.add(doc);
+            sourceIds.add(sourceId);
+            kb += docKb;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.IngestMetrics;
+
+/**
+ * Decides when to commit the index during ingest, from the number and size of
+ * the documents not committed yet, and runs the commits on its own thread, so
+ * that the ingest threads never wait for a commit.
+ *
+ * Soft commits make the new documents searchable without syncing the index to
+ * disk, they are run often. Hard commits sync the index to disk without
+ * opening a new searcher, they are run rarely. The minimum time between two
+ * commits of a type grows with the cost of the last one, so that commits never
+ * take more than a small fraction of the ingest time, however large the index.
+ */
+class IndexCommitScheduler {
+
+    /**
+     * Types of commits
+     */
+    enum CommitType {
+
+        /**
+         * New documents are searchable, the index is not synced to disk
+         */
+        SOFT,
+        /**
+         * Index is synced to disk, no new searcher is opened
+         */
+        HARD,
+        /**
+         * Index is synced to disk and new documents are searchable
+         */
+        FULL
+    }
+
+    /**
+     * Notified from the committing thread before every commit, and after every
+     * successful commit
+     */
+    interface CommitListener {
+
+        /**
+         * Called holding the commit lock of the ingester, before the queued
+         * documents are sent. Documents queued before this call are included in
+         * the commit.
+         *
+         * @param type type of the commit
+         */
+        void beforeCommit(CommitType type);
+
+        /**
+         * @param type type of the commit
+         * @param costMs time the commit took, including sending the queued
+         * documents
+         */
+        void indexCommitted(CommitType type, long costMs);
+    }
+    private static final Logger logger = Logger.getLogger(IndexCommitScheduler.class.getName());
+    private static final int CHECK_INTERVAL_MS = 1000;
+    //soft commit when either limit is reached
+    private static final int SOFT_COMMIT_DOCS = 1000;
+    private static final long SOFT_COMMIT_BYTES = 32 * 1024 * 1024L;
+    private static final int MIN_SOFT_COMMIT_INTERVAL_MS = 10 * 1000;
+    //any document not searchable yet is made searchable within this time
+    private static final int MAX_SOFT_COMMIT_INTERVAL_MS = 60 * 1000;
+    //hard commit when either limit is reached
+    private static final int HARD_COMMIT_DOCS = 25000;
+    private static final long HARD_COMMIT_BYTES = 512 * 1024 * 1024L;
+    private static final int MIN_HARD_COMMIT_INTERVAL_MS = 60 * 1000;
+    private static final int MAX_HARD_COMMIT_INTERVAL_MS = 10 * 60 * 1000;
+    //commits of a type take at most 1/COMMIT_COST_RATIO of the time
+    private static final int COMMIT_COST_RATIO = 10;
+    private final Ingester ingester;
+    private final List<CommitListener> listeners = new CopyOnWriteArrayList<CommitListener>();
+    private final Pending sinceSoftCommit = new Pending();
+    private final Pending sinceHardCommit = new Pending();
+    private volatile long lastSoftCommitTime = System.currentTimeMillis();
+    private volatile long lastHardCommitTime = System.currentTimeMillis();
+    private volatile long lastSoftCommitCost = 0;
+    private volatile long lastHardCommitCost = 0;
+    private ScheduledExecutorService executor;
+
+    IndexCommitScheduler(Ingester ingester) {
+        this.ingester = ingester;
+        IngestMetrics.getDefault().registerGauge(IngestMetrics.SOLR_UNCOMMITTED_DOCS, new IngestMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return sinceSoftCommit.docs.get();
+            }
+        });
+    }
+
+    void addCommitListener(CommitListener l) {
+        listeners.add(l);
+    }
+
+    void removeCommitListener(CommitListener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Start checking if a commit is due, until stop()
+     */
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        lastSoftCommitTime = lastHardCommitTime = System.currentTimeMillis();
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "Solr commit scheduler");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkCommit();
+                } catch (Exception e) {
+                    //keep the checks scheduled
+                    logger.log(Level.WARNING, "Error running scheduled index commit", e);
+                }
+            }
+        }, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the scheduled commits, a commit in progress completes. The caller
+     * is responsible for the final commit.
+     */
+    synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Account for a document sent to the index and not committed yet
+     *
+     * @param bytes approx. size of the document
+     */
+    void documentAdded(long bytes) {
+        sinceSoftCommit.add(bytes);
+        sinceHardCommit.add(bytes);
+    }
+
+    /**
+     * @return number of documents sent since the last commit making documents
+     * searchable
+     */
+    long getUncommittedDocs() {
+        return sinceSoftCommit.docs.get();
+    }
+
+    /**
+     * Called by the ingester, holding its commit lock, before a commit
+     *
+     * @return the documents the commit will include, to pass to committed()
+     */
+    long[] beforeCommit(CommitType type) {
+        for (CommitListener l : listeners) {
+            try {
+                l.beforeCommit(type);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Index commit listener threw exception", e);
+            }
+        }
+        final Pending pending = type == CommitType.HARD ? sinceHardCommit : sinceSoftCommit;
+        return new long[]{pending.docs.get(), pending.bytes.get(), sinceHardCommit.docs.get(), sinceHardCommit.bytes.get()};
+    }
+
+    /**
+     * Called by the ingester after a successful commit
+     *
+     * @param type type of the commit
+     * @param included documents included, from beforeCommit()
+     * @param costMs time the commit took
+     */
+    void committed(CommitType type, long[] included, long costMs) {
+        final long now = System.currentTimeMillis();
+        switch (type) {
+            case SOFT:
+                sinceSoftCommit.remove(included[0], included[1]);
+                lastSoftCommitTime = now;
+                lastSoftCommitCost = costMs;
+                IngestMetrics.getDefault().setValue(IngestMetrics.SOLR_SOFT_COMMIT_LATENCY, costMs);
+                break;
+            case HARD:
+                sinceHardCommit.remove(included[0], included[1]);
+                lastHardCommitTime = now;
+                lastHardCommitCost = costMs;
+                IngestMetrics.getDefault().setValue(IngestMetrics.SOLR_COMMIT_LATENCY, costMs);
+                break;
+            case FULL:
+                sinceSoftCommit.remove(included[0], included[1]);
+                sinceHardCommit.remove(included[2], included[3]);
+                lastSoftCommitTime = lastHardCommitTime = now;
+                lastHardCommitCost = costMs;
+                IngestMetrics.getDefault().setValue(IngestMetrics.SOLR_COMMIT_LATENCY, costMs);
+                break;
+        }
+        logger.log(Level.INFO, "Index " + type + " commit took " + costMs + " ms");
+
+        for (CommitListener l : listeners) {
+            try {
+                l.indexCommitted(type, costMs);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Index commit listener threw exception", e);
+            }
+        }
+    }
+
+    /**
+     * Run a commit if one is due, on the scheduler thread
+     */
+    private void checkCommit() {
+        final long now = System.currentTimeMillis();
+
+        final long sinceHard = now - lastHardCommitTime;
+        if (sinceHardCommit.docs.get() > 0
+                && sinceHard >= Math.max(MIN_HARD_COMMIT_INTERVAL_MS, COMMIT_COST_RATIO * lastHardCommitCost)
+                && (sinceHardCommit.docs.get() >= HARD_COMMIT_DOCS
+                || sinceHardCommit.bytes.get() >= HARD_COMMIT_BYTES
+                || sinceHard >= MAX_HARD_COMMIT_INTERVAL_MS)) {
+            ingester.commit(CommitType.HARD);
+            return;
+        }
+
+        final long sinceSoft = now - lastSoftCommitTime;
+        if (sinceSoftCommit.docs.get() > 0
+                && sinceSoft >= Math.max(MIN_SOFT_COMMIT_INTERVAL_MS, COMMIT_COST_RATIO * lastSoftCommitCost)
+                && (sinceSoftCommit.docs.get() >= SOFT_COMMIT_DOCS
+                || sinceSoftCommit.bytes.get() >= SOFT_COMMIT_BYTES
+                || sinceSoft >= MAX_SOFT_COMMIT_INTERVAL_MS)) {
+            ingester.commit(CommitType.SOFT);
+        }
+    }
+
+    /**
+     * Documents not included yet in a commit of a type
+     */
+    private static class Pending {
+
+        private final AtomicLong docs = new AtomicLong(0);
+        private final AtomicLong bytes = new AtomicLong(0);
+
+        void add(long docBytes) {
+            docs.incrementAndGet();
+            bytes.addAndGet(docBytes);
+        }
+
+        void remove(long numDocs, long numBytes) {
+            docs.addAndGet(-numDocs);
+            bytes.addAndGet(-numBytes);
+        }
+    }
+}
@@ -65,13 +65,20 @@ public class Ingester {
     private boolean uncommitedIngests = false;
     private final ExecutorService upRequestExecutor = Executors.newSingleThreadExecutor();
     private final Server solrServer = KeywordSearch.getServer();
+    //sends documents to the index in batches, off the ingest thread
+    private final IndexBatchSubmitter batchSubmitter = new IndexBatchSubmitter(solrServer);
+    //commits the index during ingest, off the ingest threads
+    private final IndexCommitScheduler commitScheduler = new IndexCommitScheduler(this);
+    //index sequence number of the last document included in a successful commit
+    private volatile long committedIndexSeq = -1;
     private final GetContentFieldsV getContentFieldsV = new GetContentFieldsV();
     private static Ingester instance;
    
     //for ingesting chunk as SolrInputDocument (non-content-streaming, by-pass tika)
     //TODO use a streaming way to add content to /update handler
     private final static int MAX_DOC_CHUNK_SIZE = 1024*1024;
-    private final byte[] docChunkContentBuf = new byte[MAX_DOC_CHUNK_SIZE];
+    //chunk read buffers are pooled, so that chunks can be ingested from several threads
+    private final ExtractBufferPool bufferPool = ExtractBufferPool.getDefault();
     private static final String docContentEncoding = "UTF-8";
 
 
@@ -106,7 +113,7 @@ public class Ingester {
      */
     void ingest(AbstractFileStringContentStream afscs) throws IngesterException {
         Map<String, String> params = getContentFields(afscs.getSourceContent());
-        ingest(afscs, params, afscs.getSourceContent().getSize());
+        ingest(afscs.getSourceContent(), afscs, params, afscs.getSourceContent().getSize());
     }
 
     /**
@@ -124,8 +131,31 @@ public class Ingester {
         Map<String, String> params = getContentFields(fe.getSourceFile());
 
         params.put(Server.Schema.NUM_CHUNKS.toString(), Integer.toString(fe.getNumChunks()));
+        //files with the same hash are indexed as aliases of this one
+        final String md5 = solrServer.getAliases().removeContentHash(fe.getSourceFile().getId());
+        if (md5 != null) {
+            params.put(Server.Schema.MD5.toString(), md5);
+        }
+
+        ingest(fe.getSourceFile(), new NullContentStream(fe.getSourceFile()), params, 0);
+    }
+
+    /**
+     * Sends the metadata of a file with the same content as an indexed file
+     * to Solr, as an alias document referring to the indexed file, whose
+     * chunks are searched and shown for both. commit() should be called once
+     * you're done ingesting files.
+     *
+     * @param file file to ingest
+     * @param indexedId id of the file with the same content already indexed
+     * @throws IngesterException if there was an error processing a specific
+     * file, but the Solr server is probably fine.
+     */
+    void ingestAlias(AbstractFile file, long indexedId) throws IngesterException {
+        Map<String, String> params = getContentFields(file);
+        params.put(Server.Schema.ALIAS_OF.toString(), Long.toString(indexedId));
 
-        ingest(new NullContentStream(fe.getSourceFile()), params, 0);
+        ingest(file, new NullContentStream(file), params, 0);
     }
 
     /**
@@ -147,7 +177,7 @@ public class Ingester {
         params.put(Server.Schema.ID.toString(),
                 Server.getChunkIdString(sourceContent.getId(), fec.getChunkId()));
 
-        ingest(bcs, params, size);
+        ingest(sourceContent, bcs, params, size);
     }
 
     /**
@@ -164,9 +194,9 @@ public class Ingester {
      */
     void ingest(AbstractFile file, boolean ingestContent) throws IngesterException {
         if (ingestContent == false || file.isDir()) {
-            ingest(new NullContentStream(file), getContentFields(file), 0);
+            ingest(file, new NullContentStream(file), getContentFields(file), 0);
         } else {
-            ingest(new FscContentStream(file), getContentFields(file), file.getSize());
+            ingest(file, new FscContentStream(file), getContentFields(file), file.getSize());
         }
     }
 
@@ -247,12 +277,17 @@ public class Ingester {
      * e.g. with XMLUpdateRequestHandler (deprecated in SOlr 4.0.0), see if possible 
      * to stream with UpdateRequestHandler
      * 
+     * The document is sent to Solr asynchronously, in a batch with other
+     * documents. Errors indexing it are reported to the listeners added with
+     * addIndexErrorListener().
+     * 
+     * @param source content the document belongs to
      * @param cs
      * @param fields
      * @param size
      * @throws org.sleuthkit.autopsy.keywordsearch.Ingester.IngesterException 
      */
-    private void ingest(ContentStream cs, Map<String, String> fields, final long size) throws IngesterException {
+    private void ingest(AbstractContent source, ContentStream cs, Map<String, String> fields, final long size) throws IngesterException {
         
         if (fields.get(Server.Schema.IMAGE_ID.toString()) == null) {
             //skip the file, image id unknown
@@ -269,35 +304,39 @@ public class Ingester {
 
         //using size here, but we are no longer ingesting entire files
         //size is normally a chunk size, up to 1MB
-    
+        int read = 0;
         if (size > 0) {
  
             InputStream is = null;
-            int read = 0;
+            byte[] docChunkContentBuf = null;
             try {
+                docChunkContentBuf = bufferPool.getBytes(MAX_DOC_CHUNK_SIZE);
                 is = cs.getStream();
                 read = is.read(docChunkContentBuf);
+
+                if (read > 0) {
+                    String s = "";
+                    try {
+                        s = new String(docChunkContentBuf, 0, read, docContentEncoding);
+                    } catch (UnsupportedEncodingException ex) {
+                        Exceptions.printStackTrace(ex);
+                    }
+                    updateDoc.addField(Server.Schema.CONTENT.toString(), s);
+                } else {
+                    updateDoc.addField(Server.Schema.CONTENT.toString(), "");
+                }
             } catch (IOException ex) {
                 throw new IngesterException("Could not read content stream: " + cs.getName());
             } finally {
+                bufferPool.release(docChunkContentBuf);
                 try {
-                    is.close();
+                    if (is != null) {
+                        is.close();
+                    }
                 } catch (IOException ex) {
                     logger.log(Level.WARNING, "Could not close input stream after reading content, " + cs.getName(), ex);
                 }
             }
-
-            if (read != 0) {
-                String s = "";
-                try {
-                    s = new String(docChunkContentBuf, 0, read, docContentEncoding);
-                } catch (UnsupportedEncodingException ex) {
-                    Exceptions.printStackTrace(ex);
-                }
-                updateDoc.addField(Server.Schema.CONTENT.toString(), s);
-            } else {
-                updateDoc.addField(Server.Schema.CONTENT.toString(), "");
-            }
         }
         else {
             //no content, such as case when 0th chunk indexed
@@ -306,11 +345,13 @@ public class Ingester {
         
 
         try {
-            //TODO consider timeout thread, or vary socket timeout based on size of indexed content
-            solrServer.addDocument(updateDoc);
+            //the document holds its own copy of the content, the buffer is back in the pool
+            batchSubmitter.submit(updateDoc, source.getId(), Math.max(0, read));
+            commitScheduler.documentAdded(Math.max(0, read));
             uncommitedIngests = true;
-        } catch (KeywordSearchModuleException ex) {
-            throw new IngesterException("Error ingestint document: " + cs.getName(), ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IngesterException("Interrupted while queuing document for indexing: " + cs.getName(), ex);
         }
 
 
@@ -354,6 +395,7 @@ public class Ingester {
         } catch (Exception e) {
             throw new IngesterException("Problem posting content to Solr, id: " + fields.get("id") + ", name: " + fields.get("file_name"), e);
         }
+        commitScheduler.documentAdded(size);
         uncommitedIngests = true;
     }
 
@@ -447,19 +489,102 @@ public class Ingester {
         }
     }
 
+    /**
+     * Add listener notified of documents that could not be indexed. The
+     * listener is called from the threads sending the documents to Solr.
+     *
+     * @param l listener to add
+     */
+    void addIndexErrorListener(IndexBatchSubmitter.ErrorListener l) {
+        batchSubmitter.addErrorListener(l);
+    }
+
+    void removeIndexErrorListener(IndexBatchSubmitter.ErrorListener l) {
+        batchSubmitter.removeErrorListener(l);
+    }
+
+    /**
+     * Get the index sequence number up to which all documents sent by this
+     * ingester are searchable. Used as the upper bound of incremental
+     * searches, with KeywordQueryFilter.FilterType.INDEX_SEQ.
+     *
+     * @return sequence number of the last committed document, -1 if nothing
+     * has been committed yet
+     */
+    long getCommittedIndexSeq() {
+        return committedIndexSeq;
+    }
+
+    /**
+     * Start committing the index on its own thread, when enough documents
+     * have been sent since the last commit. Commits already running are not
+     * affected by stopCommitScheduler(), and the final commit is up to the
+     * caller.
+     */
+    void startCommitScheduler() {
+        commitScheduler.start();
+    }
+
+    void stopCommitScheduler() {
+        commitScheduler.stop();
+    }
+
+    /**
+     * Add listener notified after every successful commit, scheduled or not.
+     * The listener is called from the committing thread.
+     *
+     * @param l listener to add
+     */
+    void addCommitListener(IndexCommitScheduler.CommitListener l) {
+        commitScheduler.addCommitListener(l);
+    }
+
+    void removeCommitListener(IndexCommitScheduler.CommitListener l) {
+        commitScheduler.removeCommitListener(l);
+    }
+
+    /**
+     * @return number of documents sent and not searchable yet
+     */
+    long getUncommittedDocs() {
+        return commitScheduler.getUncommittedDocs();
+    }
+
     /**
      * Tells Solr to commit (necessary before ingested files will appear in
-     * searches)
+     * searches). Documents queued for indexing are sent first.
      */
     void commit() {
+        commit(IndexCommitScheduler.CommitType.FULL);
+    }
+
+    /**
+     * Send the documents queued for indexing and commit them
+     *
+     * @param type SOFT to make the documents searchable, HARD to sync the
+     * index to disk, FULL for both
+     * @return true if the commit succeeded
+     */
+    synchronized boolean commit(IndexCommitScheduler.CommitType type) {
+        final long[] included = commitScheduler.beforeCommit(type);
+        final long start = System.currentTimeMillis();
+        final long flushedSeq = batchSubmitter.flush();
         try {
-            solrServer.commit();
-            uncommitedIngests = false;
+            solrServer.commit(type);
+            if (type != IndexCommitScheduler.CommitType.HARD) {
+                uncommitedIngests = false;
+                if (flushedSeq > committedIndexSeq) {
+                    committedIndexSeq = flushedSeq;
+                }
+            }
+            commitScheduler.committed(type, included, System.currentTimeMillis() - start);
+            return true;
         } catch (NoOpenCoreException ex) {
             logger.log(Level.WARNING, "Error commiting index", ex);
         } catch (SolrServerException ex) {
             logger.log(Level.WARNING, "Error commiting index", ex);
         }
+        return false;
     }
 
     /**
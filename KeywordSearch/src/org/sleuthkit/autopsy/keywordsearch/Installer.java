@@ -94,7 +94,8 @@ public class Installer extends ModuleInstall {
             //TODO move some of this logic to Server class
             for (int i = 0; i <= 3; i++) {
                 logger.log(Level.INFO, "Checking if port available.");
-                if (Server.available(server.getCurrentSolrServerPort())) {
+                //the embedded index backend does not listen on any port
+                if (!server.usesServerPorts() || Server.available(server.getCurrentSolrServerPort())) {
                     logger.log(Level.INFO, "Port available, trying to start server.");
                     server.start();
                     break;
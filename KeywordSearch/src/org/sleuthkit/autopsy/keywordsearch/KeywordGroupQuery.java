@@ -0,0 +1,215 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest.METHOD;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Finds which of many literal keywords have hits, with a single Solr request
+ * per group of keywords instead of one request per keyword.
+ *
+ * Each keyword of the group is sent as a facet query of a request returning no
+ * documents, and the facet counts attribute the hits back to the keywords.
+ * Only the keywords with hits need to be queried one by one, with LuceneQuery,
+ * to get the hit documents. The filters of the group apply to all of its
+ * keywords, the same filters should be set on the LuceneQuery of each keyword.
+ */
+class KeywordGroupQuery {
+
+    private static final Logger logger = Logger.getLogger(KeywordGroupQuery.class.getName());
+    //max. facet queries per request, larger groups are split
+    private static final int MAX_KEYWORDS_PER_REQUEST = 256;
+    private static final int NUM_QUERY_THREADS = 3;
+    private static ExecutorService queryExecutor;
+    private static final AtomicInteger queryThreadCount = new AtomicInteger(0);
+    private final List<Keyword> keywords = new ArrayList<Keyword>();
+    private final List<KeywordQueryFilter> filters = new ArrayList<KeywordQueryFilter>();
+
+    void addKeyword(Keyword keyword) {
+        if (!keyword.isLiteral()) {
+            throw new IllegalArgumentException("Only literal keywords can be grouped: " + keyword.getQuery());
+        }
+        keywords.add(keyword);
+    }
+
+    void addFilter(KeywordQueryFilter filter) {
+        filters.add(filter);
+    }
+
+    List<Keyword> getKeywords() {
+        return keywords;
+    }
+
+    /**
+     * Run the groups concurrently, on a small pool of query threads
+     *
+     * @param groups groups to run
+     * @return keywords of all the groups that have hits. Keywords of a group
+     * whose request failed are all included, so that they are searched one by
+     * one.
+     * @throws NoOpenCoreException if there is no open core
+     * @throws InterruptedException if interrupted while waiting for the groups
+     */
+    static Set<Keyword> performQueries(Collection<KeywordGroupQuery> groups) throws NoOpenCoreException, InterruptedException {
+        final ExecutorService executor = getQueryExecutor();
+        final List<Future<Set<Keyword>>> futures = new ArrayList<Future<Set<Keyword>>>();
+        final List<KeywordGroupQuery> parts = new ArrayList<KeywordGroupQuery>();
+        for (KeywordGroupQuery group : groups) {
+            for (final KeywordGroupQuery part : group.split()) {
+                parts.add(part);
+                futures.add(executor.submit(new Callable<Set<Keyword>>() {
+                    @Override
+                    public Set<Keyword> call() throws Exception {
+                        return part.performQuery();
+                    }
+                }));
+            }
+        }
+
+        final Set<Keyword> withHits = new HashSet<Keyword>();
+        try {
+            for (int i = 0; i < futures.size(); ++i) {
+                try {
+                    withHits.addAll(futures.get(i).get());
+                } catch (ExecutionException ex) {
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof NoOpenCoreException) {
+                        throw (NoOpenCoreException) cause;
+                    }
+                    logger.log(Level.WARNING, "Error running grouped keyword query, keywords will be searched one by one", cause);
+                    withHits.addAll(parts.get(i).keywords);
+                }
+            }
+        } finally {
+            for (Future<Set<Keyword>> f : futures) {
+                f.cancel(true);
+            }
+        }
+        return withHits;
+    }
+
+    /**
+     * Perform the query of the group, in a single request, and in a request
+     * per batch of files with the content of the aliases in the filtered
+     * documents, if any
+     *
+     * @return keywords of the group with hits
+     * @throws NoOpenCoreException if there is no open core
+     * @throws KeywordSearchModuleException if the request failed
+     */
+    Set<Keyword> performQuery() throws NoOpenCoreException, KeywordSearchModuleException {
+        final Set<Keyword> withHits = performQuery(keywords, filters);
+        if (filters.isEmpty() || withHits.size() == keywords.size()) {
+            return withHits;
+        }
+
+        //the indexed content of the aliases may be in documents not matching the filters
+        final Map<Long, List<Long>> aliases = KeywordSearch.getServer().getAliases().getAliases(filters);
+        for (KeywordQueryFilter chunkFilter : IndexAliases.getChunkFilters(aliases.keySet())) {
+            final List<Keyword> withoutHits = new ArrayList<Keyword>(keywords);
+            withoutHits.removeAll(withHits);
+            if (withoutHits.isEmpty()) {
+                break;
+            }
+            withHits.addAll(performQuery(withoutHits, Collections.singletonList(chunkFilter)));
+        }
+        return withHits;
+    }
+
+    /**
+     * Find which of the keywords have hits in the documents matching the
+     * filters, in a single request
+     *
+     * @return keywords with hits
+     */
+    private static Set<Keyword> performQuery(List<Keyword> keywords, List<KeywordQueryFilter> filters) throws NoOpenCoreException, KeywordSearchModuleException {
+        final SolrQuery q = new SolrQuery();
+        q.setQuery("*:*");
+        q.setRows(0);
+        for (KeywordQueryFilter filter : filters) {
+            q.addFilterQuery(filter.toString());
+        }
+        q.setFacet(true);
+        for (int i = 0; i < keywords.size(); ++i) {
+            //same query string as LuceneQuery, keyed by the keyword index
+            final String queryEscaped = KeywordSearchUtil.escapeLuceneQuery(keywords.get(i).getQuery());
+            q.addFacetQuery("{!key=" + i + "}" + KeywordSearchUtil.quoteQuery(queryEscaped));
+        }
+
+        //POST, as a large group does not fit in a URL
+        final QueryResponse response = KeywordSearch.getServer().query(q, METHOD.POST);
+        final Set<Keyword> withHits = new HashSet<Keyword>();
+        final Map<String, Integer> counts = response.getFacetQuery();
+        if (counts == null) {
+            return withHits;
+        }
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            if (count.getValue() != null && count.getValue() > 0) {
+                withHits.add(keywords.get(Integer.parseInt(count.getKey())));
+            }
+        }
+        return withHits;
+    }
+
+    /**
+     * Split the group into groups small enough for a single request
+     */
+    private List<KeywordGroupQuery> split() {
+        final List<KeywordGroupQuery> parts = new ArrayList<KeywordGroupQuery>();
+        for (int start = 0; start < keywords.size(); start += MAX_KEYWORDS_PER_REQUEST) {
+            final KeywordGroupQuery part = new KeywordGroupQuery();
+            part.keywords.addAll(keywords.subList(start, Math.min(keywords.size(), start + MAX_KEYWORDS_PER_REQUEST)));
+            part.filters.addAll(filters);
+            parts.add(part);
+        }
+        return parts;
+    }
+
+    private static synchronized ExecutorService getQueryExecutor() {
+        if (queryExecutor == null) {
+            queryExecutor = Executors.newFixedThreadPool(NUM_QUERY_THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "Keyword group query " + queryThreadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return queryExecutor;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2013 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches literal keywords in extracted text as it is produced, before it is
+ * indexed, with an Aho-Corasick automaton of all the keywords. The cost of a
+ * scan is linear in the text length, whatever the number of keywords.
+ *
+ * Matching is case insensitive, and a keyword matches only at word boundaries,
+ * an approximation of the Solr phrase query of a literal keyword. The matcher
+ * is immutable once built and can be used by several threads at once.
+ */
+class KeywordInlineMatcher {
+
+    private final Node root = new Node();
+    private final List<Keyword> keywords = new ArrayList<Keyword>();
+    private final List<KeywordSearchListsAbstract.KeywordSearchList> lists = new ArrayList<KeywordSearchListsAbstract.KeywordSearchList>();
+    private final Map<Keyword, Integer> keywordIndex = new HashMap<Keyword, Integer>();
+    private final List<char[]> patterns = new ArrayList<char[]>();
+    private boolean built = false;
+
+    /**
+     * Add a literal keyword, before build()
+     *
+     * @param keyword literal keyword to match
+     * @param list list the keyword belongs to
+     */
+    void addKeyword(Keyword keyword, KeywordSearchListsAbstract.KeywordSearchList list) {
+        if (built) {
+            throw new IllegalStateException("Matcher already built");
+        }
+        final char[] pattern = toPattern(keyword.getQuery());
+        if (pattern.length == 0 || keywordIndex.containsKey(keyword)) {
+            return;
+        }
+        Node node = root;
+        for (char c : pattern) {
+            Node next = node.get(c);
+            if (next == null) {
+                next = node.add(c);
+            }
+            node = next;
+        }
+        node.addOutput(keywords.size());
+        keywords.add(keyword);
+        keywordIndex.put(keyword, keywords.size() - 1);
+        lists.add(list);
+        patterns.add(pattern);
+    }
+
+    /**
+     * Compute the failure links, after all keywords are added
+     *
+     * @return this matcher
+     */
+    KeywordInlineMatcher build() {
+        final Deque<Node> queue = new ArrayDeque<Node>();
+        for (Node child : root.next) {
+            child.fail = root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final Node node = queue.poll();
+            for (int i = 0; i < node.labels.length; ++i) {
+                final char c = node.labels[i];
+                final Node child = node.next[i];
+                Node f = node.fail;
+                while (f != root && f.get(c) == null) {
+                    f = f.fail;
+                }
+                final Node target = f.get(c);
+                child.fail = target != null ? target : root;
+                //nearest node on the failure chain that ends a keyword
+                child.outputLink = child.fail.outputs.length > 0 ? child.fail : child.fail.outputLink;
+                queue.add(child);
+            }
+        }
+        built = true;
+        return this;
+    }
+
+    boolean isEmpty() {
+        return keywords.isEmpty();
+    }
+
+    KeywordSearchListsAbstract.KeywordSearchList getList(Keyword keyword) {
+        final Integer i = keywordIndex.get(keyword);
+        return i == null ? null : lists.get(i);
+    }
+
+    /**
+     * Get the preview of a match, in the format of the Solr highlight snippets
+     *
+     * @param text text the keyword was found in
+     * @param keyword keyword found
+     * @param start offset of the match, from match()
+     * @return the match with up to LuceneQuery.SNIPPET_LENGTH chars of context
+     */
+    String getSnippet(CharSequence text, Keyword keyword, int start) {
+        final int end = start + patterns.get(keywordIndex.get(keyword)).length;
+        final int context = LuceneQuery.SNIPPET_LENGTH / 2;
+        final StringBuilder sb = new StringBuilder();
+        sb.append(text, Math.max(0, start - context), start);
+        sb.append('\u00AB').append(text, start, end).append('\u00AB');
+        sb.append(text, end, Math.min(text.length(), end + context));
+        return sb.toString().trim();
+    }
+
+    /**
+     * Scan the text for all the keywords, in a single pass
+     *
+     * @param text text to scan
+     * @return the keywords found, with the offset of their first match, in
+     * order of the first match
+     */
+    Map<Keyword, Integer> match(CharSequence text) {
+        final Map<Keyword, Integer> hits = new LinkedHashMap<Keyword, Integer>();
+        final int length = text.length();
+        Node state = root;
+        for (int i = 0; i < length; ++i) {
+            final char c = Character.toLowerCase(text.charAt(i));
+            Node next = state.get(c);
+            while (next == null && state != root) {
+                state = state.fail;
+                next = state.get(c);
+            }
+            state = next != null ? next : root;
+
+            for (Node out = state.outputs.length > 0 ? state : state.outputLink; out != null; out = out.outputLink) {
+                for (int k : out.outputs) {
+                    final Keyword keyword = keywords.get(k);
+                    if (hits.containsKey(keyword)) {
+                        continue;
+                    }
+                    final char[] pattern = patterns.get(k);
+                    final int start = i + 1 - pattern.length;
+                    if (isWordBoundary(text, start, pattern[0], true)
+                            && isWordBoundary(text, i + 1, pattern[pattern.length - 1], false)) {
+                        hits.put(keyword, start);
+                    }
+                }
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Check that the match does not start or end in the middle of a word
+     *
+     * @param offset offset of the start of the match, or of the char after its
+     * end
+     * @param patternChar first or last char of the pattern
+     * @param start true to check the start of the match, false for the end
+     */
+    private static boolean isWordBoundary(CharSequence text, int offset, char patternChar, boolean start) {
+        if (!Character.isLetterOrDigit(patternChar)) {
+            return true;
+        }
+        final int adjacent = start ? offset - 1 : offset;
+        return adjacent < 0 || adjacent >= text.length() || !Character.isLetterOrDigit(text.charAt(adjacent));
+    }
+
+    /**
+     * Get the chars to match for the keyword, lower case, without the quotes
+     * of a quoted phrase
+     */
+    private static char[] toPattern(String query) {
+        String pattern = query.trim();
+        if (pattern.length() > 1 && pattern.charAt(0) == '"' && pattern.charAt(pattern.length() - 1) == '"') {
+            pattern = pattern.substring(1, pattern.length() - 1).trim();
+        }
+        final char[] chars = pattern.toCharArray();
+        for (int i = 0; i < chars.length; ++i) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return chars;
+    }
+
+    /**
+     * Automaton state, with its transitions sorted by label
+     */
+    private static class Node {
+
+        private static final int[] NO_OUTPUTS = new int[0];
+        private char[] labels = new char[0];
+        private Node[] next = new Node[0];
+        private int[] outputs = NO_OUTPUTS;
+        private Node fail;
+        private Node outputLink;
+
+        Node get(char c) {
+            final int i = Arrays.binarySearch(labels, c);
+            return i >= 0 ? next[i] : null;
+        }
+
+        Node add(char c) {
+            final int i = -(Arrays.binarySearch(labels, c) + 1);
+            final Node child = new Node();
+            final char[] newLabels = new char[labels.length + 1];
+            final Node[] newNext = new Node[next.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, i);
+            System.arraycopy(next, 0, newNext, 0, i);
+            newLabels[i] = c;
+            newNext[i] = child;
+            System.arraycopy(labels, i, newLabels, i + 1, labels.length - i);
+            System.arraycopy(next, i, newNext, i + 1, next.length - i);
+            labels = newLabels;
+            next = newNext;
+            return child;
+        }
+
+        void addOutput(int keywordIndex) {
+            outputs = Arrays.copyOf(outputs, outputs.length + 1);
+            outputs[outputs.length - 1] = keywordIndex;
+        }
+    }
+}
@@ -22,12 +22,14 @@ package org.sleuthkit.autopsy.keywordsearch;
  *
  * Filter to restrict query only specific files, chunks, images
  * Single filter supports multiple ids per file/chunk/image, that act as OR filter
+ * INDEX_SEQ filter takes 2 ids, and restricts the query to documents indexed
+ * after the first and up to the second index sequence number
  */
 public class KeywordQueryFilter {
 
     public static enum FilterType {
 
-        FILE, CHUNK, IMAGE
+        FILE, CHUNK, IMAGE, INDEX_SEQ
     };
     private long[] idFilters;
     private FilterType filterType;
@@ -54,6 +56,16 @@ public class KeywordQueryFilter {
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
+        if (filterType == FilterType.INDEX_SEQ) {
+            //exclusive lower bound, inclusive upper bound
+            sb.append(Server.Schema.INDEX_SEQ.toString());
+            sb.append(":[");
+            sb.append(Long.toString(idFilters[0] + 1));
+            sb.append(" TO ");
+            sb.append(Long.toString(idFilters[1]));
+            sb.append("]");
+            return sb.toString();
+        }
         String id = null;
         for (int i = 0; i < idFilters.length; ++i) {
             if (i > 0) {
@@ -21,17 +21,22 @@ package org.sleuthkit.autopsy.keywordsearch;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.Long;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
@@ -49,19 +54,21 @@ import org.sleuthkit.autopsy.casemodule.Case;
 import org.sleuthkit.autopsy.coreutils.EscapeUtil;
 import org.sleuthkit.autopsy.coreutils.StopWatch;
 import org.sleuthkit.autopsy.coreutils.StringExtract.StringExtractUnicodeTable.SCRIPT;
+import org.sleuthkit.autopsy.ingest.BlackboardWriter;
+import org.sleuthkit.autopsy.ingest.FileSignature;
 import org.sleuthkit.autopsy.ingest.PipelineContext;
 import org.sleuthkit.autopsy.ingest.IngestServices;
 import org.sleuthkit.autopsy.ingest.IngestMessage;
 import org.sleuthkit.autopsy.ingest.IngestMessage.MessageType;
 import org.sleuthkit.autopsy.ingest.IngestModuleAbstractFile;
+import org.sleuthkit.autopsy.ingest.IngestModuleDeferredOutput;
 import org.sleuthkit.autopsy.ingest.IngestModuleInit;
-import org.sleuthkit.autopsy.ingest.ModuleDataEvent;
 import org.sleuthkit.autopsy.keywordsearch.Ingester.IngesterException;
 import org.sleuthkit.datamodel.BlackboardArtifact;
 import org.sleuthkit.datamodel.BlackboardArtifact.ARTIFACT_TYPE;
 import org.sleuthkit.datamodel.BlackboardAttribute;
 import org.sleuthkit.datamodel.AbstractFile;
-import org.sleuthkit.datamodel.ReadContentInputStream;
+import org.sleuthkit.datamodel.Hash;
 import org.sleuthkit.datamodel.SleuthkitCase;
 import org.sleuthkit.datamodel.TskCoreException;
 import org.sleuthkit.datamodel.TskData;
@@ -70,14 +77,15 @@ import org.sleuthkit.datamodel.TskData.FileKnown;
 /**
  * An ingest module on a file level Performs indexing of allocated and Solr
  * supported files, string extraction and indexing of unallocated and not Solr
- * supported files Index commit is done periodically (determined by user set
- * ingest update interval) Runs a periodic keyword / regular expression search
+ * supported files Index commit is scheduled by the ingester from the amount of
+ * uncommitted documents, off the ingest threads. Runs a periodic keyword /
+ * regular expression search (determined by user set ingest update interval)
  * on currently configured lists for ingest and writes results to blackboard
  * Reports interesting events to Inbox and to viewers
  *
  * Registered as a module in layer.xml
  */
-public final class KeywordSearchIngestModule implements IngestModuleAbstractFile {
+public final class KeywordSearchIngestModule implements IngestModuleAbstractFile, IngestModuleDeferredOutput {
 
     enum UpdateFrequency {
 
@@ -102,18 +110,22 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
     private static KeywordSearchIngestModule instance = null;
     private IngestServices services;
     private Ingester ingester = null;
-    private volatile boolean commitIndex = false; //whether to commit index next time
     private volatile boolean runSearcher = false; //whether to run searcher next time
     private List<Keyword> keywords; //keywords to search
     private List<String> keywordLists; // lists currently being searched
     private Map<String, KeywordSearchListsAbstract.KeywordSearchList> keywordToList; //keyword to list name mapping
-    private Timer commitTimer;
     private Timer searchTimer;
     private Indexer indexer;
     private Searcher currentSearcher;
     private Searcher finalSearcher;
     private volatile boolean searcherDone = true; //mark as done, until it's inited
+    //guarded by itself, also updated by inline matching in the ingest threads
     private Map<Keyword, List<Long>> currentResults;
+    //matches literal keywords in the extracted text, null if disabled
+    private volatile KeywordInlineMatcher inlineMatcher;
+    //index sequence number each keyword has been searched up to in this ingest
+    //accessed by the searcher thread holding the searcher lock
+    private Map<Keyword, Long> searchedIndexSeq;
     //only search images from current ingest, not images previously ingested/indexed
     //accessed read-only by searcher thread
     private Set<Long> curImageIds;
@@ -126,15 +138,69 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
     private SleuthkitCase caseHandle = null;
     private static List<AbstractFileExtract> textExtractors;
     private static AbstractFileStringExtract stringExtractor;
+    //parses documents in its own worker threads
+    private static AbstractFileTikaTextExtract tikaExtractor;
     private boolean initialized = false;
     private KeywordSearchConfigurationPanel panel;
     private Tika tikaFormatDetector;
 
     private enum IngestStatus {
 
-        INGESTED, EXTRACTED_INGESTED, SKIPPED, INGESTED_META
+        INGESTED, EXTRACTED_INGESTED, SKIPPED, INGESTED_META, INGESTED_ALIAS
     };
     private Map<Long, IngestStatus> ingestStatus;
+    //files with documents Solr failed to index, reported from the Solr sender threads
+    private final Set<Long> indexFailedIds = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private final IndexBatchSubmitter.ErrorListener indexErrorListener = new IndexBatchSubmitter.ErrorListener() {
+        @Override
+        public void documentFailed(long sourceId, String docId, Exception ex) {
+            indexFailedIds.add(sourceId);
+        }
+    };
+    //output mark of the files processed, incremented before every commit syncing the index
+    private final AtomicLong outputMark = new AtomicLong(0);
+    //output mark up to which the documents and hits are persisted
+    private volatile long persistedOutputMark = -1;
+    //output mark the commit in progress persists, if it succeeds
+    private volatile long committingOutputMark = -1;
+    //files queued for the Tika workers, count by output mark when queued, guarded by itself
+    private final TreeMap<Long, Integer> asyncOutputMarks = new TreeMap<Long, Integer>();
+    //set when the ingest is stopped, queued files are dropped and not persisted
+    private volatile boolean outputDropped = false;
+    //aliases of files whose content could not be indexed, indexed on their own by the next process() call
+    private final ConcurrentLinkedQueue<Long> unindexedAliasIds = new ConcurrentLinkedQueue<Long>();
+    //scheduled commits make new documents searchable, signal it to the viewers
+    private final IndexCommitScheduler.CommitListener commitListener = new IndexCommitScheduler.CommitListener() {
+        @Override
+        public void beforeCommit(IndexCommitScheduler.CommitType type) {
+            if (type == IndexCommitScheduler.CommitType.SOFT) {
+                return;
+            }
+            //files processed from now on get a higher mark
+            long covered = outputMark.getAndIncrement();
+            synchronized (asyncOutputMarks) {
+                if (!asyncOutputMarks.isEmpty()) {
+                    //documents of files still being parsed are not sent yet
+                    covered = Math.min(covered, asyncOutputMarks.firstKey() - 1);
+                }
+            }
+            committingOutputMark = covered;
+        }
+
+        @Override
+        public void indexCommitted(IndexCommitScheduler.CommitType type, long costMs) {
+            if (type != IndexCommitScheduler.CommitType.HARD) {
+                indexChangeNotify();
+            }
+            if (type != IndexCommitScheduler.CommitType.SOFT && !outputDropped) {
+                //write the inline hits of the committed files
+                BlackboardWriter.getDefault().flush();
+                if (committingOutputMark > persistedOutputMark) {
+                    persistedOutputMark = committingOutputMark;
+                }
+            }
+        }
+    };
 
     //private constructor to ensure singleton instance 
     private KeywordSearchIngestModule() {
@@ -172,12 +238,12 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
         //logger.log(Level.INFO, "hashdb result: " + hashDBResult + "file: " + AbstractFile.getName());
         if (hashDBResult == IngestModuleAbstractFile.ProcessResult.ERROR) {
             //index meta-data only
-            indexer.indexFile(abstractFile, false);
+            indexer.indexFile(abstractFile, pipelineContext.getFileSignature(abstractFile), false);
             //notify depending module that keyword search (would) encountered error for this file
             return ProcessResult.ERROR;
         } else if (KeywordSearchSettings.getSkipKnown() && abstractFile.getKnown().equals(FileKnown.KNOWN)) {
             //index meta-data only
-            indexer.indexFile(abstractFile, false);
+            indexer.indexFile(abstractFile, pipelineContext.getFileSignature(abstractFile), false);
             return ProcessResult.OK;
         }
 
@@ -185,11 +251,13 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
             processedFiles = true;
         }
 
-        //check if it's time to commit after previous processing
-        checkRunCommitSearch();
+        //check if it's time to search after previous processing
+        checkRunSearch();
+
+        indexer.indexUnindexedAliases();
 
         //index the file and content (if the content is supported)
-        indexer.indexFile(abstractFile, true);
+        indexer.indexFile(abstractFile, pipelineContext.getFileSignature(abstractFile), true);
 
 
         return ProcessResult.OK;
@@ -206,7 +274,7 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
         }
 
         //logger.log(Level.INFO, "complete()");
-        commitTimer.stop();
+        ingester.stopCommitScheduler();
 
         //NOTE, we let the 1 before last searcher complete fully, and enqueue the last one
 
@@ -217,6 +285,15 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
         }
         runSearcher = false;
 
+        //documents still being parsed by the Tika workers go in the final commit
+        try {
+            tikaExtractor.waitForQueued();
+        } catch (InterruptedException ex) {
+            logger.log(Level.WARNING, "Interrupted while waiting for Tika parses to complete");
+            Thread.currentThread().interrupt();
+        }
+        indexer.indexUnindexedAliases();
+
         logger.log(Level.INFO, "Running final index commit and search");
         //final commit
         commit();
@@ -256,8 +333,8 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
     public void stop() {
         logger.log(Level.INFO, "stop()");
 
-        //stop timer
-        commitTimer.stop();
+        //stop scheduled commits
+        ingester.stopCommitScheduler();
         //stop currentSearcher
         if (currentSearcher != null) {
             currentSearcher.cancel(true);
@@ -270,6 +347,13 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
         runSearcher = false;
         finalSearcherDone = true;
 
+        //drop files waiting for the Tika workers, and keep the persisted output mark
+        //where it is, the dropped files have to be processed again on resume
+        outputDropped = true;
+        if (tikaExtractor != null) {
+            tikaExtractor.cancelQueued();
+        }
+
 
         //commit uncommited files, don't search again
         commit();
@@ -283,20 +367,29 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
      * Common cleanup code when module stops or final searcher completes
      */
     private void cleanup() {
+        //write the inline hits still queued
+        BlackboardWriter.getDefault().flush();
+        ingester.removeIndexErrorListener(indexErrorListener);
+        ingester.removeCommitListener(commitListener);
         ingestStatus.clear();
-        currentResults.clear();
+        indexFailedIds.clear();
+        synchronized (currentResults) {
+            currentResults.clear();
+        }
+        inlineMatcher = null;
+        searchedIndexSeq.clear();
         curImageIds.clear();
         currentSearcher = null;
         //finalSearcher = null; //do not collect, might be finalizing
 
-        commitTimer.stop();
         searchTimer.stop();
-        commitTimer = null;
         searchTimer = null;
 
         textExtractors.clear();
         textExtractors = null;
         stringExtractor = null;
+        tikaExtractor.shutdown();
+        tikaExtractor = null;
 
         keywords.clear();
         keywordLists.clear();
@@ -312,6 +405,20 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
         return MODULE_NAME;
     }
 
+    /**
+     * Documents of the files processed so far are persisted by the next hard
+     * commit, once the Tika workers sent them
+     */
+    @Override
+    public long getOutputMark() {
+        return outputMark.get();
+    }
+
+    @Override
+    public long getPersistedOutputMark() {
+        return persistedOutputMark;
+    }
+
     @Override
     public String getDescription() {
         return MODULE_DESCRIPTION;
@@ -348,6 +455,17 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
         tikaFormatDetector = new Tika();
 
         ingester = Server.getIngester();
+        indexFailedIds.clear();
+        ingester.addIndexErrorListener(indexErrorListener);
+        //each file ingest thread and each Tika worker extracts at once
+        ExtractBufferPool.getDefault().setExtractionThreads(services.getNumFileIngestThreads()
+                + AbstractFileTikaTextExtract.NUM_PARSE_WORKERS);
+        outputDropped = false;
+        unindexedAliasIds.clear();
+        synchronized (asyncOutputMarks) {
+            asyncOutputMarks.clear();
+        }
+        ingester.addCommitListener(commitListener);
 
         final Server server = KeywordSearch.getServer();
         try {
@@ -385,10 +503,12 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
         textExtractors = new ArrayList<AbstractFileExtract>();
         //order matters, more specific extractors first
         textExtractors.add(new AbstractFileHtmlExtract());
-        textExtractors.add(new AbstractFileTikaTextExtract());
+        tikaExtractor = new AbstractFileTikaTextExtract();
+        textExtractors.add(tikaExtractor);
 
 
-        ingestStatus = new HashMap<Long, IngestStatus>();
+        //also updated from the Tika parse workers
+        ingestStatus = new ConcurrentHashMap<Long, IngestStatus>();
 
         keywords = new ArrayList<Keyword>();
         keywordLists = new ArrayList<String>();
@@ -405,21 +525,20 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
         searcherDone = true; //make sure to start the initial currentSearcher
         //keeps track of all results per run not to repeat reporting the same hits
         currentResults = new HashMap<Keyword, List<Long>>();
+        searchedIndexSeq = new HashMap<Keyword, Long>();
 
         curImageIds = new HashSet<Long>();
 
         indexer = new Indexer();
 
         final int updateIntervalMs = KeywordSearchSettings.getUpdateFrequency().getTime() * 60 * 1000;
-        logger.log(Level.INFO, "Using commit interval (ms): " + updateIntervalMs);
         logger.log(Level.INFO, "Using searcher interval (ms): " + updateIntervalMs);
 
-        commitTimer = new Timer(updateIntervalMs, new CommitTimerAction());
         searchTimer = new Timer(updateIntervalMs, new SearchTimerAction());
 
         initialized = true;
 
-        commitTimer.start();
+        ingester.startCommitScheduler();
         searchTimer.start();
     }
 
@@ -487,15 +606,14 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
     }
 
     /**
-     * Commits index and notifies listeners of index update
+     * Commits index, listeners of index update are notified by the commit
+     * listener
      */
     private void commit() {
         if (initialized) {
             logger.log(Level.INFO, "Commiting index");
             ingester.commit();
             logger.log(Level.INFO, "Index comitted");
-            //signal a potential change in number of indexed files
-            indexChangeNotify();
         }
     }
 
@@ -507,7 +625,10 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
         int indexed_meta = 0;
         int indexed_extr = 0;
         int skipped = 0;
-        for (IngestStatus s : ingestStatus.values()) {
+        int indexed_alias = 0;
+        for (Map.Entry<Long, IngestStatus> e : ingestStatus.entrySet()) {
+            //documents are indexed asynchronously, and might have failed after the status was set
+            final IngestStatus s = indexFailedIds.contains(e.getKey()) ? IngestStatus.SKIPPED : e.getValue();
             switch (s) {
                 case INGESTED:
                     ++indexed;
@@ -521,6 +642,9 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
                 case SKIPPED:
                     ++skipped;
                     break;
+                case INGESTED_ALIAS:
+                    ++indexed_alias;
+                    break;
                 default:
                     ;
             }
@@ -529,6 +653,7 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
         StringBuilder msg = new StringBuilder();
         msg.append("Indexed files: ").append(indexed).append("<br />Indexed strings: ").append(indexed_extr);
         msg.append("<br />Indexed meta-data only: ").append(indexed_meta).append("<br />");
+        msg.append("Indexed duplicates of indexed content: ").append(indexed_alias).append("<br />");
         msg.append("<br />Skipped files: ").append(skipped).append("<br />");
         String indexStats = msg.toString();
         logger.log(Level.INFO, "Keyword Indexing Completed: " + indexStats);
@@ -596,6 +721,73 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
 
         logger.log(Level.INFO, "Set new effective keyword lists: " + sb.toString());
 
+        inlineMatcher = KeywordSearchSettings.getInlineKeywordMatching() ? buildInlineMatcher(loader) : null;
+    }
+
+    /**
+     * Build the matcher of the literal keywords of the lists currently used
+     *
+     * @return the matcher, null if the lists have no literal keywords
+     */
+    private KeywordInlineMatcher buildInlineMatcher(KeywordSearchListsXML loader) {
+        final KeywordInlineMatcher matcher = new KeywordInlineMatcher();
+        for (String listName : keywordLists) {
+            final KeywordSearchListsAbstract.KeywordSearchList list = loader.getList(listName);
+            for (Keyword keyword : list.getKeywords()) {
+                if (keyword.isLiteral()) {
+                    matcher.addKeyword(keyword, list);
+                }
+            }
+        }
+        if (matcher.isEmpty()) {
+            return null;
+        }
+        return matcher.build();
+    }
+
+    /**
+     * Match the literal keywords in a chunk of extracted text, and report the
+     * hits right away, without waiting for the index to be committed and
+     * searched. Hits reported here are not reported again by the searcher.
+     * Called by the text extractors for each chunk they index.
+     *
+     * @param sourceFile file the text was extracted from
+     * @param chunkId id of the chunk of the text
+     * @param text text of the chunk
+     */
+    void matchInline(AbstractFile sourceFile, int chunkId, CharSequence text) {
+        final KeywordInlineMatcher matcher = inlineMatcher;
+        if (matcher == null) {
+            return;
+        }
+
+        int numHits = 0;
+        for (Map.Entry<Keyword, Integer> hit : matcher.match(text).entrySet()) {
+            final Keyword keyword = hit.getKey();
+            synchronized (currentResults) {
+                List<Long> hitFileIds = currentResults.get(keyword);
+                if (hitFileIds == null) {
+                    hitFileIds = new ArrayList<Long>();
+                    currentResults.put(keyword, hitFileIds);
+                } else if (hitFileIds.contains(sourceFile.getId())) {
+                    continue;
+                }
+                hitFileIds.add(sourceFile.getId());
+            }
+
+            final KeywordSearchListsAbstract.KeywordSearchList list = matcher.getList(keyword);
+            final String snippet = matcher.getSnippet(text, keyword, hit.getValue());
+            queueHit(new LuceneQuery(keyword), keyword.getQuery(), sourceFile, snippet, true, list);
+            ++numHits;
+        }
+
+        if (numHits > 0) {
+            logger.log(Level.INFO, "Inline keyword hits: " + numHits + ", file: " + sourceFile.getId() + ", chunk: " + chunkId);
+        }
+    }
+
+    boolean hasInlineMatcher() {
+        return inlineMatcher != null;
     }
 
     List<String> getKeywordLists() {
@@ -603,40 +795,127 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
     }
 
     /**
-     * Check if time to commit, if so, run commit. Then run search if search
-     * timer is also set.
+     * Check if time to search, if so, start the searcher. The searcher commits
+     * the documents not searchable yet itself, off the ingest thread.
      */
-    void checkRunCommitSearch() {
-        if (commitIndex) {
-            logger.log(Level.INFO, "Commiting index");
-            commit();
-            commitIndex = false;
-
-            //after commit, check if time to run searcher
-            //NOTE commit/searcher timings don't need to align
-            //in worst case, we will run search next time after commit timer goes off, or at the end of ingest
-            if (searcherDone && runSearcher) {
-                //start search if previous not running
-                if (keywordLists != null && !keywordLists.isEmpty()) {
-                    currentSearcher = new Searcher(keywordLists);
-                    currentSearcher.execute();//searcher will stop timer and restart timer when done
-                }
+    synchronized void checkRunSearch() {
+        if (searcherDone && runSearcher) {
+            //start search if previous not running
+            if (keywordLists != null && !keywordLists.isEmpty()) {
+                currentSearcher = new Searcher(keywordLists);
+                currentSearcher.execute();//searcher will stop timer and restart timer when done
             }
         }
     }
 
     /**
-     * CommitTimerAction to run by commitTimer Sets a flag to indicate we are
-     * ready for commit
+     * Queue the artifact of the keyword hit to the blackboard writer, that
+     * writes it in a batch and fires the data event. The inbox message is
+     * posted once the artifact is written.
+     *
+     * @param query query that found the hit
+     * @param termHit term hit, the keyword or the matching term of a regex
+     * @param hitFile file with the hit
+     * @param snippet preview of the hit, or null
+     * @param isLiteral false if the keyword is a regular expression
+     * @param list list of the keyword
+     */
+    private void queueHit(KeywordSearchQuery query, String termHit, final AbstractFile hitFile, String snippet,
+            final boolean isLiteral, final KeywordSearchListsAbstract.KeywordSearchList list) {
+        BlackboardWriter.getDefault().addArtifact(MODULE_NAME, hitFile, ARTIFACT_TYPE.TSK_KEYWORD_HIT,
+                query.getHitAttributes(termHit, snippet, list.getName()), new BlackboardWriter.WriteListener() {
+            @Override
+            public void artifactWritten(BlackboardArtifact artifact, Collection<BlackboardAttribute> attributes) {
+                final KeywordWriteResult written = new KeywordWriteResult(artifact);
+                written.add(attributes);
+                postHitMessage(written, hitFile, isLiteral, list);
+            }
+        });
+    }
+
+    /**
+     * Post an inbox message for the keyword hit, if the list of the keyword is
+     * set to send ingest messages
+     *
+     * @param written artifact and attributes written for the hit
+     * @param hitFile file with the hit
+     * @param isLiteral false if the keyword is a regular expression
+     * @param list list of the keyword
      */
-    private class CommitTimerAction implements ActionListener {
+    private void postHitMessage(KeywordWriteResult written, AbstractFile hitFile, boolean isLiteral,
+            KeywordSearchListsAbstract.KeywordSearchList list) {
+        //generate a data message for each artifact
+        StringBuilder subjectSb = new StringBuilder();
+        StringBuilder detailsSb = new StringBuilder();
+        //final int hitFiles = newResults.size();
+
+        if (!isLiteral) {
+            subjectSb.append("RegExp hit: ");
+        } else {
+            subjectSb.append("Keyword hit: ");
+        }
+        //subjectSb.append("<");
+        String uniqueKey = null;
+        BlackboardAttribute attr = written.getAttribute(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_KEYWORD.getTypeID());
+        if (attr != null) {
+            final String keyword = attr.getValueString();
+            subjectSb.append(keyword);
+            uniqueKey = keyword.toLowerCase();
+        }
 
-        private final Logger logger = Logger.getLogger(CommitTimerAction.class.getName());
+        //subjectSb.append(">");
+        //String uniqueKey = queryStr;
+
+        //details
+        detailsSb.append("<table border='0' cellpadding='4' width='280'>");
+        //hit
+        detailsSb.append("<tr>");
+        detailsSb.append("<th>Keyword hit</th>");
+        detailsSb.append("<td>").append(EscapeUtil.escapeHtml(attr.getValueString())).append("</td>");
+        detailsSb.append("</tr>");
+
+        //preview
+        attr = written.getAttribute(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_KEYWORD_PREVIEW.getTypeID());
+        if (attr != null) {
+            detailsSb.append("<tr>");
+            detailsSb.append("<th>Preview</th>");
+            detailsSb.append("<td>").append(EscapeUtil.escapeHtml(attr.getValueString())).append("</td>");
+            detailsSb.append("</tr>");
 
-        @Override
-        public void actionPerformed(ActionEvent e) {
-            commitIndex = true;
-            logger.log(Level.INFO, "CommitTimer awake");
+        }
+
+        //file
+        detailsSb.append("<tr>");
+        detailsSb.append("<th>File</th>");
+        detailsSb.append("<td>").append(hitFile.getParentPath()).append(hitFile.getName()).append("</td>");
+
+        detailsSb.append("</tr>");
+
+
+        //list
+        attr = written.getAttribute(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_SET_NAME.getTypeID());
+        detailsSb.append("<tr>");
+        detailsSb.append("<th>List</th>");
+        detailsSb.append("<td>").append(attr.getValueString()).append("</td>");
+        detailsSb.append("</tr>");
+
+        //regex
+        if (!isLiteral) {
+            attr = written.getAttribute(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_KEYWORD_REGEXP.getTypeID());
+            if (attr != null) {
+                detailsSb.append("<tr>");
+                detailsSb.append("<th>RegEx</th>");
+                detailsSb.append("<td>").append(attr.getValueString()).append("</td>");
+                detailsSb.append("</tr>");
+
+            }
+        }
+        detailsSb.append("</table>");
+
+        //check if should send messages on hits on this list
+        if (list.getIngestMessages()) //post ingest inbox msg
+        {
+            services.postMessage(IngestMessage.createDataMessage(++messageID, instance, subjectSb.toString(), detailsSb.toString(), uniqueKey, written.getArtifact()));
         }
     }
 
@@ -662,6 +941,7 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
     private class Indexer {
 
         private final Logger logger = Logger.getLogger(Indexer.class.getName());
+        private final Hash hasher = new Hash();
 
         /**
          * Extract text with Tika or other text extraction modules (by
@@ -675,15 +955,7 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
          * @throws IngesterException exception thrown if indexing failed
          */
         private boolean extractTextAndIndex(AbstractFile aFile, String detectedFormat) throws IngesterException {
-            AbstractFileExtract fileExtract = null;
-
-            //go over available text extractors in order, and pick the first one (most specific one)
-            for (AbstractFileExtract fe : textExtractors) {
-                if (fe.isSupported(aFile, detectedFormat)) {
-                    fileExtract = fe;
-                    break;
-                }
-            }
+            AbstractFileExtract fileExtract = getTextExtractor(aFile, detectedFormat);
 
             if (fileExtract == null) {
                 logger.log(Level.INFO, "No text extractor found for file id:"
@@ -697,6 +969,23 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
             return fileExtract.index(aFile);
         }
 
+        /**
+         * Get the text extractor for the file
+         *
+         * @param aFile file to extract text from
+         * @param detectedFormat mime-type with detected format
+         * @return the first (most specific) extractor supporting the file, or
+         * null if none
+         */
+        private AbstractFileExtract getTextExtractor(AbstractFile aFile, String detectedFormat) {
+            for (AbstractFileExtract fe : textExtractors) {
+                if (fe.isSupported(aFile, detectedFormat)) {
+                    return fe;
+                }
+            }
+            return null;
+        }
+
         /**
          * Extract strings using heuristics from the file and add to index.
          *
@@ -712,11 +1001,85 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
                 } else {
                     logger.log(Level.WARNING, "Failed to extract strings and ingest, file '" + aFile.getName() + "' (id: " + aFile.getId() + ").");
                     ingestStatus.put(aFile.getId(), IngestStatus.SKIPPED);
+                    contentNotIndexed(aFile);
                     return false;
                 }
             } catch (IngesterException ex) {
                 logger.log(Level.WARNING, "Failed to extract strings and ingest, file '" + aFile.getName() + "' (id: " + aFile.getId() + ").", ex);
                 ingestStatus.put(aFile.getId(), IngestStatus.SKIPPED);
+                contentNotIndexed(aFile);
+                return false;
+            }
+        }
+
+        /**
+         * Release the hash of a file whose content could not be indexed, and
+         * queue the files indexed as its aliases meanwhile, to be indexed on
+         * their own so that they remain searchable. Can be called from the
+         * Tika workers, the aliases are indexed later in an ingest thread.
+         *
+         * @param aFile file whose content could not be indexed
+         */
+        private void contentNotIndexed(AbstractFile aFile) {
+            final List<Long> aliasIds = KeywordSearch.getServer().getAliases().contentNotIndexed(aFile.getId());
+            if (!aliasIds.isEmpty()) {
+                logger.log(Level.INFO, "Content of file: " + aFile.getId() + " not indexed, queuing its aliases: " + aliasIds);
+                unindexedAliasIds.addAll(aliasIds);
+            }
+        }
+
+        /**
+         * Index the content of the queued aliases of files whose content could
+         * not be indexed, in the calling thread
+         */
+        private void indexUnindexedAliases() {
+            Long aliasId;
+            while ((aliasId = unindexedAliasIds.poll()) != null) {
+                AbstractFile alias = null;
+                try {
+                    alias = caseHandle.getAbstractFileById(aliasId);
+                    indexContent(alias, detectFormat(alias, new FileSignature(alias)));
+                } catch (TskCoreException ex) {
+                    logger.log(Level.WARNING, "Could not get alias: " + aliasId + " to index its content", ex);
+                } finally {
+                    if (alias != null) {
+                        alias.close();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Index the file as an alias of a file with the same MD5 hash, if the
+         * content of one is already indexed, instead of indexing the same
+         * content again
+         *
+         * @param aFile file to index
+         * @return true if the file was indexed as an alias, false if its
+         * content needs to be indexed
+         */
+        private boolean indexAlias(AbstractFile aFile) {
+            //computed by the hash lookup module, if it ran before
+            String md5 = aFile.getMd5Hash();
+            if (md5 == null || md5.isEmpty()) {
+                try {
+                    md5 = hasher.calculateMd5(aFile);
+                } catch (IOException ex) {
+                    logger.log(Level.WARNING, "Could not calculate hash of file: " + aFile.getId() + ", indexing its content", ex);
+                    return false;
+                }
+            }
+
+            final Long indexedId = KeywordSearch.getServer().getAliases().findIndexedContent(md5, aFile.getId());
+            if (indexedId == null) {
+                return false;
+            }
+            try {
+                ingester.ingestAlias(aFile, indexedId);
+                ingestStatus.put(aFile.getId(), IngestStatus.INGESTED_ALIAS);
+                return true;
+            } catch (IngesterException ex) {
+                logger.log(Level.WARNING, "Unable to index file: " + aFile.getId() + " as an alias of: " + indexedId + ", indexing its content", ex);
                 return false;
             }
         }
@@ -744,10 +1107,11 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
          * Adds the file to the index. Detects file type, calls extractors, etc.
          *
          * @param aFile File to analyze
+         * @param signature shared header of the file, used to detect the format
          * @param indexContent False if only metadata should be indexed. True if
          * content and metadata should be index.
          */
-        private void indexFile(AbstractFile aFile, boolean indexContent) {
+        private void indexFile(AbstractFile aFile, FileSignature signature, boolean indexContent) {
             //logger.log(Level.INFO, "Processing AbstractFile: " + abstractFile.getName());
 
             //check its database file type
@@ -773,26 +1137,8 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
                 return;
             }
 
-            //use Tika to detect the format
-            String detectedFormat = null;
-            InputStream is = null;
-            try {
-                is = new ReadContentInputStream(aFile);
-                detectedFormat = tikaFormatDetector.detect(is, aFile.getName());
-
-            } catch (Exception e) {
-                logger.log(Level.WARNING, "Could not detect format using tika for file: " + aFile, e);
-            } finally {
-                if (is != null) {
-                    try {
-                        is.close();
-                    } catch (IOException ex) {
-                        logger.log(Level.WARNING, "Could not close stream after detecting format using tika for file: "
-                                + aFile, ex);
-                    }
-                }
-            }
-            logger.log(Level.INFO, "Detected format: " + aFile.getName() + " " + detectedFormat);
+            //use Tika to detect the format, from the header already read for the other modules
+            final String detectedFormat = detectFormat(aFile, signature);
 
             // we skip archive formats that are opened by the archive module. 
             // @@@ We could have a check here to see if the archive module was enabled though...
@@ -801,7 +1147,65 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
                 return;
             }
 
+            //content already indexed for another file with the same hash
+            if (KeywordSearchSettings.getIndexDuplicatesAsAliases()
+                    && !aType.equals(TskData.TSK_DB_FILES_TYPE_ENUM.UNALLOC_BLOCKS)
+                    && !aType.equals(TskData.TSK_DB_FILES_TYPE_ENUM.UNUSED_BLOCKS)
+                    && indexAlias(aFile)) {
+                return;
+            }
+
             boolean extractTextSupported = isTextExtractSupported(aFile, detectedFormat);
+            if (extractTextSupported && getTextExtractor(aFile, detectedFormat) == tikaExtractor) {
+                //parsed by the Tika workers, so that the pipeline moves on to the next file
+                final long queuedMark = asyncOutputQueued();
+                try {
+                    tikaExtractor.indexAsync(aFile, new AbstractFileTikaTextExtract.ExtractionListener() {
+                        @Override
+                        public void extractionDone(AbstractFile sourceFile, boolean success) {
+                            tikaExtractionListener.extractionDone(sourceFile, success);
+                            asyncOutputDone(queuedMark);
+                        }
+                    });
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    ingestStatus.put(aFile.getId(), IngestStatus.SKIPPED);
+                    contentNotIndexed(aFile);
+                    asyncOutputDone(queuedMark);
+                }
+                return;
+            }
+
+            indexContent(aFile, detectedFormat);
+        }
+
+        /**
+         * Detect the format of the file with Tika
+         *
+         * @param aFile file to detect the format of
+         * @param signature header of the file
+         * @return mime-type detected, or null if none detected
+         */
+        private String detectFormat(AbstractFile aFile, FileSignature signature) {
+            String detectedFormat = null;
+            try {
+                detectedFormat = tikaFormatDetector.detect(signature.getHeader(), aFile.getName());
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Could not detect format using tika for file: " + aFile, e);
+            }
+            logger.log(Level.INFO, "Detected format: " + aFile.getName() + " " + detectedFormat);
+            return detectedFormat;
+        }
+
+        /**
+         * Extract the text of the file in the calling thread and index it,
+         * falling back to strings extraction
+         *
+         * @param aFile file to index
+         * @param detectedFormat mime-type detected, or null if none detected
+         */
+        private void indexContent(AbstractFile aFile, String detectedFormat) {
+            final boolean extractTextSupported = isTextExtractSupported(aFile, detectedFormat);
             boolean wasTextAdded = false;
             if (extractTextSupported) {
                 //extract text with one of the extractors, divide into chunks and index with Solr
@@ -833,11 +1237,60 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
         }
     }
 
+    /**
+     * Record a file queued for the Tika workers, its documents are not sent
+     * until the parse is done
+     *
+     * @return the output mark the file is recorded with
+     */
+    private long asyncOutputQueued() {
+        synchronized (asyncOutputMarks) {
+            final long mark = outputMark.get();
+            final Integer count = asyncOutputMarks.get(mark);
+            asyncOutputMarks.put(mark, count == null ? 1 : count + 1);
+            return mark;
+        }
+    }
+
+    /**
+     * Record that the documents of a file parsed by the Tika workers have
+     * been sent
+     *
+     * @param mark the output mark the file was recorded with
+     */
+    private void asyncOutputDone(long mark) {
+        synchronized (asyncOutputMarks) {
+            final Integer count = asyncOutputMarks.get(mark);
+            if (count == null || count <= 1) {
+                asyncOutputMarks.remove(mark);
+            } else {
+                asyncOutputMarks.put(mark, count - 1);
+            }
+        }
+    }
+
+    /**
+     * Sets the status of files parsed by the Tika workers, and falls back to
+     * strings extraction if the parse failed
+     */
+    private final AbstractFileTikaTextExtract.ExtractionListener tikaExtractionListener = new AbstractFileTikaTextExtract.ExtractionListener() {
+        @Override
+        public void extractionDone(AbstractFile sourceFile, boolean success) {
+            if (success) {
+                ingestStatus.put(sourceFile.getId(), IngestStatus.INGESTED);
+            } else {
+                logger.log(Level.WARNING, "Failed to extract text and ingest, file '" + sourceFile.getName() + "' (id: " + sourceFile.getId() + ").");
+                indexer.extractStringsAndIndex(sourceFile);
+            }
+        }
+    };
+
     /**
      * Searcher responsible for searching the current index and writing results
      * to blackboard and the inbox. Also, posts results to listeners as Ingest
-     * data events. Searches entire index, and keeps track of only new results
-     * to report and save. Runs as a background thread.
+     * data events. Searches only the documents committed since the previous
+     * search of each keyword (the entire index the first time), and keeps track
+     * of only new results to report and save. Runs as a background thread.
      */
     private final class Searcher extends SwingWorker<Object, Void> {
 
@@ -911,6 +1364,39 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
                     searchTimer.stop();
                 }
 
+                //make the documents sent so far searchable, unless the scheduler just did
+                //the final searcher runs after the final commit
+                if (!finalRun && ingester.getUncommittedDocs() > 0) {
+                    ingester.commit(IndexCommitScheduler.CommitType.SOFT);
+                }
+
+                //documents committed so far, the next searcher continues from here
+                final long searchToSeq = ingester.getCommittedIndexSeq();
+
+                //limit search to currently ingested images
+                final long imageIds[] = new long[curImageIds.size()];
+                final Iterator<Long> it = curImageIds.iterator();
+                for (int imageI = 0; it.hasNext(); ++imageI) {
+                    imageIds[imageI] = it.next();
+                }
+                //set up a filter with 1 or more image ids OR'ed
+                final KeywordQueryFilter imageFilter = new KeywordQueryFilter(KeywordQueryFilter.FilterType.IMAGE, imageIds);
+
+                //literal keywords with hits, found with a few grouped queries
+                //the literal keywords without hits are not queried one by one
+                Set<Keyword> literalsWithHits = null;
+                if (KeywordSearchSettings.getGroupKeywordQueries()) {
+                    try {
+                        literalsWithHits = findLiteralsWithHits(imageFilter, searchToSeq);
+                    } catch (NoOpenCoreException ex) {
+                        logger.log(Level.WARNING, "Error performing grouped keyword queries", ex);
+                        return null;
+                    } catch (InterruptedException ex) {
+                        logger.log(Level.INFO, "Cancel detected, bailing during grouped keyword queries");
+                        return null;
+                    }
+                }
+
                 int keywordsSearched = 0;
 
                 //updateKeywords();
@@ -931,10 +1417,18 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
                         subProgresses[keywordsSearched - 1].finish();
                     }
 
+                    boolean isRegex = !keywordQuery.isLiteral();
+                    if (!isRegex && literalsWithHits != null && !literalsWithHits.contains(keywordQuery)) {
+                        //no hits in the searched documents
+                        if (searchToSeq >= 0) {
+                            searchedIndexSeq.put(keywordQuery, searchToSeq);
+                        }
+                        ++keywordsSearched;
+                        continue;
+                    }
 
                     KeywordSearchQuery del = null;
 
-                    boolean isRegex = !keywordQuery.isLiteral();
                     if (!isRegex) {
                         del = new LuceneQuery(keywordQuery);
                         del.escape();
@@ -942,20 +1436,25 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
                         del = new TermComponentQuery(keywordQuery);
                     }
 
-                    //limit search to currently ingested images
-                    final long imageIds[] = new long[curImageIds.size()];
-                    final Iterator<Long> it = curImageIds.iterator();
-                    for (int imageI = 0; it.hasNext(); ++imageI) {
-                        imageIds[imageI] = it.next();
-                    }
-                    //set up a filter with 1 or more image ids OR'ed
-                    final KeywordQueryFilter imageFilter = new KeywordQueryFilter(KeywordQueryFilter.FilterType.IMAGE, imageIds);
                     del.addFilter(imageFilter);
 
-                    Map<String, List<ContentHit>> queryResult = null;
+                    //skip documents already searched for the keyword by previous searchers
+                    final Long searchedSeq = searchedIndexSeq.get(keywordQuery);
+                    if (searchedSeq != null) {
+                        del.addFilter(new KeywordQueryFilter(KeywordQueryFilter.FilterType.INDEX_SEQ,
+                                new long[]{searchedSeq, searchToSeq}));
+                    }
+
+                    //writes the new hits to the blackboard as they are found
+                    final HitWriter hitWriter = new HitWriter(keywordQuery, del, list, subProgresses[keywordsSearched]);
 
                     try {
-                        queryResult = del.performQuery();
+                        if (isRegex) {
+                            //regex hits are streamed, a page of terms at a time
+                            ((TermComponentQuery) del).performQuery(hitWriter);
+                        } else {
+                            hitWriter.handleHits(del.performQuery());
+                        }
                     } catch (NoOpenCoreException ex) {
                         logger.log(Level.WARNING, "Error performing query: " + keywordQuery.getQuery(), ex);
                         //no reason to continue with next query if recovery failed
@@ -970,164 +1469,18 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
                         continue;
                     }
 
-                    //calculate new results but substracting results already obtained in this ingest
-                    Map<Keyword, List<ContentHit>> newResults = filterResults(queryResult, isRegex);
-
-                    if (!newResults.isEmpty()) {
-
-                        //write results to BB
-
-                        //new artifacts created, to report to listeners
-                        Collection<BlackboardArtifact> newArtifacts = new ArrayList<BlackboardArtifact>();
-
-                        //scale progress bar more more granular, per result sub-progress, within per keyword
-                        int totalUnits = newResults.size();
-                        subProgresses[keywordsSearched].start(totalUnits);
-                        int unitProgress = 0;
-                        String queryDisplayStr = keywordQuery.getQuery();
-                        if (queryDisplayStr.length() > 50) {
-                            queryDisplayStr = queryDisplayStr.substring(0, 49) + "...";
-                        }
-                        subProgresses[keywordsSearched].progress(listName + ": " + queryDisplayStr, unitProgress);
-
-
-                        for (final Keyword hitTerm : newResults.keySet()) {
-                            //checking for cancellation between results
-                            if (this.isCancelled()) {
-                                logger.log(Level.INFO, "Cancel detected, bailing before new hit processed for query: " + keywordQuery.getQuery());
-                                return null;
-                            }
-
-                            List<ContentHit> contentHitsAll = newResults.get(hitTerm);
-                            Map<AbstractFile, Integer> contentHitsFlattened = ContentHit.flattenResults(contentHitsAll);
-                            for (final AbstractFile hitFile : contentHitsFlattened.keySet()) {
-                                String snippet = null;
-                                final String snippetQuery = KeywordSearchUtil.escapeLuceneQuery(hitTerm.getQuery());
-                                int chunkId = contentHitsFlattened.get(hitFile);
-                                try {
-                                    snippet = LuceneQuery.querySnippet(snippetQuery, hitFile.getId(), chunkId, isRegex, true);
-                                } catch (NoOpenCoreException e) {
-                                    logger.log(Level.WARNING, "Error querying snippet: " + snippetQuery, e);
-                                    //no reason to continue
-                                    return null;
-                                } catch (Exception e) {
-                                    logger.log(Level.WARNING, "Error querying snippet: " + snippetQuery, e);
-                                    continue;
-                                }
-
-                                KeywordWriteResult written = del.writeToBlackBoard(hitTerm.getQuery(), hitFile, snippet, listName);
-
-                                if (written == null) {
-                                    logger.log(Level.WARNING, "BB artifact for keyword hit not written, file: " + hitFile + ", hit: " + hitTerm.toString());
-                                    continue;
-                                }
-
-                                newArtifacts.add(written.getArtifact());
-
-                                //send notify every 250 results
-                                if (newArtifacts.size() % 250 == 0) {
-                                    services.fireModuleDataEvent(new ModuleDataEvent(MODULE_NAME, ARTIFACT_TYPE.TSK_KEYWORD_HIT, newArtifacts));
-                                }
-
-                                //generate a data message for each artifact
-                                StringBuilder subjectSb = new StringBuilder();
-                                StringBuilder detailsSb = new StringBuilder();
-                                //final int hitFiles = newResults.size();
-
-                                if (!keywordQuery.isLiteral()) {
-                                    subjectSb.append("RegExp hit: ");
-                                } else {
-                                    subjectSb.append("Keyword hit: ");
-                                }
-                                //subjectSb.append("<");
-                                String uniqueKey = null;
-                                BlackboardAttribute attr = written.getAttribute(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_KEYWORD.getTypeID());
-                                if (attr != null) {
-                                    final String keyword = attr.getValueString();
-                                    subjectSb.append(keyword);
-                                    uniqueKey = keyword.toLowerCase();
-                                }
-
-                                //subjectSb.append(">");
-                                //String uniqueKey = queryStr;
-
-                                //details
-                                detailsSb.append("<table border='0' cellpadding='4' width='280'>");
-                                //hit
-                                detailsSb.append("<tr>");
-                                detailsSb.append("<th>Keyword hit</th>");
-                                detailsSb.append("<td>").append(EscapeUtil.escapeHtml(attr.getValueString())).append("</td>");
-                                detailsSb.append("</tr>");
-
-                                //preview
-                                attr = written.getAttribute(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_KEYWORD_PREVIEW.getTypeID());
-                                if (attr != null) {
-                                    detailsSb.append("<tr>");
-                                    detailsSb.append("<th>Preview</th>");
-                                    detailsSb.append("<td>").append(EscapeUtil.escapeHtml(attr.getValueString())).append("</td>");
-                                    detailsSb.append("</tr>");
-
-                                }
-
-                                //file
-                                detailsSb.append("<tr>");
-                                detailsSb.append("<th>File</th>");
-                                detailsSb.append("<td>").append(hitFile.getParentPath()).append(hitFile.getName()).append("</td>");
-
-                                detailsSb.append("</tr>");
-
-
-                                //list
-                                attr = written.getAttribute(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_SET_NAME.getTypeID());
-                                detailsSb.append("<tr>");
-                                detailsSb.append("<th>List</th>");
-                                detailsSb.append("<td>").append(attr.getValueString()).append("</td>");
-                                detailsSb.append("</tr>");
-
-                                //regex
-                                if (!keywordQuery.isLiteral()) {
-                                    attr = written.getAttribute(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_KEYWORD_REGEXP.getTypeID());
-                                    if (attr != null) {
-                                        detailsSb.append("<tr>");
-                                        detailsSb.append("<th>RegEx</th>");
-                                        detailsSb.append("<td>").append(attr.getValueString()).append("</td>");
-                                        detailsSb.append("</tr>");
-
-                                    }
-                                }
-                                detailsSb.append("</table>");
-
-                                //check if should send messages on hits on this list
-                                if (list.getIngestMessages()) //post ingest inbox msg
-                                {
-                                    services.postMessage(IngestMessage.createDataMessage(++messageID, instance, subjectSb.toString(), detailsSb.toString(), uniqueKey, written.getArtifact()));
-                                }
-
-
-                            } //for each file hit
-
-                            ++unitProgress;
-
-                            String hitDisplayStr = hitTerm.getQuery();
-                            if (hitDisplayStr.length() > 50) {
-                                hitDisplayStr = hitDisplayStr.substring(0, 49) + "...";
-                            }
-                            subProgresses[keywordsSearched].progress(listName + ": " + hitDisplayStr, unitProgress);
-                            //subProgresses[keywordsSearched].progress(unitProgress);
-
-
-                        }//for each hit term
-
-
-                        //update artifact browser
-                        if (!newArtifacts.isEmpty()) {
-                            services.fireModuleDataEvent(new ModuleDataEvent(MODULE_NAME, ARTIFACT_TYPE.TSK_KEYWORD_HIT, newArtifacts));
-                        }
-                    } //if has results
+                    if (hitWriter.isStopped()) {
+                        return null;
+                    }
 
                     //reset the status text before it goes away
                     subProgresses[keywordsSearched].progress("");
 
+                    //all hits up to the committed documents are processed
+                    if (searchToSeq >= 0) {
+                        searchedIndexSeq.put(keywordQuery, searchToSeq);
+                    }
+
                     ++keywordsSearched;
 
                 } //for each keyword
@@ -1148,6 +1501,154 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
             return null;
         }
 
+        /**
+         * Writes the new hits of a keyword to the blackboard, and posts them to
+         * the inbox and to the listeners. The hits can be received in several
+         * parts, as the regex query streams them.
+         */
+        private class HitWriter implements TermComponentQuery.TermHitsHandler {
+
+            private final Keyword keywordQuery;
+            private final KeywordSearchQuery del;
+            private final KeywordSearchListsAbstract.KeywordSearchList list;
+            private final String listName;
+            private final ProgressContributor subProgress;
+            private boolean stopped = false;
+
+            HitWriter(Keyword keywordQuery, KeywordSearchQuery del, KeywordSearchListsAbstract.KeywordSearchList list, ProgressContributor subProgress) {
+                this.keywordQuery = keywordQuery;
+                this.del = del;
+                this.list = list;
+                this.listName = list.getName();
+                this.subProgress = subProgress;
+            }
+
+            @Override
+            public boolean handleHits(Map<String, List<ContentHit>> queryResult) {
+                final boolean isRegex = !keywordQuery.isLiteral();
+
+                //calculate new results but substracting results already obtained in this ingest
+                Map<Keyword, List<ContentHit>> newResults = filterResults(queryResult, isRegex);
+                if (newResults.isEmpty()) {
+                    return true;
+                }
+
+                //write results to BB
+
+                //scale progress bar more more granular, per result sub-progress, within per keyword
+                //restarted for each part of the hits
+                int totalUnits = newResults.size();
+                subProgress.start(totalUnits);
+                int unitProgress = 0;
+                String queryDisplayStr = keywordQuery.getQuery();
+                if (queryDisplayStr.length() > 50) {
+                    queryDisplayStr = queryDisplayStr.substring(0, 49) + "...";
+                }
+                subProgress.progress(listName + ": " + queryDisplayStr, unitProgress);
+
+
+                for (final Keyword hitTerm : newResults.keySet()) {
+                    //checking for cancellation between results
+                    if (Searcher.this.isCancelled()) {
+                        logger.log(Level.INFO, "Cancel detected, bailing before new hit processed for query: " + keywordQuery.getQuery());
+                        stopped = true;
+                        return false;
+                    }
+
+                    List<ContentHit> contentHitsAll = newResults.get(hitTerm);
+                    Map<AbstractFile, Integer> contentHitsFlattened = ContentHit.flattenResults(contentHitsAll);
+
+                    //snippets of all the hit files, with a few highlight requests
+                    final String snippetQuery = KeywordSearchUtil.escapeLuceneQuery(hitTerm.getQuery());
+                    final List<String> hitIds = new ArrayList<String>();
+                    for (Map.Entry<AbstractFile, Integer> hit : contentHitsFlattened.entrySet()) {
+                        hitIds.add(LuceneQuery.getContentIdString(hit.getKey().getId(), hit.getValue()));
+                    }
+                    Map<String, String> snippets;
+                    try {
+                        snippets = LuceneQuery.querySnippets(snippetQuery, hitIds, isRegex, true);
+                    } catch (NoOpenCoreException e) {
+                        logger.log(Level.WARNING, "Error querying snippets: " + snippetQuery, e);
+                        //no reason to continue
+                        stopped = true;
+                        return false;
+                    }
+
+                    for (final AbstractFile hitFile : contentHitsFlattened.keySet()) {
+                        //null if the snippet request failed, the hit is written without preview
+                        final String snippet = snippets.get(LuceneQuery.getContentIdString(hitFile.getId(), contentHitsFlattened.get(hitFile)));
+
+                        //written in batches, the writer notifies the listeners
+                        queueHit(del, hitTerm.getQuery(), hitFile, snippet, keywordQuery.isLiteral(), list);
+
+                    } //for each file hit
+
+                    ++unitProgress;
+
+                    String hitDisplayStr = hitTerm.getQuery();
+                    if (hitDisplayStr.length() > 50) {
+                        hitDisplayStr = hitDisplayStr.substring(0, 49) + "...";
+                    }
+                    subProgress.progress(listName + ": " + hitDisplayStr, unitProgress);
+
+
+                }//for each hit term
+
+                return true;
+            }
+
+            /**
+             * @return true if the hits could not all be written, because the
+             * searcher was cancelled or the index is not available
+             */
+            boolean isStopped() {
+                return stopped;
+            }
+        }
+
+        /**
+         * Find the literal keywords with hits in the documents still to search,
+         * with grouped queries of the keywords of each list, run concurrently
+         *
+         * @param imageFilter filter of the currently ingested images
+         * @param searchToSeq index sequence number of the last committed
+         * document
+         * @return the literal keywords with hits
+         */
+        private Set<Keyword> findLiteralsWithHits(KeywordQueryFilter imageFilter, long searchToSeq) throws NoOpenCoreException, InterruptedException {
+            //keywords of a group share the list and the documents still to search
+            final Map<String, KeywordGroupQuery> groups = new LinkedHashMap<String, KeywordGroupQuery>();
+            for (Keyword keyword : keywords) {
+                if (!keyword.isLiteral()) {
+                    continue;
+                }
+                final Long searchedSeq = searchedIndexSeq.get(keyword);
+                final String groupKey = keywordToList.get(keyword.getQuery()).getName() + ":" + searchedSeq;
+                KeywordGroupQuery group = groups.get(groupKey);
+                if (group == null) {
+                    group = new KeywordGroupQuery();
+                    group.addFilter(imageFilter);
+                    if (searchedSeq != null) {
+                        group.addFilter(new KeywordQueryFilter(KeywordQueryFilter.FilterType.INDEX_SEQ,
+                                new long[]{searchedSeq, searchToSeq}));
+                    }
+                    groups.put(groupKey, group);
+                }
+                group.addKeyword(keyword);
+            }
+            if (groups.isEmpty()) {
+                return new HashSet<Keyword>();
+            }
+
+            final StopWatch stopWatch = new StopWatch();
+            stopWatch.start();
+            final Set<Keyword> withHits = KeywordGroupQuery.performQueries(groups.values());
+            stopWatch.stop();
+            logger.log(Level.INFO, "Grouped keyword queries found " + withHits.size() + " keywords with hits in "
+                    + stopWatch.getElapsedTimeSecs() + " secs.");
+            return withHits;
+        }
+
         /**
          * Sync-up the updated keywords from the currently used lists in the XML
          */
@@ -1179,6 +1680,8 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
          */
         private void finalizeSearcher() {
             logger.log(Level.INFO, "Searcher finalizing");
+            //write the hits still queued, before the next searcher or cleanup
+            BlackboardWriter.getDefault().flush();
             SwingUtilities.invokeLater(new Runnable() {
                 @Override
                 public void run() {
@@ -1209,6 +1712,12 @@ public final class KeywordSearchIngestModule implements IngestModuleAbstractFile
         //calculate new results but substracting results already obtained in this ingest
         //update currentResults map with the new results
         private Map<Keyword, List<ContentHit>> filterResults(Map<String, List<ContentHit>> queryResult, boolean isRegex) {
+            synchronized (currentResults) {
+                return filterResultsLocked(queryResult, isRegex);
+            }
+        }
+
+        private Map<Keyword, List<ContentHit>> filterResultsLocked(Map<String, List<ContentHit>> queryResult, boolean isRegex) {
             Map<Keyword, List<ContentHit>> newResults = new HashMap<Keyword, List<ContentHit>>();
 
             for (String termResult : queryResult.keySet()) {
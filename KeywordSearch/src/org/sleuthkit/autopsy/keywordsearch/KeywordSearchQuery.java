@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Map;
 import org.apache.solr.client.solrj.response.TermsResponse.Term;
 import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.BlackboardAttribute;
 
 public interface KeywordSearchQuery {
 
@@ -102,6 +103,16 @@ public interface KeywordSearchQuery {
      * @return collection of results (with cached bb artifacts/attributes) created and written
      */
     public KeywordWriteResult writeToBlackBoard(String termHit, AbstractFile newFsHit, String snippet, String listName);
+
+    /**
+     * get the attributes of the blackboard artifact of a single term and file hit,
+     * without writing them, for writers that create the artifacts in batches
+     * @param termHit term for only which to get the attributes
+     * @param snippet snippet preview with hit context, or null if there is no snippet
+     * @param listName listname
+     * @return attributes of the keyword hit artifact
+     */
+    public Collection<BlackboardAttribute> getHitAttributes(String termHit, String snippet, String listName);
        
 }
 
@@ -570,20 +570,23 @@ public class KeywordSearchResultFactory extends ChildFactory<KeyValueQuery> {
                         break;
                     }
                     Map<AbstractFile, Integer> flattened = ContentHit.flattenResults(hits.get(hit));
+                    //snippets of all the files of the hit, with a few highlight requests
+                    final String snippetQuery = KeywordSearchUtil.escapeLuceneQuery(hit);
+                    final List<String> hitIds = new ArrayList<String>();
+                    for (Map.Entry<AbstractFile, Integer> fileHit : flattened.entrySet()) {
+                        hitIds.add(LuceneQuery.getContentIdString(fileHit.getKey().getId(), fileHit.getValue()));
+                    }
+                    Map<String, String> snippets;
+                    try {
+                        snippets = LuceneQuery.querySnippets(snippetQuery, hitIds, !query.isLiteral(), true);
+                    } catch (NoOpenCoreException e) {
+                        logger.log(Level.WARNING, "Error querying snippets: " + snippetQuery, e);
+                        //no reason to continie
+                        return null;
+                    }
                     for (AbstractFile f : flattened.keySet()) {
-                        int chunkId = flattened.get(f);
-                        final String snippetQuery = KeywordSearchUtil.escapeLuceneQuery(hit);
-                        String snippet = null;
-                        try {
-                            snippet = LuceneQuery.querySnippet(snippetQuery, f.getId(), chunkId, !query.isLiteral(), true);
-                        } catch (NoOpenCoreException e) {
-                            logger.log(Level.WARNING, "Error querying snippet: " + snippetQuery, e);
-                            //no reason to continie
-                            return null;
-                        } catch (Exception e) {
-                            logger.log(Level.WARNING, "Error querying snippet: " + snippetQuery, e);
-                            continue;
-                        }
+                        //null if the snippet request failed
+                        final String snippet = snippets.get(LuceneQuery.getContentIdString(f.getId(), flattened.get(f)));
                         if (snippet != null) {
                             KeywordWriteResult written = query.writeToBlackBoard(hit, f, snippet, listName);
                             if (written != null) {
@@ -39,6 +39,12 @@ public class KeywordSearchSettings {
     static final String PROPERTIES_NSRL = MODULE_NAME+"_NSRL";
     static final String PROPERTIES_SCRIPTS = MODULE_NAME+"_Scripts";
     private static boolean skipKnown = true;
+    private static boolean groupKeywordQueries = true;
+    private static boolean inlineKeywordMatching = false;
+    private static boolean indexDuplicatesAsAliases = true;
+    private static IndexBackend.Type indexBackend = IndexBackend.Type.SOLR_PROCESS;
+    private static int solrMaxHeapMb = 0;
+    private static String solrGcOptions = "";
     private static final Logger logger = Logger.getLogger(KeywordSearchSettings.class.getName());
     private static UpdateFrequency UpdateFreq = UpdateFrequency.AVG;
     private static List<StringExtract.StringExtractUnicodeTable.SCRIPT> stringExtractScripts = new ArrayList<StringExtract.StringExtractUnicodeTable.SCRIPT>();
@@ -90,6 +96,141 @@ public class KeywordSearchSettings {
        logger.log(Level.WARNING, "Could not read property for SkipKnown, returning backup value.");
        return skipKnown;
     }
+
+    /**
+     * Sets whether ingest searches find the literal keywords with hits with
+     * grouped queries, before querying them one by one.
+     * @param group
+     */
+    static void setGroupKeywordQueries(boolean group) {
+        ModuleSettings.setConfigSetting(PROPERTIES_OPTIONS, "GroupKeywordQueries", Boolean.toString(group));
+        groupKeywordQueries = group;
+    }
+
+    /**
+     * Gets the setting for whether ingest searches use grouped keyword queries.
+     * @return group keyword queries setting
+     */
+    static boolean getGroupKeywordQueries() {
+        if (ModuleSettings.getConfigSetting(PROPERTIES_OPTIONS, "GroupKeywordQueries") != null) {
+            return Boolean.parseBoolean(ModuleSettings.getConfigSetting(PROPERTIES_OPTIONS, "GroupKeywordQueries"));
+        }
+        return groupKeywordQueries;
+    }
+
+    /**
+     * Sets whether literal keywords are also matched in the text as it is
+     * extracted, to report hits before the index is committed and searched.
+     * @param inline
+     */
+    static void setInlineKeywordMatching(boolean inline) {
+        ModuleSettings.setConfigSetting(PROPERTIES_OPTIONS, "InlineKeywordMatching", Boolean.toString(inline));
+        inlineKeywordMatching = inline;
+    }
+
+    /**
+     * Gets the setting for whether literal keywords are matched inline.
+     * @return inline keyword matching setting
+     */
+    static boolean getInlineKeywordMatching() {
+        if (ModuleSettings.getConfigSetting(PROPERTIES_OPTIONS, "InlineKeywordMatching") != null) {
+            return Boolean.parseBoolean(ModuleSettings.getConfigSetting(PROPERTIES_OPTIONS, "InlineKeywordMatching"));
+        }
+        return inlineKeywordMatching;
+    }
+
+    /**
+     * Sets whether files with the same MD5 hash as a file whose content is
+     * already indexed are indexed as aliases of it, without their content.
+     * @param aliases
+     */
+    static void setIndexDuplicatesAsAliases(boolean aliases) {
+        ModuleSettings.setConfigSetting(PROPERTIES_OPTIONS, "IndexDuplicatesAsAliases", Boolean.toString(aliases));
+        indexDuplicatesAsAliases = aliases;
+    }
+
+    /**
+     * Gets the setting for whether duplicate content is indexed only once.
+     * @return index duplicates as aliases setting
+     */
+    static boolean getIndexDuplicatesAsAliases() {
+        if (ModuleSettings.getConfigSetting(PROPERTIES_OPTIONS, "IndexDuplicatesAsAliases") != null) {
+            return Boolean.parseBoolean(ModuleSettings.getConfigSetting(PROPERTIES_OPTIONS, "IndexDuplicatesAsAliases"));
+        }
+        return indexDuplicatesAsAliases;
+    }
+
+    /**
+     * Sets the engine running the index, used from the next application start.
+     * @param backend
+     */
+    static void setIndexBackend(IndexBackend.Type backend) {
+        ModuleSettings.setConfigSetting(PROPERTIES_OPTIONS, "IndexBackend", backend.name());
+        indexBackend = backend;
+    }
+
+    /**
+     * Gets the engine running the index, the Solr process by default.
+     * @return index backend setting
+     */
+    static IndexBackend.Type getIndexBackend() {
+        final String backend = ModuleSettings.getConfigSetting(PROPERTIES_OPTIONS, "IndexBackend");
+        if (backend != null) {
+            try {
+                return IndexBackend.Type.valueOf(backend);
+            } catch (IllegalArgumentException ex) {
+                logger.log(Level.WARNING, "Unknown index backend: " + backend + ", returning backup value.");
+            }
+        }
+        return indexBackend;
+    }
+
+    /**
+     * Sets the max. heap size of the Solr process, used from the next Solr
+     * start. 0 to size it from the physical memory and the index size.
+     * @param heapMb heap size in MB, or 0 for automatic
+     */
+    static void setSolrMaxHeapMb(int heapMb) {
+        ModuleSettings.setConfigSetting(PROPERTIES_OPTIONS, "SolrMaxHeapMb", Integer.toString(heapMb));
+        solrMaxHeapMb = heapMb;
+    }
+
+    /**
+     * Gets the max. heap size of the Solr process.
+     * @return heap size in MB, or 0 for automatic
+     */
+    static int getSolrMaxHeapMb() {
+        final String heapMb = ModuleSettings.getConfigSetting(PROPERTIES_OPTIONS, "SolrMaxHeapMb");
+        if (heapMb != null) {
+            try {
+                return Integer.parseInt(heapMb);
+            } catch (NumberFormatException ex) {
+                logger.log(Level.WARNING, "Invalid Solr heap size: " + heapMb + ", returning backup value.");
+            }
+        }
+        return solrMaxHeapMb;
+    }
+
+    /**
+     * Sets the garbage collector options of the Solr process, used from the
+     * next Solr start. Empty to choose them from the heap size.
+     * @param options JVM options, separated by spaces, or empty for automatic
+     */
+    static void setSolrGcOptions(String options) {
+        ModuleSettings.setConfigSetting(PROPERTIES_OPTIONS, "SolrGcOptions", options);
+        solrGcOptions = options;
+    }
+
+    /**
+     * Gets the garbage collector options of the Solr process.
+     * @return JVM options, or empty for automatic
+     */
+    static String getSolrGcOptions() {
+        if (ModuleSettings.getConfigSetting(PROPERTIES_OPTIONS, "SolrGcOptions") != null) {
+            return ModuleSettings.getConfigSetting(PROPERTIES_OPTIONS, "SolrGcOptions");
+        }
+        return solrGcOptions;
+    }
    
 
     
@@ -192,6 +333,35 @@ public class KeywordSearchSettings {
          logger.log(Level.INFO, "No configuration for Update Frequency found, generating default...");
          KeywordSearchSettings.setUpdateFrequency(UpdateFrequency.AVG);
       }
+     //setting default grouped keyword queries
+     if(!ModuleSettings.settingExists(KeywordSearchSettings.PROPERTIES_OPTIONS, "GroupKeywordQueries")){
+         logger.log(Level.INFO, "No configuration for grouped keyword queries found, generating default...");
+         KeywordSearchSettings.setGroupKeywordQueries(true);
+      }
+     //setting default inline keyword matching
+     if(!ModuleSettings.settingExists(KeywordSearchSettings.PROPERTIES_OPTIONS, "InlineKeywordMatching")){
+         logger.log(Level.INFO, "No configuration for inline keyword matching found, generating default...");
+         KeywordSearchSettings.setInlineKeywordMatching(false);
+      }
+     //setting default indexing of duplicates as aliases
+     if(!ModuleSettings.settingExists(KeywordSearchSettings.PROPERTIES_OPTIONS, "IndexDuplicatesAsAliases")){
+         logger.log(Level.INFO, "No configuration for indexing duplicates as aliases found, generating default...");
+         KeywordSearchSettings.setIndexDuplicatesAsAliases(true);
+      }
+     //setting default index backend
+     if(!ModuleSettings.settingExists(KeywordSearchSettings.PROPERTIES_OPTIONS, "IndexBackend")){
+         logger.log(Level.INFO, "No configuration for index backend found, generating default...");
+         KeywordSearchSettings.setIndexBackend(IndexBackend.Type.SOLR_PROCESS);
+      }
+     //setting default Solr memory and GC options
+     if(!ModuleSettings.settingExists(KeywordSearchSettings.PROPERTIES_OPTIONS, "SolrMaxHeapMb")){
+         logger.log(Level.INFO, "No configuration for Solr heap size found, generating default...");
+         KeywordSearchSettings.setSolrMaxHeapMb(0);
+      }
+     if(!ModuleSettings.settingExists(KeywordSearchSettings.PROPERTIES_OPTIONS, "SolrGcOptions")){
+         logger.log(Level.INFO, "No configuration for Solr GC options found, generating default...");
+         KeywordSearchSettings.setSolrGcOptions("");
+      }
      //setting default Extract UTF8
      if(!ModuleSettings.settingExists(KeywordSearchSettings.PROPERTIES_OPTIONS, AbstractFileExtract.ExtractOptions.EXTRACT_UTF8.toString())){
          logger.log(Level.INFO, "No configuration for UTF8 found, generating default...");
@@ -20,9 +20,12 @@ package org.sleuthkit.autopsy.keywordsearch;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.apache.solr.client.solrj.SolrQuery;
@@ -52,6 +55,8 @@ public class LuceneQuery implements KeywordSearchQuery {
     private final List <KeywordQueryFilter> filters = new ArrayList<KeywordQueryFilter>();
     private String field = null;
     private static final int MAX_RESULTS = 20000;
+    //max. documents highlighted in one snippet request
+    private static final int MAX_SNIPPETS_PER_QUERY = 100;
     static final int SNIPPET_LENGTH = 50;
     //can use different highlight schema fields for regex and literal search
     static final String HIGHLIGHT_FIELD_LITERAL = Server.Schema.CONTENT.toString();
@@ -130,10 +135,7 @@ public class LuceneQuery implements KeywordSearchQuery {
 
     @Override
     public KeywordWriteResult writeToBlackBoard(String termHit, AbstractFile newFsHit, String snippet, String listName) {
-        final String MODULE_NAME = KeywordSearchIngestModule.MODULE_NAME;
-
         KeywordWriteResult writeResult = null;
-        Collection<BlackboardAttribute> attributes = new ArrayList<BlackboardAttribute>();
         BlackboardArtifact bba = null;
         try {
             bba = newFsHit.newArtifact(ARTIFACT_TYPE.TSK_KEYWORD_HIT);
@@ -143,6 +145,22 @@ public class LuceneQuery implements KeywordSearchQuery {
             return null;
         }
 
+        Collection<BlackboardAttribute> attributes = getHitAttributes(termHit, snippet, listName);
+        try {
+            bba.addAttributes(attributes); //write out to bb
+            writeResult.add(attributes);
+            return writeResult;
+        } catch (TskException e) {
+            logger.log(Level.WARNING, "Error adding bb attributes to artifact", e);
+        }
+        return null;
+    }
+
+    @Override
+    public Collection<BlackboardAttribute> getHitAttributes(String termHit, String snippet, String listName) {
+        final String MODULE_NAME = KeywordSearchIngestModule.MODULE_NAME;
+
+        Collection<BlackboardAttribute> attributes = new ArrayList<BlackboardAttribute>();
         if (snippet != null) {
             attributes.add(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_KEYWORD_PREVIEW.getTypeID(), MODULE_NAME, snippet));
         }
@@ -163,24 +181,87 @@ public class LuceneQuery implements KeywordSearchQuery {
                 attributes.add(new BlackboardAttribute(selType.getTypeID(), MODULE_NAME, termHit));
             }
         }
+        return attributes;
+    }
+
+    
+    /**
+     * Perform the query and return result, including the hits of the aliases
+     * of the files whose indexed content has hits
+     * @return list of ContentHit objects
+     * @throws NoOpenCoreException
+     */
+    private List<ContentHit> performLuceneQuery() throws NoOpenCoreException {
+        final List<ContentHit> matches = performLuceneQuery(filters);
+
+        final IndexAliases aliases = KeywordSearch.getServer().getAliases();
+        if (filters.isEmpty()) {
+            //all the aliases of the files with hits
+            final Set<Long> hitIds = new HashSet<Long>();
+            for (ContentHit hit : matches) {
+                if (hit.isChunk()) {
+                    hitIds.add(hit.getId());
+                }
+            }
+            matches.addAll(getAliasHits(matches, aliases.getAliases(hitIds, filters)));
+        } else {
+            //the aliases in the filtered documents, whose indexed content may be
+            //in documents not matching the filters, searched without them
+            final Map<Long, List<Long>> filteredAliases = aliases.getAliases(filters);
+            for (KeywordQueryFilter chunkFilter : IndexAliases.getChunkFilters(filteredAliases.keySet())) {
+                final List<ContentHit> indexedMatches = performLuceneQuery(Collections.singletonList(chunkFilter));
+                matches.addAll(getAliasHits(indexedMatches, filteredAliases));
+            }
+        }
+        return matches;
+    }
 
+    /**
+     * Get the hits of the aliases of the files with hits in their chunks
+     *
+     * @param hits hits in the indexed content
+     * @param aliases ids of the aliases by id of the file with the indexed
+     * content
+     * @return hits of the aliases, in the same chunks
+     */
+    private List<ContentHit> getAliasHits(List<ContentHit> hits, Map<Long, List<Long>> aliases) throws NoOpenCoreException {
+        final List<ContentHit> aliasHits = new ArrayList<ContentHit>();
+        if (aliases.isEmpty()) {
+            return aliasHits;
+        }
+        SleuthkitCase sc = null;
         try {
-            bba.addAttributes(attributes); //write out to bb
-            writeResult.add(attributes);
-            return writeResult;
-        } catch (TskException e) {
-            logger.log(Level.WARNING, "Error adding bb attributes to artifact", e);
+            sc = Case.getCurrentCase().getSleuthkitCase();
+        } catch (IllegalStateException ex) {
+            //no case open, must be just closed
+            return aliasHits;
         }
-        return null;
+
+        for (ContentHit hit : hits) {
+            final List<Long> aliasIds = aliases.get(hit.getId());
+            if (aliasIds == null || !hit.isChunk()) {
+                continue;
+            }
+            for (long aliasId : aliasIds) {
+                try {
+                    aliasHits.add(new ContentHit(sc.getAbstractFileById(aliasId), hit.getChunkId()));
+                } catch (TskException ex) {
+                    logger.log(Level.WARNING, "Could not get the AbstractFile for keyword hit, ", ex);
+                    //something wrong with case/db
+                    return aliasHits;
+                }
+            }
+        }
+        return aliasHits;
     }
 
-    
     /**
-     * Perform the query and return result
+     * Perform the query with the given filters and return result
+     * @param queryFilters filters of the query
      * @return list of ContentHit objects
      * @throws NoOpenCoreException
      */
-    private List<ContentHit> performLuceneQuery() throws NoOpenCoreException {
+    private List<ContentHit> performLuceneQuery(List<KeywordQueryFilter> queryFilters) throws NoOpenCoreException {
 
         List<ContentHit> matches = new ArrayList<ContentHit>();
 
@@ -204,7 +285,7 @@ public class LuceneQuery implements KeywordSearchQuery {
         q.setQuery(theQueryStr);
         q.setRows(MAX_RESULTS);
         q.setFields(Server.Schema.ID.toString());
-        for (KeywordQueryFilter filter : filters) {
+        for (KeywordQueryFilter filter : queryFilters) {
             q.addFilterQuery(filter.toString());
         }
 
@@ -294,6 +375,74 @@ public class LuceneQuery implements KeywordSearchQuery {
      * @return 
      */
     public static String querySnippet(String query, long contentID, int chunkID, boolean isRegex, boolean group) throws NoOpenCoreException {
+        final String contentIDStr = getContentIdString(contentID, chunkID);
+        final Map<String, String> snippets = querySnippets(query, Collections.singletonList(contentIDStr), isRegex, group);
+        final String snippet = snippets.get(contentIDStr);
+        return snippet == null ? "" : snippet;
+    }
+
+    /**
+     * Return snippet preview contexts of many hits, with a highlight request
+     * per batch of up to MAX_SNIPPETS_PER_QUERY hits instead of one request
+     * per hit
+     *
+     * @param query the keyword query for text to highlight. Lucene special
+     * chars should already be escaped.
+     * @param contentIDStrs ids of the documents with the hits, from
+     * getContentIdString()
+     * @param isRegex whether the query is a regular expression
+     * @param group whether the query should look for all terms grouped
+     * together in the query order, or not
+     * @return snippets by document id, empty if the document has no
+     * highlight. Documents of a batch whose request failed are not in the map.
+     * @throws NoOpenCoreException
+     */
+    public static Map<String, String> querySnippets(String query, Collection<String> contentIDStrs, boolean isRegex, boolean group) throws NoOpenCoreException {
+        //the snippets of an alias are in the chunks of the file with the same content
+        final IndexAliases aliases = KeywordSearch.getServer().getAliases();
+        final Map<String, String> indexedIDStrs = new HashMap<String, String>();
+        for (String contentIDStr : contentIDStrs) {
+            indexedIDStrs.put(contentIDStr, aliases.resolveDocId(contentIDStr));
+        }
+
+        final Map<String, String> indexedSnippets = new HashMap<String, String>();
+        final List<String> ids = new ArrayList<String>(new HashSet<String>(indexedIDStrs.values()));
+        for (int start = 0; start < ids.size(); start += MAX_SNIPPETS_PER_QUERY) {
+            final List<String> batch = ids.subList(start, Math.min(ids.size(), start + MAX_SNIPPETS_PER_QUERY));
+            try {
+                querySnippetBatch(query, batch, isRegex, group, indexedSnippets);
+            } catch (KeywordSearchModuleException ex) {
+                logger.log(Level.WARNING, "Error executing Lucene Solr Query: " + query, ex);
+            }
+        }
+
+        final Map<String, String> snippets = new HashMap<String, String>();
+        for (Map.Entry<String, String> indexedIDStr : indexedIDStrs.entrySet()) {
+            final String snippet = indexedSnippets.get(indexedIDStr.getValue());
+            if (snippet != null) {
+                snippets.put(indexedIDStr.getKey(), snippet);
+            }
+        }
+        return snippets;
+    }
+
+    /**
+     * Get the id of the Solr document of a content or of its chunk
+     *
+     * @param contentID content id
+     * @param chunkID chunk id, or 0 if no chunks
+     * @return the document id
+     */
+    public static String getContentIdString(long contentID, int chunkID) {
+        if (chunkID == 0) {
+            return Long.toString(contentID);
+        } else {
+            return Server.getChunkIdString(contentID, chunkID);
+        }
+    }
+
+    private static void querySnippetBatch(String query, List<String> contentIDStrs, boolean isRegex, boolean group,
+            Map<String, String> snippets) throws NoOpenCoreException, KeywordSearchModuleException {
         Server solrServer = KeywordSearch.getServer();
 
         String highlightField = null;
@@ -327,17 +476,20 @@ public class LuceneQuery implements KeywordSearchQuery {
         
         q.setQuery(queryStr);
 
-        String contentIDStr = null;
-
-        if (chunkID == 0) {
-            contentIDStr = Long.toString(contentID);
-        } else {
-            contentIDStr = Server.getChunkIdString(contentID, chunkID);
+        //OR'ed ids of all the documents of the batch
+        StringBuilder idQuery = new StringBuilder();
+        idQuery.append(Server.Schema.ID.toString()).append(":(");
+        for (int i = 0; i < contentIDStrs.size(); ++i) {
+            if (i > 0) {
+                idQuery.append(" OR ");
+            }
+            idQuery.append(contentIDStrs.get(i));
         }
-
-        String idQuery = Server.Schema.ID.toString() + ":" + contentIDStr;
+        idQuery.append(")");
         q.setShowDebugInfo(DEBUG); //debug
-        q.addFilterQuery(idQuery);
+        q.addFilterQuery(idQuery.toString());
+        q.setRows(contentIDStrs.size());
+        q.setFields(Server.Schema.ID.toString());
         q.addHighlightField(highlightField);
         //q.setHighlightSimplePre("&laquo;"); //original highlighter only
         //q.setHighlightSimplePost("&raquo;");  //original highlighter only
@@ -360,25 +512,23 @@ public class LuceneQuery implements KeywordSearchQuery {
         q.setParam("hl.maxAnalyzedChars", Server.HL_ANALYZE_CHARS_UNLIMITED); 
 
         try {
-            QueryResponse response = solrServer.query(q);
+            QueryResponse response = solrServer.query(q, METHOD.POST);
             Map<String, Map<String, List<String>>> responseHighlight = response.getHighlighting();
-            Map<String, List<String>> responseHighlightID = responseHighlight.get(contentIDStr);
-            if (responseHighlightID == null) {
-                return "";
-            }
-            List<String> contentHighlights = responseHighlightID.get(highlightField);
-            if (contentHighlights == null) {
-                return "";
-            } else {
-                // extracted content is HTML-escaped, but snippet goes in a plain text field
-                return EscapeUtil.unEscapeHtml(contentHighlights.get(0)).trim();
+            for (String contentIDStr : contentIDStrs) {
+                String snippet = "";
+                Map<String, List<String>> responseHighlightID = responseHighlight == null ? null : responseHighlight.get(contentIDStr);
+                if (responseHighlightID != null) {
+                    List<String> contentHighlights = responseHighlightID.get(highlightField);
+                    if (contentHighlights != null) {
+                        // extracted content is HTML-escaped, but snippet goes in a plain text field
+                        snippet = EscapeUtil.unEscapeHtml(contentHighlights.get(0)).trim();
+                    }
+                }
+                snippets.put(contentIDStr, snippet);
             }
         } catch (NoOpenCoreException ex) {
             logger.log(Level.WARNING, "Error executing Lucene Solr Query: " + query, ex);
             throw ex;
-        } catch (KeywordSearchModuleException ex) {
-            logger.log(Level.WARNING, "Error executing Lucene Solr Query: " + query, ex);
-            return "";
         }
     }
 }
@@ -38,19 +38,27 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
+import org.apache.http.client.HttpClient;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import javax.swing.AbstractAction;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
 import org.apache.solr.client.solrj.request.CoreAdminRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.client.solrj.response.TermsResponse;
 import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.impl.BinaryResponseParser;
+import org.apache.solr.client.solrj.impl.HttpClientUtil;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.util.NamedList;
 import org.openide.modules.InstalledFileLocator;
 import org.openide.modules.Places;
@@ -60,7 +68,6 @@ import org.sleuthkit.autopsy.coreutils.PlatformUtil;
 import org.sleuthkit.autopsy.coreutils.Version;
 import org.sleuthkit.datamodel.Content;
 import org.apache.solr.common.SolrInputDocument;
-import org.apache.solr.client.solrj.impl.XMLResponseParser;
 
 /**
  * Handles for keeping track of a Solr server and its cores
@@ -129,6 +136,24 @@ public class Server {
                 return "num_chunks";
             }
         },
+        INDEX_SEQ {
+            @Override
+            public String toString() {
+                return "index_seq";
+            }
+        },
+        MD5 {
+            @Override
+            public String toString() {
+                return "md5";
+            }
+        },
+        ALIAS_OF {
+            @Override
+            public String toString() {
+                return "alias_of";
+            }
+        },
     };
     public static final String HL_ANALYZE_CHARS_UNLIMITED = "500000"; //max 1MB in a chunk. use -1 for unlimited, but -1 option may not be supported (not documented)
     //max content size we can send to Solr
@@ -140,7 +165,29 @@ public class Server {
     public static final char ID_CHUNK_SEP = '_';
     private String javaPath = "java";
     public static final Charset DEFAULT_INDEXED_TEXT_CHARSET = Charset.forName("UTF-8"); ///< default Charset to index text as
-    private static final int MAX_SOLR_MEM_MB = 512; //TODO set dynamically based on avail. system resources
+    //bounds of the Solr process heap, heaps under 32GB use compressed object pointers
+    private static final int MIN_SOLR_MEM_MB = 512;
+    private static final int MAX_SOLR_MEM_MB = 31 * 1024;
+    //the heap is sized in steps, so that small index changes do not change the budget
+    private static final int SOLR_MEM_STEP_MB = 512;
+    //at most 1/4 of the physical memory, the rest is left to the application
+    //and to the OS cache of the index files
+    private static final int PHYSICAL_MEM_MAX_SHARE = 4;
+    //heap without any index, 1/16 of the physical memory
+    private static final int PHYSICAL_MEM_BASE_SHARE = 16;
+    //heap added per MB of index, for the term index, caches and merges on commit
+    private static final int INDEX_MB_PER_HEAP_MB = 4;
+    //from this heap size, the heap is allocated upfront and collected concurrently,
+    //to avoid long full collections during large commits
+    private static final int CONCURRENT_GC_MIN_MEM_MB = 2048;
+    private static final String CONCURRENT_GC_OPTIONS = " -XX:+UseConcMarkSweepGC -XX:+UseParNewGC"
+            + " -XX:CMSInitiatingOccupancyFraction=75 -XX:+UseCMSInitiatingOccupancyOnly";
+    //max. time to wait for Solr to restart with a new memory budget
+    private static final int SOLR_RESTART_TIMEOUT_MS = 60 * 1000;
+    //JVM memory and GC options the running Solr process was started with
+    private String solrJvmOptions = null;
+    //size of the index of the last opened case, the index Solr is expected to hold
+    private long expectedIndexBytes = 0;
     private Process curSolrProcess = null;
     private static Ingester ingester = null;
     static final String PROPERTIES_FILE = KeywordSearchSettings.MODULE_NAME;
@@ -152,6 +199,10 @@ public class Server {
     private int currentSolrServerPort = 0;
     private int currentSolrStopPort = 0;
     private static final boolean DEBUG = (Version.getBuildType() == Version.Type.DEVELOPMENT);
+    //pooled connections to the local Solr server, enough for the batch senders,
+    //the keyword query threads, the searcher and the viewers at once
+    private static final int MAX_CONNECTIONS_PER_HOST = 16;
+    private static final int MAX_CONNECTIONS = 32;
 
     public enum CORE_EVT_STATES {
 
@@ -163,6 +214,12 @@ public class Server {
     private ServerAction serverAction;
     private InputStreamPrinterThread errorRedirectThread;
     private String solrUrl;
+    //shared by the admin and core clients, so that connections are kept alive and reused
+    private final HttpClient httpClient;
+    //engine running the cores
+    private final IndexBackend backend;
+    //files indexed once for all the files with the same content, in the current core
+    private final IndexAliases aliases = new IndexAliases(this);
 
     /**
      * New instance for the server at the given URL
@@ -173,13 +230,37 @@ public class Server {
         initSettings();
 
         this.solrUrl = "http://localhost:" + currentSolrServerPort + "/solr";
-        this.solrServer = new HttpSolrServer(solrUrl);
+        this.httpClient = createHttpClient();
+        this.solrServer = new HttpSolrServer(solrUrl, httpClient, new BinaryResponseParser());
         serverAction = new ServerAction();
         solrFolder = InstalledFileLocator.getDefault().locate("solr", Server.class.getPackage().getName(), false);
         instanceDir = solrFolder.getAbsolutePath() + File.separator + "solr";
         javaPath = PlatformUtil.getJavaPath();
 
-        logger.log(Level.INFO, "Created Server instance");
+        if (KeywordSearchSettings.getIndexBackend() == IndexBackend.Type.EMBEDDED) {
+            backend = new EmbeddedIndexBackend(instanceDir);
+        } else {
+            backend = new SolrProcessBackend();
+        }
+
+        logger.log(Level.INFO, "Created Server instance, index backend: " + KeywordSearchSettings.getIndexBackend());
+    }
+
+    /**
+     * Create the HTTP client of all the requests to the Solr server, with a
+     * pool of keep-alive connections
+     */
+    private static HttpClient createHttpClient() {
+        final ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set(HttpClientUtil.PROP_MAX_CONNECTIONS, MAX_CONNECTIONS);
+        params.set(HttpClientUtil.PROP_MAX_CONNECTIONS_PER_HOST, MAX_CONNECTIONS_PER_HOST);
+        params.set(HttpClientUtil.PROP_FOLLOW_REDIRECTS, false);
+        //the server is on localhost, compressing costs more than it saves
+        params.set(HttpClientUtil.PROP_ALLOW_COMPRESSION, false);
+        //TODO test these settings
+        //params.set(HttpClientUtil.PROP_SO_TIMEOUT, 1000 * 60);  // socket read timeout, make large enough so can index larger files
+        //params.set(HttpClientUtil.PROP_CONNECTION_TIMEOUT, 1000);
+        return HttpClientUtil.createClient(params);
     }
 
     private void initSettings() {
@@ -333,16 +414,33 @@ public class Server {
     }
 
     /**
-     * Tries to start a Solr instance in a separate process. Returns immediately
+     * Starts the index backend. The Solr process backend returns immediately
      * (probably before the server is ready) and doesn't check whether it was
      * successful.
      */
     void start() throws KeywordSearchModuleException, SolrServerNoPortException {
+        backend.start();
+    }
+
+    /**
+     * @return true if the index backend is a Solr process listening on the
+     * server ports, false if it does not need any port
+     */
+    boolean usesServerPorts() {
+        return backend.usesServerPorts();
+    }
+
+    /**
+     * Tries to start a Solr instance in a separate process. Returns immediately
+     * (probably before the server is ready) and doesn't check whether it was
+     * successful.
+     */
+    private void startSolrProcess() throws KeywordSearchModuleException, SolrServerNoPortException {
         logger.log(Level.INFO, "Starting Solr server from: " + solrFolder.getAbsolutePath());
         if (available(currentSolrServerPort)) {
             logger.log(Level.INFO, "Port [" + currentSolrServerPort + "] available, starting Solr");
             try {
-                final String MAX_SOLR_MEM_MB_PAR = " -Xmx" + Integer.toString(MAX_SOLR_MEM_MB) + "m";
+                final String jvmOptions = getSolrJvmOptions();
 
                 String loggingPropertiesOpt = " -Djava.util.logging.config.file=";
                 String loggingPropertiesFilePath = instanceDir + File.separator + "conf" + File.separator;
@@ -357,12 +455,13 @@ public class Server {
 
 
 
-                final String SOLR_START_CMD = javaPath + MAX_SOLR_MEM_MB_PAR
+                final String SOLR_START_CMD = javaPath + jvmOptions
                         + " -DSTOP.PORT=" + currentSolrStopPort + " -Djetty.port=" + currentSolrServerPort
                         + " -DSTOP.KEY=" + KEY + " "
                         + loggingProperties + " -jar start.jar";
                 logger.log(Level.INFO, "Starting Solr using: " + SOLR_START_CMD);
                 curSolrProcess = Runtime.getRuntime().exec(SOLR_START_CMD, null, solrFolder);
+                solrJvmOptions = jvmOptions;
                 logger.log(Level.INFO, "Finished starting Solr");
 
                 try {
@@ -394,6 +493,103 @@ public class Server {
         }
     }
 
+    /**
+     * Get the JVM memory and GC options to start the Solr process with, from
+     * the settings, or from the physical memory and the expected index size if
+     * the settings are automatic
+     *
+     * @return options, each preceded by a space
+     */
+    private String getSolrJvmOptions() {
+        final int heapMb = getSolrHeapMb();
+        final StringBuilder options = new StringBuilder();
+        options.append(" -Xmx").append(heapMb).append("m");
+
+        final String gcOptions = KeywordSearchSettings.getSolrGcOptions().trim();
+        if (!gcOptions.isEmpty()) {
+            options.append(" ").append(gcOptions);
+        } else if (heapMb >= CONCURRENT_GC_MIN_MEM_MB) {
+            options.append(" -Xms").append(heapMb).append("m");
+            options.append(CONCURRENT_GC_OPTIONS);
+        }
+        return options.toString();
+    }
+
+    /**
+     * Get the max. heap size of the Solr process. Unless set in the settings,
+     * it grows with the physical memory and with the expected index size, up
+     * to a share of the physical memory.
+     *
+     * @return heap size in MB
+     */
+    private int getSolrHeapMb() {
+        final int heapSetting = KeywordSearchSettings.getSolrMaxHeapMb();
+        if (heapSetting > 0) {
+            return heapSetting;
+        }
+
+        final long physicalMemMb = PlatformUtil.getTotalPhysicalMemory() / (1024 * 1024);
+        if (physicalMemMb <= 0) {
+            logger.log(Level.WARNING, "Could not get the physical memory size, using the min. Solr heap size");
+            return MIN_SOLR_MEM_MB;
+        }
+
+        final long indexMb = expectedIndexBytes / (1024 * 1024);
+        long heapMb = Math.max(MIN_SOLR_MEM_MB, physicalMemMb / PHYSICAL_MEM_BASE_SHARE) + indexMb / INDEX_MB_PER_HEAP_MB;
+        heapMb = Math.min(heapMb, physicalMemMb / PHYSICAL_MEM_MAX_SHARE);
+        heapMb = heapMb / SOLR_MEM_STEP_MB * SOLR_MEM_STEP_MB;
+        return (int) Math.max(MIN_SOLR_MEM_MB, Math.min(MAX_SOLR_MEM_MB, heapMb));
+    }
+
+    /**
+     * Restart the Solr process if the memory budget computed for the expected
+     * index differs from the one it is running with, and wait until it is
+     * running again
+     */
+    private void checkSolrMemoryBudget() {
+        if (!(backend instanceof SolrProcessBackend) || solrJvmOptions == null) {
+            return;
+        }
+        final String jvmOptions = getSolrJvmOptions();
+        if (jvmOptions.equals(solrJvmOptions)) {
+            return;
+        }
+
+        logger.log(Level.INFO, "Solr memory budget changed from:" + solrJvmOptions + " to:" + jvmOptions + ", restarting Solr");
+        try {
+            stopSolrProcess();
+            startSolrProcess();
+            final long timeout = System.currentTimeMillis() + SOLR_RESTART_TIMEOUT_MS;
+            while (!isSolrProcessRunning() && System.currentTimeMillis() < timeout) {
+                Thread.sleep(1000);
+            }
+        } catch (KeywordSearchModuleException ex) {
+            logger.log(Level.WARNING, "Error restarting Solr with the new memory budget", ex);
+        } catch (SolrServerNoPortException ex) {
+            logger.log(Level.WARNING, "Cannot restart Solr with the new memory budget, port not available", ex);
+        } catch (InterruptedException ex) {
+            logger.log(Level.WARNING, "Interrupted while waiting for Solr to restart");
+        }
+    }
+
+    /**
+     * Get the size of the files in a directory and its subdirectories
+     *
+     * @param dir directory
+     * @return size in bytes, 0 if the directory does not exist
+     */
+    private static long getDirSize(File dir) {
+        long size = 0;
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        for (File f : files) {
+            size += f.isDirectory() ? getDirSize(f) : f.length();
+        }
+        return size;
+    }
+
     /**
      * Checks to see if a specific port is available.
      *
@@ -443,12 +639,19 @@ public class Server {
         ModuleSettings.setConfigSetting(PROPERTIES_FILE, PROPERTIES_CURRENT_STOP_PORT, String.valueOf(port));
     }
 
+    /**
+     * Stops the index backend, waiting until it is stopped
+     */
+    synchronized void stop() throws KeywordSearchModuleException {
+        backend.stop();
+    }
+
     /**
      * Tries to stop a Solr instance.
      *
      * Waits for the stop command to finish before returning.
      */
-    synchronized void stop() throws KeywordSearchModuleException {
+    private void stopSolrProcess() throws KeywordSearchModuleException {
         try {
             logger.log(Level.INFO, "Stopping Solr server from: " + solrFolder.getAbsolutePath());
             //try graceful shutdown
@@ -480,6 +683,13 @@ public class Server {
         }
     }
 
+    /**
+     * Tests if the index backend is running and ready to open cores
+     */
+    synchronized boolean isRunning() throws KeywordSearchModuleException {
+        return backend.isRunning();
+    }
+
     /**
      * Tests if there's a Solr server running by sending it a core-status
      * request.
@@ -487,7 +697,7 @@ public class Server {
      * @return false if the request failed with a connection error, otherwise
      * true
      */
-    synchronized boolean isRunning() throws KeywordSearchModuleException {
+    private boolean isSolrProcessRunning() throws KeywordSearchModuleException {
         try {
             // making a status request here instead of just doing solrServer.ping(), because
             // that doesn't work when there are no cores
@@ -530,6 +740,7 @@ public class Server {
 
         validateIndexLocation(currentCase);
 
+        aliases.clear();
         currentCore = openCore(currentCase);
         serverAction.putValue(CORE_EVT, CORE_EVT_STATES.STARTED);
     }
@@ -568,6 +779,7 @@ public class Server {
         }
         currentCore.close();
         currentCore = null;
+        aliases.clear();
         serverAction.putValue(CORE_EVT, CORE_EVT_STATES.STOPPED);
     }
 
@@ -575,6 +787,21 @@ public class Server {
         currentCore.addDocument(doc);
     }
 
+    /**
+     * Add a batch of documents to the current core in a single request
+     *
+     * @param docs documents to add
+     * @throws KeywordSearchModuleException if the batch could not be added
+     * @throws NoOpenCoreException if no core is open
+     */
+    void addDocuments(Collection<SolrInputDocument> docs) throws KeywordSearchModuleException, NoOpenCoreException {
+        final Core core = currentCore;
+        if (core == null) {
+            throw new NoOpenCoreException();
+        }
+        core.addDocuments(docs);
+    }
+
     /**
      * Get index dir location for the case
      *
@@ -598,6 +825,9 @@ public class Server {
      */
     private synchronized Core openCore(Case theCase) throws KeywordSearchModuleException {
         String dataDir = getIndexDirPath(theCase);
+        //size Solr for the index of the case before opening it
+        expectedIndexBytes = getDirSize(new File(dataDir));
+        checkSolrMemoryBudget();
         return this.openCore(DEFAULT_CORE_NAME, new File(dataDir));
     }
 
@@ -607,10 +837,24 @@ public class Server {
      * @throws SolrServerException, NoOpenCoreException
      */
     synchronized void commit() throws SolrServerException, NoOpenCoreException {
+        commit(IndexCommitScheduler.CommitType.FULL);
+    }
+
+    /**
+     * commit current core if it exists
+     *
+     * @param type soft commit to make the new documents searchable, hard
+     * commit to sync the index to disk, or both
+     * @throws SolrServerException, NoOpenCoreException
+     */
+    synchronized void commit(IndexCommitScheduler.CommitType type) throws SolrServerException, NoOpenCoreException {
         if (currentCore == null) {
             throw new NoOpenCoreException();
         }
-        currentCore.commit();
+        currentCore.commit(type);
+        if (type != IndexCommitScheduler.CommitType.HARD) {
+            aliases.indexChanged();
+        }
     }
 
     NamedList<Object> request(SolrRequest request) throws SolrServerException, NoOpenCoreException {
@@ -713,7 +957,8 @@ public class Server {
             throw new NoOpenCoreException();
         }
         try {
-            return currentCore.queryNumFileChunks(fileID);
+            //an alias has the chunks of the file with the same content
+            return currentCore.queryNumFileChunks(aliases.resolve(fileID));
         } catch (SolrServerException ex) {
             throw new KeywordSearchModuleException("Error getting number of file chunks, ", ex);
         }
@@ -788,7 +1033,7 @@ public class Server {
         if (currentCore == null) {
             throw new NoOpenCoreException();
         }
-        return currentCore.getSolrContent(content.getId(), 0);
+        return currentCore.getSolrContent(aliases.resolve(content.getId()), 0);
     }
 
     /**
@@ -804,7 +1049,17 @@ public class Server {
         if (currentCore == null) {
             throw new NoOpenCoreException();
         }
-        return currentCore.getSolrContent(content.getId(), chunkID);
+        return currentCore.getSolrContent(aliases.resolve(content.getId()), chunkID);
+    }
+
+    /**
+     * Get the files indexed once for all the files with the same content, in
+     * the open core
+     *
+     * @return the aliases of the open core
+     */
+    IndexAliases getAliases() {
+        return aliases;
     }
 
     /**
@@ -836,32 +1091,80 @@ public class Server {
      * @return new core
      */
     private Core openCore(String coreName, File dataDir) throws KeywordSearchModuleException {
-        try {
-            if (!dataDir.exists()) {
-                dataDir.mkdirs();
-            }
+        if (!dataDir.exists()) {
+            dataDir.mkdirs();
+        }
 
-            //handle a possible scenario when server process might not be fully started
-            if (!this.isRunning()) {
-                logger.log(Level.WARNING, "Core open requested, but server not yet running");
-                throw new KeywordSearchModuleException("Core open requested, but server not yet running");
-            }
+        //handle a possible scenario when server process might not be fully started
+        if (!this.isRunning()) {
+            logger.log(Level.WARNING, "Core open requested, but server not yet running");
+            throw new KeywordSearchModuleException("Core open requested, but server not yet running");
+        }
 
-            CoreAdminRequest.Create createCore = new CoreAdminRequest.Create();
-            createCore.setDataDir(dataDir.getAbsolutePath());
-            createCore.setInstanceDir(instanceDir);
-            createCore.setCoreName(coreName);
+        return new Core(coreName, backend.openCore(coreName, dataDir));
+    }
 
-            this.solrServer.request(createCore);
+    /**
+     * Index backend running Solr in a separate process, started with the
+     * bundled Jetty, and accessed over HTTP on localhost
+     */
+    private class SolrProcessBackend implements IndexBackend {
 
-            final Core newCore = new Core(coreName);
+        @Override
+        public void start() throws KeywordSearchModuleException, SolrServerNoPortException {
+            startSolrProcess();
+        }
 
-            return newCore;
+        @Override
+        public void stop() throws KeywordSearchModuleException {
+            stopSolrProcess();
+        }
 
-        } catch (SolrServerException ex) {
-            throw new KeywordSearchModuleException("Could not open Core", ex);
-        } catch (IOException ex) {
-            throw new KeywordSearchModuleException("Could not open Core", ex);
+        @Override
+        public boolean isRunning() throws KeywordSearchModuleException {
+            return isSolrProcessRunning();
+        }
+
+        @Override
+        public boolean usesServerPorts() {
+            return true;
+        }
+
+        @Override
+        public SolrServer openCore(String coreName, File dataDir) throws KeywordSearchModuleException {
+            try {
+                CoreAdminRequest.Create createCore = new CoreAdminRequest.Create();
+                createCore.setDataDir(dataDir.getAbsolutePath());
+                createCore.setInstanceDir(instanceDir);
+                createCore.setCoreName(coreName);
+
+                solrServer.request(createCore);
+            } catch (SolrServerException ex) {
+                throw new KeywordSearchModuleException("Could not open Core", ex);
+            } catch (IOException ex) {
+                throw new KeywordSearchModuleException("Could not open Core", ex);
+            }
+
+            // the server to access a core needs to be built from a URL with the
+            // core in it, and is only good for core-specific operations
+            // responses and documents are sent in the binary javabin format,
+            // without the XML serialization and parsing of large highlight and terms responses
+            final HttpSolrServer solrCore = new HttpSolrServer(solrUrl + "/" + coreName, httpClient, new BinaryResponseParser());
+            solrCore.setRequestWriter(new BinaryRequestWriter());
+            solrCore.setMaxRetries(1); // defaults to 0.  > 1 not recommended.
+
+            return solrCore;
+        }
+
+        @Override
+        public void closeCore(String coreName) throws KeywordSearchModuleException {
+            try {
+                CoreAdminRequest.unloadCore(coreName, solrServer);
+            } catch (SolrServerException ex) {
+                throw new KeywordSearchModuleException("Cannot close Core", ex);
+            } catch (IOException ex) {
+                throw new KeywordSearchModuleException("Cannot close Core", ex);
+            }
         }
     }
 
@@ -869,28 +1172,12 @@ public class Server {
 
         // handle to the core in Solr
         private String name;
-        // the server to access a core needs to be built from a URL with the
-        // core in it, and is only good for core-specific operations
-        private HttpSolrServer solrCore;
+        // server for core-specific operations, from the index backend
+        private SolrServer solrCore;
 
-        private Core(String name) {
+        private Core(String name, SolrServer solrCore) {
             this.name = name;
-
-            this.solrCore = new HttpSolrServer(solrUrl + "/" + name);
-
-            //TODO test these settings
-            //solrCore.setSoTimeout(1000 * 60);  // socket read timeout, make large enough so can index larger files
-            //solrCore.setConnectionTimeout(1000);
-            solrCore.setDefaultMaxConnectionsPerHost(2);
-            solrCore.setMaxTotalConnections(5);
-            solrCore.setFollowRedirects(false);  // defaults to false
-            // allowCompression defaults to false.
-            // Server side must support gzip or deflate for this to have any effect.
-            solrCore.setAllowCompression(true);
-            solrCore.setMaxRetries(1); // defaults to 0.  > 1 not recommended.
-            solrCore.setParser(new XMLResponseParser()); // binary parser is used by default
-
-
+            this.solrCore = solrCore;
         }
 
         private QueryResponse query(SolrQuery sq) throws SolrServerException {
@@ -916,10 +1203,25 @@ public class Server {
             return qres.getTermsResponse();
         }
 
-        private void commit() throws SolrServerException {
+        private void commit(IndexCommitScheduler.CommitType type) throws SolrServerException {
             try {
-                //commit and block
-                solrCore.commit(true, true);
+                switch (type) {
+                    case SOFT:
+                        //new documents searchable, not synced to disk
+                        solrCore.commit(true, true, true);
+                        break;
+                    case HARD:
+                        //synced to disk, searchable documents unchanged
+                        final UpdateRequest req = new UpdateRequest();
+                        req.setAction(AbstractUpdateRequest.ACTION.COMMIT, true, false);
+                        req.setParam("openSearcher", "false");
+                        req.process(solrCore);
+                        break;
+                    default:
+                        //commit and block
+                        solrCore.commit(true, true);
+                        break;
+                }
             } catch (IOException e) {
                 logger.log(Level.WARNING, "Could not commit index. ", e);
                 throw new SolrServerException("Could not commit index", e);
@@ -938,6 +1240,18 @@ public class Server {
             }
         }
 
+        void addDocuments(Collection<SolrInputDocument> docs) throws KeywordSearchModuleException {
+            try {
+                solrCore.add(docs);
+            } catch (SolrServerException ex) {
+                logger.log(Level.WARNING, "Could not add batch of " + docs.size() + " documents to index via update handler", ex);
+                throw new KeywordSearchModuleException("Could not add batch of " + docs.size() + " documents to index via update handler", ex);
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, "Could not add batch of " + docs.size() + " documents to index via update handler", ex);
+                throw new KeywordSearchModuleException("Could not add batch of " + docs.size() + " documents to index via update handler", ex);
+            }
+        }
+
         private String getSolrContent(long contentID, int chunkID) {
             final SolrQuery q = new SolrQuery();
             q.setQuery("*:*");
@@ -956,13 +1270,7 @@ public class Server {
         }
 
         synchronized void close() throws KeywordSearchModuleException {
-            try {
-                CoreAdminRequest.unloadCore(this.name, solrServer);
-            } catch (SolrServerException ex) {
-                throw new KeywordSearchModuleException("Cannot close Core", ex);
-            } catch (IOException ex) {
-                throw new KeywordSearchModuleException("Cannot close Core", ex);
-            }
+            backend.closeCore(this.name);
         }
 
         /**
@@ -20,11 +20,13 @@ package org.sleuthkit.autopsy.keywordsearch;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.logging.Level;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import java.util.regex.Pattern;
@@ -43,6 +45,20 @@ import org.sleuthkit.datamodel.TskException;
 
 public class TermComponentQuery implements KeywordSearchQuery {
 
+    /**
+     * Receives the hits of a streaming regex query, one page of terms at a
+     * time
+     */
+    interface TermHitsHandler {
+
+        /**
+         * @param termHits hits of the terms of the page that have hits, by
+         * term
+         * @return true to continue with the next page, false to stop the query
+         */
+        boolean handleHits(Map<String, List<ContentHit>> termHits);
+    }
+
     private static final int TERMS_UNLIMITED = -1;
     //corresponds to field in Solr schema, analyzed with white-space tokenizer only
     private static final String TERMS_SEARCH_FIELD = Server.Schema.CONTENT_WS.toString();
@@ -56,7 +72,10 @@ public class TermComponentQuery implements KeywordSearchQuery {
     private Keyword keywordQuery = null;
     private final List<KeywordQueryFilter> filters = new ArrayList<KeywordQueryFilter>();
     private String field = null;
+    //max. terms returned by performQuery(), which keeps all the results in memory
     private static int MAX_TERMS_RESULTS = 20000;
+    //terms enumerated per terms request by the streaming query
+    private static final int TERMS_PAGE_SIZE = 1000;
     
     private static final boolean DEBUG = (Version.getBuildType() == Version.Type.DEVELOPMENT);
 
@@ -164,12 +183,9 @@ public class TermComponentQuery implements KeywordSearchQuery {
 
     @Override
     public KeywordWriteResult writeToBlackBoard(String termHit, AbstractFile newFsHit, String snippet, String listName) {
-        final String MODULE_NAME = KeywordSearchIngestModule.MODULE_NAME;
-
         //there is match actually in this file, create artifact only then
         BlackboardArtifact bba = null;
         KeywordWriteResult writeResult = null;
-        Collection<BlackboardAttribute> attributes = new ArrayList<BlackboardAttribute>();
         try {
             bba = newFsHit.newArtifact(ARTIFACT_TYPE.TSK_KEYWORD_HIT);
             writeResult = new KeywordWriteResult(bba);
@@ -178,7 +194,24 @@ public class TermComponentQuery implements KeywordSearchQuery {
             return null;
         }
 
+        Collection<BlackboardAttribute> attributes = getHitAttributes(termHit, snippet, listName);
+        try {
+            bba.addAttributes(attributes);
+            writeResult.add(attributes);
+            return writeResult;
+        } catch (TskException e) {
+            logger.log(Level.WARNING, "Error adding bb attributes for terms search artifact", e);
+        }
+
+        return null;
+
+    }
 
+    @Override
+    public Collection<BlackboardAttribute> getHitAttributes(String termHit, String snippet, String listName) {
+        final String MODULE_NAME = KeywordSearchIngestModule.MODULE_NAME;
+
+        Collection<BlackboardAttribute> attributes = new ArrayList<BlackboardAttribute>();
         //regex match
         attributes.add(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_KEYWORD.getTypeID(), MODULE_NAME, termHit));
         //list
@@ -203,31 +236,127 @@ public class TermComponentQuery implements KeywordSearchQuery {
         attributes.add(selAttr);
         }
         } */
+        return attributes;
+    }
 
+    /**
+     * Execute the query and return the hits of all the matching terms, up to
+     * MAX_TERMS_RESULTS terms. Use performQuery(TermHitsHandler) when the
+     * number of terms is not bounded.
+     */
+    @Override
+    public Map<String, List<ContentHit>> performQuery() throws NoOpenCoreException {
+        final Map<String, List<ContentHit>> results = new HashMap<String, List<ContentHit>>();
+        terms = new ArrayList<Term>();
         try {
-            bba.addAttributes(attributes);
-            writeResult.add(attributes);
-            return writeResult;
-        } catch (TskException e) {
-            logger.log(Level.WARNING, "Error adding bb attributes for terms search artifact", e);
+            performQuery(new TermHitsHandler() {
+                @Override
+                public boolean handleHits(Map<String, List<ContentHit>> termHits) {
+                    results.putAll(termHits);
+                    if (results.size() >= MAX_TERMS_RESULTS) {
+                        logger.log(Level.WARNING, "Regex query: " + termsQuery + " has more than "
+                                + MAX_TERMS_RESULTS + " matching terms, results are truncated");
+                        return false;
+                    }
+                    return true;
+                }
+            });
+        } catch (KeywordSearchModuleException ex) {
+            logger.log(Level.WARNING, "Error executing the regex terms query: " + termsQuery, ex);
         }
 
-        return null;
+        int resultSize = 0;
+        for (List<ContentHit> termHits : results.values()) {
+            resultSize += termHits.size();
+        }
+        logger.log(Level.INFO, "Regex # results: " + resultSize);
 
+        return results;
     }
 
-    @Override
-    public Map<String, List<ContentHit>> performQuery() throws NoOpenCoreException {
-        Map<String, List<ContentHit>> results = new HashMap<String, List<ContentHit>>();
+    /**
+     * Execute the query and pass the hits to the handler as they are found, so
+     * that the hits of all the terms are never kept in memory at once.
+     *
+     * The matching terms are enumerated in index order, a page at a time,
+     * continuing each page from the last term of the previous one. When the
+     * query has filters, the terms of a page with hits in the filtered
+     * documents are found with grouped queries first, and only those terms are
+     * queried for their documents.
+     *
+     * @param handler receives the hits of each page of terms
+     * @throws NoOpenCoreException if there is no open core
+     * @throws KeywordSearchModuleException if a terms request failed
+     */
+    void performQuery(TermHitsHandler handler) throws NoOpenCoreException, KeywordSearchModuleException {
+        final Server solrServer = KeywordSearch.getServer();
+        String lastTerm = null;
+        int numTerms = 0;
+        while (true) {
+            final SolrQuery q = createQuery();
+            q.setShowDebugInfo(DEBUG);
+            q.setTermsLimit(TERMS_PAGE_SIZE);
+            q.setTermsSortString("index");
+            if (lastTerm != null) {
+                q.setTermsLower(lastTerm);
+                q.setTermsLowerInclusive(false);
+            }
 
-        final SolrQuery q = createQuery();
-        q.setShowDebugInfo(DEBUG);
-        q.setTermsLimit(MAX_TERMS_RESULTS); 
-        terms = executeQuery(q);
+            final List<Term> page = solrServer.queryTerms(q).getTerms(TERMS_SEARCH_FIELD);
+            if (page == null || page.isEmpty()) {
+                break;
+            }
+            numTerms += page.size();
+            lastTerm = page.get(page.size() - 1).getTerm();
+            if (terms != null) {
+                terms.addAll(page);
+            }
 
-        int resultSize = 0;
-        
-        for (Term term : terms) {
+            final Map<String, List<ContentHit>> pageHits = queryTermHits(page);
+            if (!pageHits.isEmpty() && !handler.handleHits(pageHits)) {
+                break;
+            }
+            if (page.size() < TERMS_PAGE_SIZE) {
+                break;
+            }
+        }
+        logger.log(Level.INFO, "Regex query: " + termsQuery + " # terms: " + numTerms);
+    }
+
+    /**
+     * Get the hits of the terms of a page
+     *
+     * @return hits by term, for the terms with hits only
+     */
+    private Map<String, List<ContentHit>> queryTermHits(List<Term> page) throws NoOpenCoreException {
+        final Map<String, List<ContentHit>> results = new HashMap<String, List<ContentHit>>();
+
+        Collection<Term> termsWithHits = page;
+        if (!filters.isEmpty()) {
+            //most terms of the index have no hits in the filtered documents
+            final KeywordGroupQuery group = new KeywordGroupQuery();
+            for (KeywordQueryFilter filter : filters) {
+                group.addFilter(filter);
+            }
+            for (Term term : page) {
+                group.addKeyword(new Keyword(term.getTerm(), true));
+            }
+            final Set<Keyword> withHits;
+            try {
+                withHits = KeywordGroupQuery.performQueries(Collections.singletonList(group));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while finding the terms with hits");
+            }
+            termsWithHits = new ArrayList<Term>();
+            for (Term term : page) {
+                if (withHits.contains(new Keyword(term.getTerm(), true))) {
+                    termsWithHits.add(term);
+                }
+            }
+        }
+
+        for (Term term : termsWithHits) {
             final String termStr = KeywordSearchUtil.escapeLuceneQuery(term.getTerm());
 
             LuceneQuery filesQuery = new LuceneQuery(termStr);
@@ -242,23 +371,18 @@ public class TermComponentQuery implements KeywordSearchQuery {
                 Map<String, List<ContentHit>> subResults = filesQuery.performQuery();
                 Set<ContentHit> filesResults = new HashSet<ContentHit>();
                 for (String key : subResults.keySet()) {
-                    List<ContentHit> keyRes = subResults.get(key);
-                    resultSize += keyRes.size();
-                    filesResults.addAll(keyRes);
+                    filesResults.addAll(subResults.get(key));
+                }
+                if (!filesResults.isEmpty()) {
+                    results.put(term.getTerm(), new ArrayList<ContentHit>(filesResults));
                 }
-                results.put(term.getTerm(), new ArrayList<ContentHit>(filesResults));
             } catch (NoOpenCoreException e) {
                 logger.log(Level.WARNING, "Error executing Solr query,", e);
                 throw e;
             } catch (RuntimeException e) {
                 logger.log(Level.WARNING, "Error executing Solr query,", e);
             }
-
         }
-        
-        //TODO limit how many results we store, not to hit memory limits
-        logger.log(Level.INFO, "Regex # results: " + resultSize);
-
 
         return results;
     }
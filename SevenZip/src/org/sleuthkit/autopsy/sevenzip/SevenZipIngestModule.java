@@ -34,6 +34,7 @@ import javax.swing.JPanel;
 import net.sf.sevenzipjbinding.ISequentialOutStream;
 import net.sf.sevenzipjbinding.ISevenZipInArchive;
 import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.FileSignature;
 import org.sleuthkit.autopsy.ingest.IngestModuleAbstractFile;
 import org.sleuthkit.autopsy.ingest.IngestModuleInit;
 import org.sleuthkit.autopsy.ingest.IngestServices;
@@ -93,7 +94,6 @@ public final class SevenZipIngestModule implements IngestModuleAbstractFile {
     private ArchiveDepthCountTree archiveDepthCountTree;
     //buffer for checking file headers and signatures
     private static final int readHeaderSize = 4;
-    private final byte[] fileHeaderBuffer = new byte[readHeaderSize];
     private static final int ZIP_SIGNATURE_BE = 0x504B0304;
 
     //private constructor to ensure singleton instance 
@@ -165,7 +165,7 @@ public final class SevenZipIngestModule implements IngestModuleAbstractFile {
             return ProcessResult.OK;
         }
 
-        if (abstractFile.isFile() == false || !isSupported(abstractFile)) {
+        if (abstractFile.isFile() == false || !isSupported(abstractFile, pipelineContext.getFileSignature(abstractFile))) {
             //do not process dirs and files that are not supported
             return ProcessResult.OK;
         }
@@ -649,6 +649,18 @@ public final class SevenZipIngestModule implements IngestModuleAbstractFile {
     }
 
     public boolean isSupported(AbstractFile file) {
+        return isSupported(file, new FileSignature(file));
+    }
+
+    /**
+     * Check if the file is a supported archive, by extension or signature
+     *
+     * @param file file to check
+     * @param signature signature of the file, the header is only read if the
+     * extension does not match
+     * @return true if supported archive, false otherwise
+     */
+    private boolean isSupported(AbstractFile file, FileSignature signature) {
         String fileNameLower = file.getName().toLowerCase();
         int dotI = fileNameLower.lastIndexOf(".");
         if (dotI == -1 || dotI == fileNameLower.length() - 1) {
@@ -662,37 +674,27 @@ public final class SevenZipIngestModule implements IngestModuleAbstractFile {
         }
 
         //if no extension match, check for zip signature
-        //(note, in near future, we will use pre-detected content type)
-        return isZipFileHeader(file);
+        return isZipFileHeader(signature);
 
     }
 
     /**
      * Check if is zip file based on header
      *
-     * @param file
+     * @param signature signature of the file
      * @return true if zip file, false otherwise
      */
-    private boolean isZipFileHeader(AbstractFile file) {
-        if (file.getSize() < readHeaderSize) {
-            return false;
-        }
-
-        int bytesRead = 0;
-        try {
-            bytesRead = file.read(fileHeaderBuffer, 0, readHeaderSize);
-        } catch (TskCoreException ex) {
-            //ignore if can't read the first few bytes, not a ZIP
-            return false;
-        }
-        if (bytesRead != readHeaderSize) {
+    private boolean isZipFileHeader(FileSignature signature) {
+        //empty header if the first few bytes could not be read, not a ZIP
+        final byte[] header = signature.getHeader();
+        if (header.length < readHeaderSize) {
             return false;
         }
 
-        ByteBuffer bytes = ByteBuffer.wrap(fileHeaderBuffer);
-        int signature = bytes.getInt();
+        ByteBuffer bytes = ByteBuffer.wrap(header, 0, readHeaderSize);
+        int fileSignature = bytes.getInt();
 
-        return signature == ZIP_SIGNATURE_BE;
+        return fileSignature == ZIP_SIGNATURE_BE;
 
     }
 
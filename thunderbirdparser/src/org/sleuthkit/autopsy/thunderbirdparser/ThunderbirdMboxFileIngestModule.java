@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -42,7 +43,6 @@ import org.sleuthkit.datamodel.BlackboardAttribute;
 import org.sleuthkit.datamodel.BlackboardAttribute.ATTRIBUTE_TYPE;
 import org.sleuthkit.datamodel.ReadContentInputStream;
 import org.sleuthkit.datamodel.TskCoreException;
-import org.sleuthkit.datamodel.TskException;
 import org.xml.sax.SAXException;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.sleuthkit.autopsy.casemodule.Case;
@@ -95,16 +95,12 @@ public class ThunderbirdMboxFileIngestModule implements IngestModuleAbstractFile
             return ProcessResult.OK;
         }
 
-        try {
-            byte[] t = new byte[64];
-            if (abstractFile.getSize() > 64) {
-                int byteRead = abstractFile.read(t, 0, 64);
-                if (byteRead > 0) {
-                    isMbox = mbox.isValidMimeTypeMbox(t);
-                }
+        if (abstractFile.getSize() > 64) {
+            //header shared with the other modules, empty if it could not be read
+            byte[] header = ingestContext.getFileSignature(abstractFile).getHeader();
+            if (header.length > 0) {
+                isMbox = mbox.isValidMimeTypeMbox(Arrays.copyOf(header, Math.min(64, header.length)));
             }
-        } catch (TskException ex) {
-            logger.log(Level.WARNING, null, ex);
         }
 
 